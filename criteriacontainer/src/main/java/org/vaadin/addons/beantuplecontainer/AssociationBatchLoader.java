@@ -0,0 +1,269 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaBuilder.In;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Metamodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.criteriacore.InPredicates;
+
+/**
+ * Load an association for all the rows of a page with one query.
+ * 
+ * <p>The query selects the owners of the page and their associated entities
+ * (<code>SELECT o, a FROM Owner o JOIN o.association a WHERE o IN (...)</code>).  The associated entities
+ * are thereby in the persistence context, so that reading a single-valued association does not go back
+ * to the database.  Collections are not initialized by such a query; the associated entities are
+ * returned so that they can be exposed as item properties.</p>
+ * 
+ * <p>When the page mixes subclasses of a polymorphic entity, the query is on their closest common entity
+ * class that has the association; if the subclasses declare it separately, each one is queried.</p>
+ * 
+ * @see BeanTupleQueryDefinition#addBatchLoadedAssociation(String, Object)
+ * @author jflamy
+ */
+final class AssociationBatchLoader {
+
+	final private static Logger logger = LoggerFactory.getLogger(AssociationBatchLoader.class);
+
+	private AssociationBatchLoader() {
+	}
+
+	/**
+	 * @param entityManager the EntityManager that loaded the page; the owners must still be managed.
+	 * @param associations for each association path, the item property that receives it (null if none)
+	 * @param tuples the rows of the page
+	 * @return for each row, the values of the item properties
+	 */
+	static List<Map<Object, Object>> load(EntityManager entityManager, Map<String, Object> associations, List<?> tuples) {
+		final List<Map<Object, Object>> properties = new ArrayList<Map<Object, Object>>(tuples.size());
+		for (int i = 0; i < tuples.size(); i++) {
+			properties.add(new HashMap<Object, Object>());
+		}
+		for (Entry<String, Object> association : associations.entrySet()) {
+			// "association" on the first entity of the tuple, or "alias.association"
+			final String[] segments = association.getKey().split("\\.");
+			final String attributeName = segments[segments.length - 1];
+			final List<Object> owners = new ArrayList<Object>(tuples.size());
+			final Set<Object> distinctOwners = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+			for (Object tuple : tuples) {
+				final Object owner = segments.length == 1 ? ((Tuple) tuple).get(0) : ((Tuple) tuple).get(segments[0]);
+				owners.add(owner);
+				if (owner != null) {
+					distinctOwners.add(owner);
+				}
+			}
+			if (distinctOwners.isEmpty()) {
+				continue;
+			}
+			// the page may mix subclasses of a polymorphic root.
+			final Map<Class<?>, List<Object>> ownersByClass = new LinkedHashMap<Class<?>, List<Object>>();
+			for (Object owner : distinctOwners) {
+				final Class<?> ownerClass = getEntityClass(entityManager, owner.getClass());
+				if (getAttribute(entityManager, ownerClass, attributeName) == null) {
+					// a subclass that does not have the association.
+					continue;
+				}
+				List<Object> classOwners = ownersByClass.get(ownerClass);
+				if (classOwners == null) {
+					classOwners = new ArrayList<Object>();
+					ownersByClass.put(ownerClass, classOwners);
+				}
+				classOwners.add(owner);
+			}
+			if (ownersByClass.isEmpty()) {
+				throw new IllegalArgumentException(association.getKey() + ": no attribute " + attributeName);
+			}
+			final Attribute<?, ?> attribute = getAttribute(entityManager, ownersByClass.keySet().iterator().next(), attributeName);
+			final Class<?> commonClass = getCommonEntityClass(entityManager, ownersByClass.keySet(), attributeName);
+			final Map<Object, List<Object>> targets;
+			if (commonClass != null) {
+				final List<Object> associationOwners = new ArrayList<Object>();
+				for (List<Object> classOwners : ownersByClass.values()) {
+					associationOwners.addAll(classOwners);
+				}
+				targets = query(entityManager, commonClass, attributeName, associationOwners);
+			} else {
+				// the association is declared separately by several subclasses.
+				targets = new IdentityHashMap<Object, List<Object>>();
+				for (Entry<Class<?>, List<Object>> classOwners : ownersByClass.entrySet()) {
+					targets.putAll(query(entityManager, classOwners.getKey(), attributeName, classOwners.getValue()));
+				}
+			}
+
+			final Object itemPropertyId = association.getValue();
+			if (itemPropertyId == null) {
+				continue;
+			}
+			for (int i = 0; i < owners.size(); i++) {
+				final Object owner = owners.get(i);
+				if (owner == null) {
+					continue;
+				}
+				final List<Object> ownerTargets = targets.get(owner);
+				if (attribute.isCollection()) {
+					properties.get(i).put(itemPropertyId, ownerTargets != null ? ownerTargets : new ArrayList<Object>());
+				} else {
+					properties.get(i).put(itemPropertyId, ownerTargets != null ? ownerTargets.get(0) : null);
+				}
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Run the query, in chunks of at most {@link InPredicates#CHUNK_SIZE} owners.
+	 * @return the associated entities, by owner (identity)
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<Object, List<Object>> query(EntityManager entityManager, Class<?> ownerClass,
+			String attributeName, List<Object> owners) {
+		final Map<Object, List<Object>> targets = new IdentityHashMap<Object, List<Object>>();
+		final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		for (int start = 0; start < owners.size(); start += InPredicates.CHUNK_SIZE) {
+			final List<Object> chunk = owners.subList(start, Math.min(start + InPredicates.CHUNK_SIZE, owners.size()));
+			final CriteriaQuery<Tuple> query = cb.createTupleQuery();
+			final Root<?> root = query.from(ownerClass);
+			final Join<?, ?> join = root.join(attributeName, JoinType.INNER);
+			query.multiselect(root, join);
+			final In<Object> in = cb.in((Root<Object>) root);
+			final List<ParameterExpression<?>> parameters = new ArrayList<ParameterExpression<?>>();
+			// padded to a canonical size, so that the statement is reused from one page to the next.
+			final int size = InPredicates.canonicalSize(chunk.size());
+			for (int i = 0; i < size; i++) {
+				final ParameterExpression<?> parameter = cb.parameter(ownerClass);
+				parameters.add(parameter);
+				in.value(parameter);
+			}
+			query.where(in);
+			final TypedQuery<Tuple> typedQuery = entityManager.createQuery(query);
+			for (int i = 0; i < size; i++) {
+				typedQuery.setParameter((Parameter<Object>) parameters.get(i), chunk.get(Math.min(i, chunk.size() - 1)));
+			}
+			final long startTime = System.nanoTime();
+			final List<Tuple> rows = typedQuery.getResultList();
+			logger.debug("batch loaded {} for {} owners: {} rows in {} ms", new Object[] {
+					attributeName, chunk.size(), rows.size(), (System.nanoTime() - startTime) / 1000000 });
+			for (Tuple row : rows) {
+				List<Object> ownerTargets = targets.get(row.get(0));
+				if (ownerTargets == null) {
+					ownerTargets = new ArrayList<Object>();
+					targets.put(row.get(0), ownerTargets);
+				}
+				ownerTargets.add(row.get(1));
+			}
+		}
+		return targets;
+	}
+
+	/**
+	 * @param entityManager gives access to the metamodel
+	 * @param ownerClasses the entity classes of the owners that have the association
+	 * @param attributeName the association
+	 * @return the closest entity class that is a superclass of all the owner classes and has the association
+	 *         (the owner class itself if there is only one), null if there is none.
+	 */
+	private static Class<?> getCommonEntityClass(EntityManager entityManager, Set<Class<?>> ownerClasses, String attributeName) {
+		for (Class<?> candidate = ownerClasses.iterator().next(); candidate != null; candidate = candidate.getSuperclass()) {
+			boolean common = true;
+			for (Class<?> ownerClass : ownerClasses) {
+				common = common && candidate.isAssignableFrom(ownerClass);
+			}
+			if (common) {
+				return isEntity(entityManager, candidate) && getAttribute(entityManager, candidate, attributeName) != null
+						? candidate : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the attribute of an entity class, null if the class does not have it.
+	 */
+	private static Attribute<?, ?> getAttribute(EntityManager entityManager, Class<?> entityClass, String attributeName) {
+		try {
+			return entityManager.getMetamodel().managedType(entityClass).getAttribute(attributeName);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the class is an entity of the persistence unit.
+	 */
+	private static boolean isEntity(EntityManager entityManager, Class<?> type) {
+		try {
+			entityManager.getMetamodel().entity(type);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the entity class, skipping the subclasses generated by the provider.
+	 */
+	private static Class<?> getEntityClass(EntityManager entityManager, Class<?> instanceClass) {
+		final Class<?> entityClass = findEntityClass(entityManager.getMetamodel(), instanceClass);
+		if (entityClass == null) {
+			throw new IllegalArgumentException(instanceClass + " is not an entity");
+		}
+		return entityClass;
+	}
+
+	/**
+	 * Find the entity class of an object, whether it is mapped by annotations or in orm.xml,
+	 * and whether the object is the entity itself or a proxy subclass generated by the provider.
+	 * 
+	 * @param metamodel the metamodel of the persistence unit
+	 * @param instanceClass the class of the object
+	 * @return the entity class, null if the object is not an entity.
+	 */
+	static Class<?> findEntityClass(Metamodel metamodel, Class<?> instanceClass) {
+		for (Class<?> type = instanceClass; type != null && type != Object.class; type = type.getSuperclass()) {
+			try {
+				metamodel.entity(type);
+				return type;
+			} catch (IllegalArgumentException e) {
+				// not an entity, try the superclass.
+			}
+		}
+		return null;
+	}
+}
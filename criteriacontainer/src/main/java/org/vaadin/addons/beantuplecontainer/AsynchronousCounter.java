@@ -0,0 +1,150 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.criteriacore.LoggerUtils;
+
+/**
+ * Run count queries in the background.
+ * 
+ * <p>The counting query must be created by the caller, on an EntityManager reserved for that purpose:
+ * neither the criteria builder nor the EntityManager are thread-safe.  The EntityManager is closed once
+ * the count is done.</p>
+ * 
+ * <p>Each running count holds a connection.  Unless the application supplies its own executor
+ * (see {@link BeanTupleQueryDefinition#setCountExecutor(ExecutorService)}), the counts share a pool of at most
+ * {@link #MAX_THREADS} threads, with at most {@link #MAX_QUEUED} counts waiting; a count that cannot be queued
+ * is reported as failed, and is then run synchronously by the container.  Idle threads stop after a while;
+ * {@link #shutdown()} stops them at once, and must be called when the web application is stopped so that
+ * no thread keeps a reference to its class loader.</p>
+ * 
+ * @author jflamy
+ */
+final class AsynchronousCounter {
+
+	final private static Logger logger = LoggerFactory.getLogger(AsynchronousCounter.class);
+
+	/**
+	 * Receives the result of a count.
+	 */
+	interface Callback {
+		/**
+		 * @param count the number of items
+		 * @param startNanos value of {@link System#nanoTime()} when the query was started
+		 */
+		void countComputed(int count, long startNanos);
+
+		/**
+		 * @param e the reason why the count could not be computed
+		 */
+		void countFailed(RuntimeException e);
+	}
+
+	/** largest number of counts run at the same time by the default executor. */
+	static final int MAX_THREADS = 4;
+
+	/** largest number of counts waiting for a thread of the default executor. */
+	static final int MAX_QUEUED = 100;
+
+	/** seconds after which an idle thread of the default executor stops. */
+	private static final int KEEP_ALIVE_SECONDS = 30;
+
+	/** the executor used when the query definition does not supply one, created on first use. */
+	private static ThreadPoolExecutor defaultExecutor;
+
+	private AsynchronousCounter() {
+	}
+
+	/**
+	 * @return the shared executor, created if needed.
+	 */
+	private static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+						private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "criteriacontainer-count-" + threadNumber.getAndIncrement());
+							// must not prevent the servlet container from shutting down.
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			defaultExecutor.allowCoreThreadTimeOut(true);
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * Stop the threads of the shared executor; counts already waiting are abandoned.
+	 * A new executor is created if counts are submitted afterwards.
+	 */
+	static synchronized void shutdown() {
+		if (defaultExecutor != null) {
+			defaultExecutor.shutdownNow();
+			defaultExecutor = null;
+		}
+	}
+
+	/**
+	 * Run the count in the background.
+	 * 
+	 * @param countQuery the query, created on countingEntityManager
+	 * @param countingEntityManager the EntityManager reserved for the count, closed when done
+	 * @param executor the executor supplied by the application, null to use the shared one
+	 * @param callback receives the count, or the failure.
+	 */
+	static void submit(final TypedQuery<Object> countQuery, final EntityManager countingEntityManager,
+			ExecutorService executor, final Callback callback) {
+		final Runnable count = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final long start = System.nanoTime();
+					final int count = ((Number) countQuery.getSingleResult()).intValue();
+					callback.countComputed(count, start);
+				} catch (RuntimeException e) {
+					LoggerUtils.logErrorException(logger, e);
+					callback.countFailed(e);
+				} finally {
+					countingEntityManager.close();
+				}
+			}
+		};
+		try {
+			(executor != null ? executor : getDefaultExecutor()).execute(count);
+		} catch (RejectedExecutionException e) {
+			logger.debug("count not queued: {}", e.getMessage());
+			countingEntityManager.close();
+			callback.countFailed(e);
+		}
+	}
+}
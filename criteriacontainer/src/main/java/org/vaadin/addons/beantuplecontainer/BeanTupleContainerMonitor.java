@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.criteriacore.LoggerUtils;
+import org.vaadin.addons.criteriacore.QueryEvent;
+import org.vaadin.addons.criteriacore.QueryListener;
+import org.vaadin.addons.criteriacore.QueryPhase;
+
+/**
+ * JMX view of a {@link BeanTupleContainer}.
+ * 
+ * <p>The monitor listens to the queries of the container; it only keeps weak references to the
+ * container and its view, so that a container that was not unregistered does not keep its items alive.  The
+ * MBeans of containers that have been garbage-collected are unregistered the next time a monitor is registered.
+ * The attributes are read from the JMX thread without synchronization and are therefore approximate.</p>
+ * 
+ * @author jflamy
+ */
+class BeanTupleContainerMonitor implements BeanTupleContainerMonitorMBean, QueryListener {
+
+	final private static Logger logger = LoggerFactory.getLogger(BeanTupleContainerMonitor.class);
+
+	/** registered monitors, by name. */
+	private static final ConcurrentMap<ObjectName, BeanTupleContainerMonitor> registered =
+			new ConcurrentHashMap<ObjectName, BeanTupleContainerMonitor>();
+
+	/** references to the containers that have been garbage-collected. */
+	private static final ReferenceQueue<BeanTupleContainer> collectedContainers = new ReferenceQueue<BeanTupleContainer>();
+
+	/** estimate for one entry of the key map: HashMap entry, boxed key and index. */
+	private static final int KEY_ENTRY_BYTES = 80;
+
+	/** estimate for one property of a resident item. */
+	private static final int PROPERTY_BYTES = 48;
+
+	private final WeakReference<BeanTupleContainer> containerReference;
+	private final WeakReference<BeanTupleQueryView> queryViewReference;
+	private final ObjectName objectName;
+
+	private final AtomicLong countQueries = new AtomicLong();
+	private final AtomicLong selectQueries = new AtomicLong();
+	private volatile long memoryLoadsBaseline;
+	private volatile long lastQueryNanos = -1;
+
+	BeanTupleContainerMonitor(BeanTupleContainer container, BeanTupleQueryView queryView, ObjectName objectName) {
+		this.containerReference = new WeakReference<BeanTupleContainer>(container, collectedContainers);
+		this.queryViewReference = new WeakReference<BeanTupleQueryView>(queryView);
+		this.objectName = objectName;
+		this.memoryLoadsBaseline = queryView.getQueryDefinition().getMemoryLoadCount();
+	}
+
+	/**
+	 * Register the monitor in the platform MBean server, after removing those of collected containers.
+	 * @throws JMException if the name is taken or the registration fails
+	 */
+	void register() throws JMException {
+		unregisterCollected();
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registered.put(objectName, this);
+	}
+
+	/**
+	 * Remove the monitor from the platform MBean server, if it is still registered.
+	 * @throws JMException if the MBean server refuses
+	 */
+	void unregister() throws JMException {
+		if (registered.remove(objectName, this)) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+	}
+
+	/**
+	 * Unregister the monitors whose container has been garbage-collected without calling
+	 * {@link BeanTupleContainer#unregisterMonitor()}.
+	 */
+	static void unregisterCollected() {
+		Reference<? extends BeanTupleContainer> reference;
+		while ((reference = collectedContainers.poll()) != null) {
+			for (BeanTupleContainerMonitor monitor : registered.values()) {
+				if (monitor.containerReference == reference) {
+					try {
+						monitor.unregister();
+					} catch (JMException e) {
+						LoggerUtils.logErrorException(logger, e);
+					}
+				}
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.criteriacore.QueryListener#queryPhaseCompleted(org.vaadin.addons.criteriacore.QueryEvent)
+	 */
+	@Override
+	public void queryPhaseCompleted(QueryEvent event) {
+		if (event.getPhase() == QueryPhase.COUNT) {
+			countQueries.incrementAndGet();
+			lastQueryNanos = event.getDurationNanos();
+		} else if (event.getPhase() == QueryPhase.SELECT) {
+			selectQueries.incrementAndGet();
+			lastQueryNanos = event.getDurationNanos();
+		}
+	}
+
+	@Override
+	public int getSize() {
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		return queryView == null ? -1 : queryView.getKnownSize();
+	}
+
+	@Override
+	public int getResidentRows() {
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		return queryView == null ? 0 : queryView.getResidentResult().getLoadedCount();
+	}
+
+	@Override
+	public long getCacheHits() {
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		return queryView == null ? 0 : queryView.getQueryDefinition().getMemoryLoadCount() - memoryLoadsBaseline;
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return selectQueries.get();
+	}
+
+	@Override
+	public int getKeyMapSize() {
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		return queryView == null ? 0 : queryView.getKeyToId().size();
+	}
+
+	@Override
+	public int getManagedRows() {
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		return queryView == null ? 0 : queryView.getQueryDefinition().getManagedRowCount();
+	}
+
+	@Override
+	public int getRefreshCount() {
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		return queryView == null ? 0 : queryView.getQueryDefinition().getRefreshCount();
+	}
+
+	@Override
+	public long getCountQueries() {
+		return countQueries.get();
+	}
+
+	@Override
+	public double getLastQueryMillis() {
+		final long nanos = lastQueryNanos;
+		return nanos < 0 ? -1 : nanos / 1000000.0;
+	}
+
+	@Override
+	public long getEstimatedRetainedBytes() {
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		if (queryView == null) {
+			return 0;
+		}
+		final long propertyCount = queryView.getQueryDefinition().getPropertyIds().size();
+		return (long) getKeyMapSize() * KEY_ENTRY_BYTES
+				+ (long) getResidentRows() * propertyCount * PROPERTY_BYTES;
+	}
+
+	@Override
+	public void dropCaches() {
+		final BeanTupleContainer container = containerReference.get();
+		if (container != null) {
+			container.dropCaches();
+		}
+	}
+
+	@Override
+	public void resetStatistics() {
+		countQueries.set(0);
+		selectQueries.set(0);
+		final BeanTupleQueryView queryView = queryViewReference.get();
+		memoryLoadsBaseline = queryView == null ? 0 : queryView.getQueryDefinition().getMemoryLoadCount();
+		lastQueryNanos = -1;
+	}
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+/**
+ * Management interface of a {@link BeanTupleContainer}, registered with
+ * {@link BeanTupleContainer#registerMonitor(String)}.
+ * 
+ * @author jflamy
+ */
+public interface BeanTupleContainerMonitorMBean {
+
+	/**
+	 * @return the size last computed, -1 if not known (not counted since the last refresh).
+	 */
+	int getSize();
+
+	/**
+	 * @return the number of items kept in memory for a small result (see {@link BeanTupleQueryDefinition#setInMemoryThreshold(int)})
+	 */
+	int getResidentRows();
+
+	/**
+	 * @return the number of batches served from memory instead of the database.
+	 */
+	long getCacheHits();
+
+	/**
+	 * @return the number of batches read from the database.
+	 */
+	long getCacheMisses();
+
+	/**
+	 * @return the number of entries in the map from keys to container indexes.
+	 */
+	int getKeyMapSize();
+
+	/**
+	 * @return the number of rows whose entities are counted against the persistence context budget
+	 *         (see {@link BeanTupleQueryDefinition#setPersistenceContextBudget(int)})
+	 */
+	int getManagedRows();
+
+	/**
+	 * @return the number of refreshes of the query definition.
+	 */
+	int getRefreshCount();
+
+	/**
+	 * @return the number of count queries run.
+	 */
+	long getCountQueries();
+
+	/**
+	 * @return the duration in milliseconds of the last count or select query.
+	 */
+	double getLastQueryMillis();
+
+	/**
+	 * @return a rough estimate of the memory held by the key map and the resident items, in bytes.
+	 */
+	long getEstimatedRetainedBytes();
+
+	/**
+	 * Forget the resident items and refresh the container.  Done by the application thread the next
+	 * time the container is read, since containers are not thread-safe.
+	 */
+	void dropCaches();
+
+	/**
+	 * Restart the hit, miss and query counters.
+	 */
+	void resetStatistics();
+
+}
@@ -1,332 +1,802 @@
-/**
- * Copyright 2011 Jean-François Lamy
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.vaadin.addons.beantuplecontainer;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.persistence.EntityManager;
-import javax.persistence.Tuple;
-import javax.persistence.TypedQuery;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.vaadin.addons.lazyquerycontainer.Query;
-
-import com.vaadin.data.Item;
-import com.vaadin.data.util.ObjectProperty;
-
-/**
- * Query that returns a Tuple
- * 
- * @author Jean-François Lamy
- */
-
-public class BeanTupleItemHelper implements Query {
-	
-    @SuppressWarnings("unused")
-    private Logger logger = LoggerFactory.getLogger(BeanTupleItemHelper.class);
-	
-    /** The JPA EntityManager. */
-    protected EntityManager entityManager;
-    
-    /** Flag reflecting whether application manages transactions. */
-    protected boolean applicationTransactionManagement;
-
-    /** The JPA select query. */
-    private TypedQuery<Tuple> selectQuery;
-    
-    /** The JPA select count query. */
-    private TypedQuery<Object> selectCountQuery;
-    
-    /** QueryDefinition contains definition of the query properties and batch size. */
-    protected BeanTupleQueryDefinition queryDefinition;
-    
-    /** The size of the query. */
-    private int querySize = -1;
-
-
-    /** Cache from keys to container index. */
-    protected KeyManager keyToIdMapper;
-
-
-    /**
-     * Constructor for configuring the query.
-     * @param criteriaQueryDefinition The entity query definition..
-     * @param keyToIdMapper Holds cache id to key mappings.
-     */
-    public BeanTupleItemHelper(final BeanTupleQueryDefinition criteriaQueryDefinition, KeyManager keyToIdMapper) {
-        this.queryDefinition = criteriaQueryDefinition;
-        this.keyToIdMapper = keyToIdMapper;
-        this.entityManager = queryDefinition.getEntityManager();
-        this.selectQuery = criteriaQueryDefinition.getSelectQuery();
-        this.selectCountQuery = criteriaQueryDefinition.getCountQuery();
-        this.applicationTransactionManagement = criteriaQueryDefinition.isApplicationManagedTransactions();
-    }
-   
-    
-    /**
-     * Constructs new item based on QueryDefinition.
-     * Item is initialized with the default values.
-     * 
-     * @return new item with default values.
-     */
-	@Override
-	public Item constructItem() {
-        try {
-            BeanTupleItem tupleItem = new BeanTupleItem();
-            
-            for (Object propertyId : queryDefinition.getPropertyIds()) {
-            	tupleItem.addItemProperty(propertyId, 
-            			new ObjectProperty<Object>(queryDefinition.getPropertyDefaultValue(propertyId)));
-            }
-            return tupleItem;
-        } catch (Exception e) {
-            throw new RuntimeException("Error in bean construction or property population with default values.", e);
-        }
-    }
-
-    /**
-     * Number of beans returned by query.
-     * <p>
-     * This method is called extremely often.  We store the result to avoid 
-     * invoking the query.
-     * </p>
-     * 
-     * @return number of beans.
-     */
-    @Override
-	public int size() {
-        if (getQuerySize() == -1) {
-            setQuerySize(((Number) selectCountQuery.getSingleResult()).intValue());
-        }
-        return getQuerySize();
-    }
-
-    /**
-     * Load batch of items.
-     * <p>
-     * This is the only location where we actually retrieve items from
-     * the database.
-     * </p>
-     * @param startIndex Starting index of the item list.
-     * @param count Count of the items to be retrieved.
-     * @return List of items.
-     */
-    @Override
-	public List<Item> loadItems(final int startIndex, final int count) {
-        List<Item> items = new ArrayList<Item>();
-        if (count <= 0) {
-            return items;
-        }
-
-        adjustRetrievalBoundaries(selectQuery, startIndex, count);
-        List<?> tuples = selectQuery.getResultList();
-        
-        
-        Object keyPropertyId = keyToIdMapper.getKeyPropertyId();
-        int curCount = 0;
-        for (Object tuple : tuples) {
-            Item item = toItem((Tuple) tuple);
-            
-            //iterate over entities in the tuple.
-            if (queryDefinition.isDetachedEntities()) {
-            	((BeanTupleItem)item).detach(entityManager);
-            }
-
-            items.add(item);
-            addToMapping(item, keyPropertyId, startIndex+curCount);
-            curCount++;
-        }
-        return items;
-    }
-
-
-    /**
-     * Call back to the cache(s).
-     * <p>The view can maintain a cache or mappings of what it has retrieved. In
-     * the current implementation, we map the keys to their corresponding index
-     * in the container</p>
-     * 
-     * @param item the item being added
-     * @param keyPropertyId the key being used (the real key from the database)
-     * @param index the index in the container 
-     */
-    protected void addToMapping(Item item, Object keyPropertyId, final int index) {
-        if (keyPropertyId != null) {
-            Object value = item.getItemProperty(keyPropertyId).getValue();
-            keyToIdMapper.getKeyToId().put(value, index);
-        } else {
-            // identity mapping, as precaution
-            keyToIdMapper.getKeyToId().put(index, index);
-        }
-    }
-
-    
-    /**
-     * Saves the modifications done by container to the query result.
-     * Query will be discarded after changes have been saved
-     * and new query loaded so that changed items are sorted
-     * appropriately.
-     * @param addedItems Items to be inserted.
-     * @param modifiedItems Items to be updated.
-     * @param removedItems Items to be deleted.
-     */
-    @Override
-	public void saveItems(final List<Item> addedItems, final List<Item> modifiedItems, final List<Item> removedItems) {
-        if (applicationTransactionManagement) {
-            entityManager.getTransaction().begin();
-        }
-        try {
-            for (Item item : addedItems) {
-                if (!removedItems.contains(item)) {
-                    ((BeanTupleItem)item).persist(entityManager);
-                }
-            }
-            for (Item item : modifiedItems) {
-                if (!removedItems.contains(item)) {
-                    if (queryDefinition.isDetachedEntities()) {
-                        ((BeanTupleItem)item).merge(entityManager);
-                    }
-                    ((BeanTupleItem)item).persist(entityManager);
-                }
-            }
-            for (Item item : removedItems) {
-                if (!addedItems.contains(item)) {
-                    if (queryDefinition.isDetachedEntities()) {
-                        ((BeanTupleItem)item).merge(entityManager);
-                    }
-                    ((BeanTupleItem)item).remove(entityManager);
-                }
-            }
-            if (applicationTransactionManagement) {
-                entityManager.getTransaction().commit();
-            }
-        } catch (Exception e) {
-            if (applicationTransactionManagement) {
-                if (entityManager.getTransaction().isActive()) {
-                    entityManager.getTransaction().rollback();
-                }
-            }
-            throw new RuntimeException(e);            
-        }
-        
-        // invalidate the query size
-        setQuerySize(-1);
-    }
-
-    /**
-     * Removes all items.
-     * Query will be discarded after delete all items has been called.
-     * @return true if the operation succeeded or false in case of a failure.
-     */
-    @Override
-	public boolean deleteAllItems() {
-        throw new UnsupportedOperationException();
-    }
-
-    /**
-     * Converts tuple to Item.
-     * The item is filled with default value for each property.
-     * 
-     * @param tuple to be converted.
-     * @return item converted from tuple.
-     */
-	@SuppressWarnings("unchecked")
-    protected Item toItem(final Tuple tuple) {
-        BeanTupleItem tupleItem = new BeanTupleItem();
-        tupleItem.setTuple(tuple);
-
-        // if tuple did not fill all properties, set default values according to property definitions
-        for (Object propertyId : queryDefinition.getPropertyIds()) {
-            if (tupleItem.getItemProperty(propertyId) == null) {
-                Class<?> propertyType = queryDefinition.getPropertyType(propertyId);
-				tupleItem.addItemProperty(
-                        propertyId,
-                        new ObjectProperty<Object>(
-                        		queryDefinition.getPropertyDefaultValue(propertyId),
-                        		(Class<Object>) propertyType,
-                        		queryDefinition.isPropertyReadOnly(propertyId)));
-            }
-        }
-
-        return tupleItem;
-    }
-
-	
-	
-
-    /**
-     * @param selectQuery the selectQuery to set
-     */
-    public void setSelectQuery(TypedQuery<Tuple> selectQuery) {
-        this.selectQuery = selectQuery;
-    }
-
-
-    /**
-     * @return the selectQuery
-     */
-    public TypedQuery<Tuple> getSelectQuery() {
-        return selectQuery;
-    }
-    
-    /**
-     * @return the querySize
-     */
-    protected int getQuerySize() {
-        return querySize;
-    }
-
-
-    /**
-     * @param querySize the querySize to set
-     */
-    protected void setQuerySize(int querySize) {
-        this.querySize = querySize;
-    }
-
-
-	/**
-	 * Compute lower bound and number of tuples to retrieve.
-	 * If batching is used, the bounds are adjusted to fit on batch sizes: 
-	 * for example for getBatchSize() = 100, and a call with startIndex = 110, count = 100: we need at least 110 to 209.
-	 * Aligning will yield batchLowBoundary = 100, and count = 200, and will retrieve 100 to 299,
-	 * 
-	 * @param typedQuery the query being adjusted
-	 * @param startIndex starting position for retrieval
-	 * @param count how many items to retrieve
-	 */
-	protected void adjustRetrievalBoundaries(TypedQuery<Tuple> typedQuery, final int startIndex, final int count) {
-		if (count == 0) {
-			throw new RuntimeException("Can't happen - requesting 0 items");
-		}
-		
-		if (KeyManager.USE_BATCHING) {
-	    	int batchSize = keyToIdMapper.getBatchSize();
-	    	int batchLowBoundary = (int)(Math.floor(startIndex/batchSize)) * batchSize;
-	    	typedQuery.setFirstResult(batchLowBoundary);
-	    	int computedCount = (batchLowBoundary == startIndex) ? batchSize : batchSize * 2;
-			if (count == 0) {
-				throw new RuntimeException("Can't happen - computed 0 items");
-			}
-			typedQuery.setMaxResults(computedCount);
-	    } else {
-	    	typedQuery.setFirstResult(startIndex);
-	    	typedQuery.setMaxResults(count);        	
-	    }
-	}
+/**
+ * Copyright 2011 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.criteriacore.QueryEvent;
+import org.vaadin.addons.criteriacore.QueryPhase;
+import org.vaadin.addons.criteriacore.SlowQueryDetector;
+import org.vaadin.addons.lazyquerycontainer.Query;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+
+/**
+ * Query that returns a Tuple
+ * 
+ * @author Jean-François Lamy
+ */
+
+public class BeanTupleItemHelper implements Query {
+	
+    private Logger logger = LoggerFactory.getLogger(BeanTupleItemHelper.class);
+	
+    /** The JPA EntityManager. */
+    protected EntityManager entityManager;
+    
+    /** Flag reflecting whether application manages transactions. */
+    protected boolean applicationTransactionManagement;
+
+    /** The JPA select query. */
+    private TypedQuery<Tuple> selectQuery;
+    
+    /** true if the select query was provided by {@link #setSelectQuery(TypedQuery)}. */
+    private boolean selectQueryProvided;
+
+    /** helper classes that override {@link #getSelectQuery()} */
+    private static final Map<Class<?>, Boolean> selectQueryOverrides = Collections.synchronizedMap(new WeakHashMap<Class<?>, Boolean>());
+    
+    /** The JPA select count query. */
+    private TypedQuery<Object> selectCountQuery;
+    
+    /** QueryDefinition contains definition of the query properties and batch size. */
+    protected BeanTupleQueryDefinition queryDefinition;
+    
+    /** The size of the query; may be set from the thread that runs an asynchronous count. */
+    private volatile int querySize = -1;
+
+    /** no result from the background count is waiting to be applied. */
+    private static final int NO_BACKGROUND_COUNT = -1;
+
+    /** the background count failed, a synchronous count is needed. */
+    private static final int BACKGROUND_COUNT_FAILED = -2;
+
+    /** Result of the background count, set by the counting thread and applied by the thread that uses the container. */
+    private volatile int backgroundCount = NO_BACKGROUND_COUNT;
+
+    /** First page, retrieved when probing the size in asynchronous count mode. */
+    private List<Item> probedItems;
+
+    /** refresh count of the query definition at the time this query was created. */
+    private final int refreshCount;
+
+
+    /** Cache from keys to container index. */
+    protected KeyManager keyToIdMapper;
+
+
+    /**
+     * Constructor for configuring the query.
+     * @param criteriaQueryDefinition The entity query definition..
+     * @param keyToIdMapper Holds cache id to key mappings.
+     */
+    public BeanTupleItemHelper(final BeanTupleQueryDefinition criteriaQueryDefinition, KeyManager keyToIdMapper) {
+        this.queryDefinition = criteriaQueryDefinition;
+        this.keyToIdMapper = keyToIdMapper;
+        this.entityManager = queryDefinition.getEntityManager();
+        // the select and count queries are only built when first needed.
+        this.applicationTransactionManagement = criteriaQueryDefinition.isApplicationManagedTransactions();
+        this.refreshCount = criteriaQueryDefinition.getRefreshCount();
+    }
+   
+    
+    /**
+     * Constructs new item based on QueryDefinition.
+     * Item is initialized with the default values.
+     * 
+     * @return new item with default values.
+     */
+	@Override
+	public Item constructItem() {
+        try {
+            BeanTupleItem tupleItem = new BeanTupleItem();
+            
+            for (Object propertyId : queryDefinition.getPropertyIds()) {
+            	tupleItem.addItemProperty(propertyId, 
+            			new ObjectProperty<Object>(queryDefinition.getPropertyDefaultValue(propertyId)));
+            }
+            return tupleItem;
+        } catch (Exception e) {
+            throw new RuntimeException("Error in bean construction or property population with default values.", e);
+        }
+    }
+
+    /**
+     * Number of beans returned by query.
+     * <p>
+     * This method is called extremely often.  We store the result to avoid 
+     * invoking the query.
+     * </p>
+     * 
+     * @return number of beans.
+     */
+    @Override
+	public int size() {
+        applyBackgroundCount();
+        if (getQuerySize() == -1) {
+            if (queryDefinition.isProvablyEmpty()) {
+                // contradictory filters, no need to ask the database.
+                setQuerySize(0);
+            } else if (queryDefinition.isAsynchronousCount()) {
+                probeSize();
+            } else {
+                countSynchronously();
+            }
+        }
+        return getQuerySize();
+    }
+
+    /**
+     * Run the count query and wait for the result.
+     */
+    private void countSynchronously() {
+        final TypedQuery<Object> countQuery = getSelectCountQuery();
+        final long start = System.nanoTime();
+        setQuerySize(((Number) countQuery.getSingleResult()).intValue());
+        queryExecuted(QueryPhase.COUNT, countQuery, System.nanoTime() - start, getQuerySize());
+        startRecording();
+    }
+
+    /**
+     * Replace the provisional size by the result of the background count, if it is available.
+     * Called from the thread that uses the container, so that the size does not change under its feet.
+     * If the background count failed, the count is run again, synchronously.
+     */
+    private void applyBackgroundCount() {
+        final int count = backgroundCount;
+        if (count == NO_BACKGROUND_COUNT) {
+            return;
+        }
+        backgroundCount = NO_BACKGROUND_COUNT;
+        if (count == BACKGROUND_COUNT_FAILED) {
+            logger.debug("background count failed, counting again");
+            countSynchronously();
+        } else {
+            setQuerySize(count);
+        }
+    }
+
+    /**
+     * Retrieve the first page with one extra row instead of counting.
+     * <p>
+     * If the extra row is absent, the size is exact.  Otherwise a provisional size
+     * is reported and the count is run in the background on a separate EntityManager.
+     * The page is kept for the first call to {@link #loadItems(int, int)}.
+     * </p>
+     */
+    private void probeSize() {
+        final int batchSize = keyToIdMapper.getBatchSize();
+        List<Item> items = readItems(0, batchSize + 1, false);
+        if (items.size() <= batchSize) {
+            probedItems = items;
+            setQuerySize(items.size());
+            startRecording();
+            for (int i = 0; i < items.size(); i++) {
+                keyToIdMapper.getResidentResult().record(i, items.get(i));
+            }
+        } else {
+            probedItems = new ArrayList<Item>(items.subList(0, batchSize));
+            setQuerySize(batchSize + 1);
+            startAsynchronousCount();
+        }
+    }
+
+    /**
+     * If the result is small enough, record the items as they are loaded.
+     * @see BeanTupleQueryDefinition#setInMemoryThreshold(int)
+     */
+    private void startRecording() {
+        final int threshold = queryDefinition.getInMemoryThreshold();
+        final ResidentResult residentResult = keyToIdMapper.getResidentResult();
+        if (threshold > 0 && getQuerySize() <= threshold) {
+            residentResult.start(queryDefinition, keyToIdMapper.getKeyPropertyId(), getQuerySize());
+        } else {
+            residentResult.clear();
+        }
+    }
+
+    /**
+     * Run the count on an EntityManager of its own, and publish the result if this query is still current.
+     * The result is applied by the next call to {@link #size()}; the {@link CountListener}s are told
+     * that it is available.
+     */
+    private void startAsynchronousCount() {
+        final EntityManager countingEntityManager = entityManager.getEntityManagerFactory().createEntityManager();
+        final TypedQuery<Object> countQuery;
+        try {
+            // the criteria builder is not thread-safe, so the query is created here.
+            countQuery = queryDefinition.getCountQuery(countingEntityManager);
+        } catch (RuntimeException e) {
+            countingEntityManager.close();
+            throw e;
+        }
+        // the signature reads the filters, which the request thread may change while the count runs.
+        final String statisticsSource = queryDefinition.getStatisticsSource();
+        final String querySignature = queryDefinition.isInstrumented() ? queryDefinition.getQuerySignature() : null;
+        AsynchronousCounter.submit(countQuery, countingEntityManager, queryDefinition.getCountExecutor(),
+                new AsynchronousCounter.Callback() {
+            @Override
+            public void countComputed(int count, long startNanos) {
+                final long elapsedNanos = System.nanoTime() - startNanos;
+                if (queryDefinition.isInstrumented()) {
+                    queryDefinition.fireQueryEvent(new QueryEvent(statisticsSource, QueryPhase.COUNT, elapsedNanos, count,
+                            -1, -1, querySignature));
+                }
+                final SlowQueryDetector slowQueryDetector = queryDefinition.getSlowQueryDetector();
+                if (slowQueryDetector != null) {
+                    slowQueryDetector.check("count", countQuery, elapsedNanos, count);
+                }
+                if (refreshCount != queryDefinition.getRefreshCount() || getQuerySize() == -1) {
+                    logger.debug("discarding stale count {}", count);
+                    return;
+                }
+                backgroundCount = count;
+                queryDefinition.fireCountComputed(count);
+            }
+
+            @Override
+            public void countFailed(RuntimeException e) {
+                if (refreshCount == queryDefinition.getRefreshCount() && getQuerySize() != -1) {
+                    // the provisional size must not stay: count again on the next access.
+                    backgroundCount = BACKGROUND_COUNT_FAILED;
+                }
+            }
+        });
+    }
+
+    /**
+     * Load batch of items.
+     * <p>
+     * This is the only location where we actually retrieve items from
+     * the database.
+     * </p>
+     * @param startIndex Starting index of the item list.
+     * @param count Count of the items to be retrieved.
+     * @return List of items.
+     */
+    @Override
+	public List<Item> loadItems(final int startIndex, final int count) {
+        if (count <= 0) {
+            return new ArrayList<Item>();
+        }
+        if (startIndex == 0 && probedItems != null) {
+            // first page was already retrieved when the size was probed.
+            List<Item> items = probedItems;
+            probedItems = null;
+            queryDefinition.recordMemoryLoad();
+            return items;
+        }
+        final ResidentResult residentResult = keyToIdMapper.getResidentResult();
+        if (residentResult.isRecording()) {
+            // small result: everything is loaded at once, further sorts and filters are done in memory.
+            if (!residentResult.isComplete()) {
+                readItems(0, residentResult.size(), false);
+                if (!residentResult.isComplete()) {
+                    // the table changed since it was counted.
+                    residentResult.clear();
+                }
+            } else {
+                queryDefinition.recordMemoryLoad();
+            }
+            if (residentResult.isComplete()) {
+                return residentResult.getItems(
+                        Math.min(startIndex, residentResult.size()),
+                        Math.min(startIndex + count, residentResult.size()));
+            }
+        }
+
+        return readItems(startIndex, count, true);
+    }
+
+
+    /**
+     * Create the select query for a range of items, and convert the tuples to items.
+     * 
+     * <p>In detached mode, if {@link BeanTupleQueryDefinition#isPageEntityManagers()} is set, the query is
+     * created on an EntityManager of its own, and closing it detaches all the entities at once.
+     * This is decided before any query is created, so the query of the definition's EntityManager is not
+     * built for nothing.  A query provided by {@link #setSelectQuery(TypedQuery)} or by an override of
+     * {@link #getSelectQuery()} is bound to the definition's EntityManager: it is run there,
+     * and its entities are detached one tuple at a time.</p>
+     * 
+     * @param startIndex the index in the container of the first item
+     * @param count how many items to retrieve
+     * @param adjustBoundaries true if the boundaries are aligned on batches by
+     *        {@link #adjustRetrievalBoundaries(TypedQuery, int, int)}
+     * @return the items
+     */
+    private List<Item> readItems(final int startIndex, final int count, final boolean adjustBoundaries) {
+        if (!usesPageEntityManagers()) {
+            TypedQuery<Tuple> selectQuery = getSelectQuery();
+            setRetrievalBoundaries(selectQuery, startIndex, count, adjustBoundaries);
+            return fetchItems(selectQuery, startIndex);
+        }
+        final EntityManager pageEntityManager = entityManager.getEntityManagerFactory().createEntityManager();
+        int firstResult = startIndex;
+        int maxResults = count;
+        int rowCount = 0;
+        try {
+            final TypedQuery<Tuple> pageQuery = queryDefinition.getSelectQuery(pageEntityManager);
+            setRetrievalBoundaries(pageQuery, startIndex, count, adjustBoundaries);
+            firstResult = pageQuery.getFirstResult();
+            maxResults = pageQuery.getMaxResults();
+            final List<Item> items = fetchItems(pageQuery, startIndex, pageEntityManager);
+            rowCount = items.size();
+            return items;
+        } finally {
+            final long start = System.nanoTime();
+            pageEntityManager.close();
+            queryDefinition.fireQueryEvent(QueryPhase.DETACH, System.nanoTime() - start, rowCount, firstResult, maxResults);
+        }
+    }
+
+    /**
+     * @param typedQuery the query being bounded
+     * @param startIndex the index of the first item
+     * @param count how many items to retrieve
+     * @param adjustBoundaries true if the boundaries are aligned on batches
+     */
+    private void setRetrievalBoundaries(TypedQuery<Tuple> typedQuery, final int startIndex, final int count, final boolean adjustBoundaries) {
+        if (adjustBoundaries) {
+            adjustRetrievalBoundaries(typedQuery, startIndex, count);
+        } else {
+            typedQuery.setFirstResult(startIndex);
+            typedQuery.setMaxResults(count);
+        }
+    }
+
+    /**
+     * @return true if each page is read by an EntityManager of its own; not the case when
+     *         the select query is provided by a subclass or by {@link #setSelectQuery(TypedQuery)}.
+     */
+    private boolean usesPageEntityManagers() {
+        return queryDefinition.isDetachedEntities()
+                && queryDefinition.isPageEntityManagers()
+                && !selectQueryProvided
+                && !overridesSelectQuery(getClass());
+    }
+
+    /**
+     * @param helperClass the class of the helper
+     * @return true if the class (or one of its superclasses) overrides {@link #getSelectQuery()}
+     */
+    private static boolean overridesSelectQuery(Class<?> helperClass) {
+        Boolean overrides = selectQueryOverrides.get(helperClass);
+        if (overrides == null) {
+            overrides = Boolean.FALSE;
+            for (Class<?> c = helperClass; c != BeanTupleItemHelper.class && c != null; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("getSelectQuery");
+                    overrides = Boolean.TRUE;
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // not declared at this level.
+                }
+            }
+            selectQueryOverrides.put(helperClass, overrides);
+        }
+        return overrides;
+    }
+
+
+    /**
+     * Run the select query on the EntityManager of the query definition and convert the tuples to items.
+     * 
+     * @param selectQuery the query, with the retrieval boundaries already set
+     * @param startIndex the index in the container of the first tuple returned
+     * @return the items
+     */
+    protected List<Item> fetchItems(TypedQuery<Tuple> selectQuery, final int startIndex) {
+        return fetchItems(selectQuery, startIndex, entityManager);
+    }
+
+
+    /**
+     * Run the select query and convert the tuples to items.
+     * 
+     * @param selectQuery the query, with the retrieval boundaries already set
+     * @param startIndex the index in the container of the first tuple returned
+     * @param loadingEntityManager the EntityManager that runs the query; the entities are detached
+     *        one tuple at a time only if it is the EntityManager of the query definition.
+     * @return the items
+     */
+    private List<Item> fetchItems(TypedQuery<Tuple> selectQuery, final int startIndex, EntityManager loadingEntityManager) {
+        final int firstResult = selectQuery.getFirstResult();
+        final int maxResults = selectQuery.getMaxResults();
+        final boolean instrumented = queryDefinition.isInstrumented();
+        final boolean detachRows = queryDefinition.isDetachedEntities() && loadingEntityManager == entityManager;
+        final int budget = queryDefinition.getPersistenceContextBudget();
+        final boolean budgeted = budget > 0 && !queryDefinition.isDetachedEntities();
+        if (budgeted && queryDefinition.isClearPersistenceContext()) {
+            queryDefinition.getManagedEntityTracker().beforeLoad(entityManager, maxResults, budget);
+        }
+        List<?> tuples = executeSelect(selectQuery);
+
+        // associations are loaded while the owners are still managed.
+        final Map<String, Object> associations = queryDefinition.getBatchLoadedAssociations();
+        final List<Map<Object, Object>> associationProperties = associations.isEmpty() || tuples.isEmpty()
+                ? null : AssociationBatchLoader.load(loadingEntityManager, associations, tuples);
+
+        List<Item> items = new ArrayList<Item>(tuples.size());
+        Object keyPropertyId = keyToIdMapper.getKeyPropertyId();
+        ResidentResult residentResult = keyToIdMapper.getResidentResult();
+        long hydrationNanos = 0, detachNanos = 0, mappingNanos = 0;
+        int curCount = 0;
+        for (Object tuple : tuples) {
+            long start = instrumented ? System.nanoTime() : 0;
+            Item item = toItem((Tuple) tuple);
+            if (associationProperties != null) {
+                addAssociationProperties(item, associationProperties.get(curCount));
+            }
+            if (instrumented) {
+                final long end = System.nanoTime();
+                hydrationNanos += end - start;
+                start = end;
+            }
+            if (detachRows) {
+            	detach(item, (Tuple) tuple);
+            	if (instrumented) {
+            	    final long end = System.nanoTime();
+            	    detachNanos += end - start;
+            	    start = end;
+            	}
+            }
+            items.add(item);
+            addToMapping(item, keyPropertyId, startIndex+curCount);
+            residentResult.record(startIndex+curCount, item);
+            if (instrumented) {
+                mappingNanos += System.nanoTime() - start;
+            }
+            curCount++;
+        }
+        if (queryDefinition.isLazyLoadDetection()) {
+            detectLazyLoads(tuples);
+        }
+        if (budgeted) {
+            queryDefinition.getManagedEntityTracker().afterLoad(entityManager, tuples, budget, keyToIdMapper.getModifiedItems());
+        }
+        if (instrumented) {
+            queryDefinition.fireQueryEvent(QueryPhase.HYDRATION, hydrationNanos, curCount, firstResult, maxResults);
+            if (detachRows) {
+                queryDefinition.fireQueryEvent(QueryPhase.DETACH, detachNanos, curCount, firstResult, maxResults);
+            }
+            queryDefinition.fireQueryEvent(QueryPhase.KEY_MAPPING, mappingNanos, curCount, firstResult, maxResults);
+        }
+        return items;
+    }
+
+
+    /**
+     * Replace the association properties of an item by the values loaded in batch.
+     * 
+     * @param item the item built from the tuple
+     * @param associationProperties the values for the tuple, from {@link AssociationBatchLoader#load(EntityManager, Map, List)}
+     */
+    static void addAssociationProperties(Item item, Map<Object, Object> associationProperties) {
+        for (Entry<Object, Object> property : associationProperties.entrySet()) {
+            item.removeItemProperty(property.getKey());
+            item.addItemProperty(property.getKey(), new ObjectProperty<Object>(property.getValue(), Object.class));
+        }
+    }
+
+
+    /**
+     * Run the select query.
+     * 
+     * @param selectQuery the query, with the retrieval boundaries already set
+     * @return the tuples of the page
+     */
+    protected List<?> executeSelect(TypedQuery<Tuple> selectQuery) {
+        logger.debug(">>>>> first: {}, count: {} ", selectQuery.getFirstResult(), selectQuery.getMaxResults());
+        final long selectStart = System.nanoTime();
+        List<?> tuples = selectQuery.getResultList();
+        logger.debug("<<<<<");
+        queryExecuted(QueryPhase.SELECT, selectQuery, System.nanoTime() - selectStart, tuples.size());
+        return tuples;
+    }
+
+
+    /**
+     * Refuse to save changes that the provider would ignore: entities loaded read-only are not
+     * dirty-checked, unless they are detached and merged.  In detached mode, the read-only hint of
+     * EclipseLink, which returns shared instances, is not applied, so the changes can be saved.
+     * @see org.vaadin.addons.criteriacore.ReadProfile#setReadOnly(boolean)
+     * 
+     * @param modifiedItems the items being saved
+     */
+    protected void checkWritable(List<Item> modifiedItems) {
+        if (!modifiedItems.isEmpty() && queryDefinition.isReadOnlyProfile() && !queryDefinition.isDetachedEntities()) {
+            throw new UnsupportedOperationException("The entities are loaded read-only (see ReadProfile), changes cannot be saved.");
+        }
+    }
+
+
+    /**
+     * Warn if the associations traversed by nested property ids are not loaded in the rows of a page:
+     * reading these properties would then run one query per row.
+     * @see BeanTupleQueryDefinition#setLazyLoadDetection(boolean)
+     * 
+     * @param tuples the rows of the page
+     */
+    protected void detectLazyLoads(List<?> tuples) {
+        final PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        for (Object propertyId : queryDefinition.getPropertyIds()) {
+            if (!(propertyId instanceof String) || ((String) propertyId).indexOf('.') < 0) {
+                continue;
+            }
+            final String[] segments = ((String) propertyId).split("\\.");
+            int unloaded = 0;
+            for (Object tuple : tuples) {
+                // the entity is designated by its alias, or is the first element of the tuple.
+                Object entity = ((Tuple) tuple).get(0);
+                String attributeName = segments[0];
+                for (TupleElement<?> element : ((Tuple) tuple).getElements()) {
+                    if (segments[0].equals(element.getAlias())) {
+                        // alias.attribute is not nested
+                        entity = segments.length > 2 ? ((Tuple) tuple).get(element) : null;
+                        attributeName = segments[1];
+                    }
+                }
+                if (entity != null && !persistenceUnitUtil.isLoaded(entity, attributeName)) {
+                    unloaded++;
+                }
+            }
+            if (unloaded > 1) {
+                logger.warn("{}: {} of {} rows will load {} one row at a time (N+1 queries); " +
+                        "add a fetch join or a batch load for this association", new Object[] {
+                        queryDefinition.getStatisticsSource(), unloaded, tuples.size(), propertyId });
+            }
+        }
+    }
+
+
+    /**
+     * Report a count or select query to the listeners and to the slow query detector.
+     * 
+     * @param phase {@link QueryPhase#COUNT} or {@link QueryPhase#SELECT}
+     * @param query the query that was run
+     * @param elapsedNanos how long it took
+     * @param rowCount the number of rows returned, or the count
+     */
+    private void queryExecuted(QueryPhase phase, TypedQuery<?> query, long elapsedNanos, int rowCount) {
+        final boolean paged = phase == QueryPhase.SELECT;
+        queryDefinition.fireQueryEvent(phase, elapsedNanos, rowCount,
+                paged ? query.getFirstResult() : -1, paged ? query.getMaxResults() : -1);
+        final SlowQueryDetector slowQueryDetector = queryDefinition.getSlowQueryDetector();
+        if (slowQueryDetector != null) {
+            slowQueryDetector.check(paged ? "select" : "count", query, elapsedNanos, rowCount);
+        }
+    }
+
+
+    /**
+     * Detach the entities underlying an item from the persistence context.
+     * 
+     * @param item the item created by {@link #toItem(Tuple)}
+     * @param tuple the tuple from which the item was created
+     */
+    protected void detach(Item item, Tuple tuple) {
+        //iterate over entities in the tuple.
+        ((BeanTupleItem)item).detach(entityManager);
+    }
+
+
+    /**
+     * Call back to the cache(s).
+     * <p>The view can maintain a cache or mappings of what it has retrieved. In
+     * the current implementation, we map the keys to their corresponding index
+     * in the container</p>
+     * 
+     * @param item the item being added
+     * @param keyPropertyId the key being used (the real key from the database)
+     * @param index the index in the container 
+     */
+    protected void addToMapping(Item item, Object keyPropertyId, final int index) {
+        if (keyPropertyId != null) {
+            Object value = item.getItemProperty(keyPropertyId).getValue();
+            keyToIdMapper.getKeyToId().put(value, index);
+        } else {
+            // identity mapping, as precaution
+            keyToIdMapper.getKeyToId().put(index, index);
+        }
+    }
+
+    
+    /**
+     * Saves the modifications done by container to the query result.
+     * Query will be discarded after changes have been saved
+     * and new query loaded so that changed items are sorted
+     * appropriately.
+     * @param addedItems Items to be inserted.
+     * @param modifiedItems Items to be updated.
+     * @param removedItems Items to be deleted.
+     */
+    @Override
+	public void saveItems(final List<Item> addedItems, final List<Item> modifiedItems, final List<Item> removedItems) {
+        checkWritable(modifiedItems);
+        if (applicationTransactionManagement) {
+            entityManager.getTransaction().begin();
+        }
+        try {
+            for (Item item : addedItems) {
+                if (!removedItems.contains(item)) {
+                    ((BeanTupleItem)item).persist(entityManager);
+                }
+            }
+            for (Item item : modifiedItems) {
+                if (!removedItems.contains(item)) {
+                    if (queryDefinition.isDetachedEntities() || !((BeanTupleItem)item).isManaged(entityManager)) {
+                        ((BeanTupleItem)item).merge(entityManager);
+                    }
+                    ((BeanTupleItem)item).persist(entityManager);
+                }
+            }
+            for (Item item : removedItems) {
+                if (!addedItems.contains(item)) {
+                    if (queryDefinition.isDetachedEntities() || !((BeanTupleItem)item).isManaged(entityManager)) {
+                        ((BeanTupleItem)item).merge(entityManager);
+                    }
+                    ((BeanTupleItem)item).remove(entityManager);
+                }
+            }
+            if (applicationTransactionManagement) {
+                entityManager.getTransaction().commit();
+            }
+        } catch (Exception e) {
+            if (applicationTransactionManagement) {
+                if (entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+            }
+            throw new RuntimeException(e);
+        }
+        queryDefinition.updateIndexes(addedItems, modifiedItems, removedItems);
+        
+        // invalidate the query size
+        probedItems = null;
+        setQuerySize(-1);
+    }
+
+    /**
+     * Removes all items.
+     * Query will be discarded after delete all items has been called.
+     * @return true if the operation succeeded or false in case of a failure.
+     */
+    @Override
+	public boolean deleteAllItems() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Converts tuple to Item.
+     * The item is filled with default value for each property.
+     * 
+     * @param tuple to be converted.
+     * @return item converted from tuple.
+     */
+	@SuppressWarnings("unchecked")
+    protected Item toItem(final Tuple tuple) {
+        BeanTupleItem tupleItem = new BeanTupleItem();
+        tupleItem.setTuple(tuple);
+
+        // if tuple did not fill all properties, set default values according to property definitions
+        for (Object propertyId : queryDefinition.getPropertyIds()) {
+            if (tupleItem.getItemProperty(propertyId) == null) {
+                Class<?> propertyType = queryDefinition.getPropertyType(propertyId);
+				tupleItem.addItemProperty(
+                        propertyId,
+                        new ObjectProperty<Object>(
+                        		queryDefinition.getPropertyDefaultValue(propertyId),
+                        		(Class<Object>) propertyType,
+                        		queryDefinition.isPropertyReadOnly(propertyId)));
+            }
+        }
+
+        return tupleItem;
+    }
+
+	
+	
+
+    /**
+     * @param selectQuery the selectQuery to set
+     */
+    public void setSelectQuery(TypedQuery<Tuple> selectQuery) {
+        this.selectQuery = selectQuery;
+        this.selectQueryProvided = selectQuery != null;
+    }
+
+
+    /**
+     * @return the selectQuery, obtained from the query definition on first use.
+     */
+    public TypedQuery<Tuple> getSelectQuery() {
+        if (selectQuery == null) {
+            selectQuery = queryDefinition.getSelectQuery();
+        }
+        return selectQuery;
+    }
+    
+    /**
+     * @return the query that counts the items, obtained from the query definition on first use.
+     */
+    protected TypedQuery<Object> getSelectCountQuery() {
+        if (selectCountQuery == null) {
+            selectCountQuery = queryDefinition.getCountQuery();
+        }
+        return selectCountQuery;
+    }
+    
+    /**
+     * @return the querySize
+     */
+    protected int getQuerySize() {
+        return querySize;
+    }
+
+
+    /**
+     * @param querySize the querySize to set
+     */
+    protected void setQuerySize(int querySize) {
+        this.querySize = querySize;
+    }
+
+
+	/**
+	 * Compute lower bound and number of tuples to retrieve.
+	 * If batching is used, the bounds are adjusted to fit on batch sizes: 
+	 * for example for getBatchSize() = 100, and a call with startIndex = 110, count = 100: we need at least 110 to 209.
+	 * Aligning will yield batchLowBoundary = 100, and count = 200, and will retrieve 100 to 299,
+	 * 
+	 * @param typedQuery the query being adjusted
+	 * @param startIndex starting position for retrieval
+	 * @param count how many items to retrieve
+	 */
+	protected void adjustRetrievalBoundaries(TypedQuery<Tuple> typedQuery, final int startIndex, final int count) {
+		if (count == 0) {
+			throw new RuntimeException("Can't happen - requesting 0 items");
+		}
+		
+		if (KeyManager.USE_BATCHING) {
+	    	int batchSize = keyToIdMapper.getBatchSize();
+	    	int batchLowBoundary = (int)(Math.floor(startIndex/batchSize)) * batchSize;
+	    	typedQuery.setFirstResult(batchLowBoundary);
+	    	int computedCount = (batchLowBoundary == startIndex) ? batchSize : batchSize * 2;
+			if (count == 0) {
+				throw new RuntimeException("Can't happen - computed 0 items");
+			}
+			typedQuery.setMaxResults(computedCount);
+	    } else {
+	    	typedQuery.setFirstResult(startIndex);
+	    	typedQuery.setMaxResults(count);        	
+	    }
+	}
 }
\ No newline at end of file
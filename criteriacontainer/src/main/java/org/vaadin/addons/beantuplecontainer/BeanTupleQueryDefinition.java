@@ -1,874 +1,2225 @@
-/**
- * Copyright 2011 Jean-François Lamy
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.vaadin.addons.beantuplecontainer;
-
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
-import javax.persistence.Entity;
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceException;
-import javax.persistence.Tuple;
-import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Expression;
-import javax.persistence.criteria.Order;
-import javax.persistence.criteria.Path;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Selection;
-import javax.persistence.metamodel.Bindable;
-import javax.persistence.metamodel.EntityType;
-import javax.persistence.metamodel.Metamodel;
-import javax.persistence.metamodel.SingularAttribute;
-import javax.persistence.metamodel.StaticMetamodel;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.vaadin.addons.criteriacore.AbstractCriteriaQueryDefinition;
-import org.vaadin.addons.criteriacore.FilterRestriction;
-import org.vaadin.addons.criteriacore.FilterTranslator;
-import org.vaadin.addons.criteriacore.LoggerUtils;
-import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
-
-import com.vaadin.data.Container.Filter;
-
-/**
- * Type-safe implementation of JPA 2.0 Tuple-based query definition.
- * 
- * <p>This class uses the JPA 2.0 Criteria API to automatically infer all the information necessary to
- * populate a container (the names of the properties, their sorting, etc.)</p>
- * 
- * <p>The query returns a Tuple of one or more entities and computed expressions. The query defines
- * all the attributes of each of the entities as nested propertyIds, so a container using this query will
- * consider them present.  The {@link BeanTupleItem} used in the {@link BeanTupleContainer} maps
- * the nested properties to entity fields, and in this way allows properties to be edited.</p>
- * 
- * <p>The following example shows a query that can be used to define a container:
- * it returns a tuple of entities (through the multiselect() call), and defines
- * conditions through a where() call.</p>
- * 
- * <p>The other methods in this class will examine the resulting object structure to
- * retrieve the information necessary to list the properties, define sorting, and
- * so on.</p>
- * <pre>
-{@code protected Root<?> defineQuery( }
-        CriteriaBuilder cb,
-        CriteriaQuery<?> cq) {
-
-    // FROM task JOIN PERSON 
-    {@code Root<Person> person = (Root<Person>) cq.from(Person.class);}
-    task = person.join(Person_.tasks); 
-
-    // SELECT task as Task, person as Person, ... 
-    cq.multiselect(task,person);
-
-    // WHERE t.name LIKE "..."    
-    cq.where(
-        cb.like(
-            task.get(Task_.name), // t.name
-            "some string%")  // sql "like" pattern to be matched
-        );
-    }
-
-    return task; // for EclipseLink you must return the rightmost joined entity.
-}
-}</pre>
- * 
- * @author jflamy
- */
-
-@SuppressWarnings("deprecation")
-public abstract class BeanTupleQueryDefinition extends AbstractCriteriaQueryDefinition<Tuple> implements QueryDefinition  {
-
-    final private static Logger logger = LoggerFactory.getLogger(BeanTupleQueryDefinition.class);
-
-	private static final boolean USE_OLD_COUNTINGQUERY = false;
-
-	/**
-	 * Map from a property name to the expression that is used to set the property.
-	 * Each item property is retrieved by an expression in a {@link CriteriaQuery#multiselect(List)}
-	 * In order to be able to sort, we need to create an {@link Order} using that expression, so
-	 * we must memorize the correspondence between propertyIds and the expression that fetch
-	 * item properties for that id.
-	 */
-	protected Map<Object,Expression<?>> countingExpressionMap = new HashMap<Object, Expression<?>>();
-	/**
-     * The maps cannot be shared between the two queries.
-     * @see #countingExpressionMap
-     */
-	protected Map<Object,Expression<?>> selectExpressionMap = new HashMap<Object, Expression<?>>();
-	
-	/** all columns and expressions returned by the where */
-	protected Set<Selection<?>> selections = new HashSet<Selection<?>>();
-
-	private Metamodel metamodel;	
-	
-	/** the criteria builder used to build the JPA query data structure */
-	protected CriteriaBuilder criteriaBuilder;
-	
-	/** the executable query */
-	protected CriteriaQuery<Tuple> tupleQuery;
-	
-	/** all columns and expressions returned by the where */
-	protected CriteriaQuery<Object> countingQuery;
-
-	/** what to count */
-	protected Path<?> countingPath;
-
-    private Collection<FilterRestriction> restrictions;
-    
-	private Collection<Filter> filters = new HashSet<Filter>();
-
-    private boolean detachedEntities = false;
-
-
-
-    /**
-	 * Constructor.
-	 * @param entityManager the entityManager that gives us access to the database and cache
-	 * @param applicationManagedTransactions false if running in a J2EE container that provides the entityManager used, true otherwise
-	 * @param batchSize how many tuples to retrieve at once.
-	 */
-	public BeanTupleQueryDefinition(EntityManager entityManager, boolean applicationManagedTransactions, int batchSize) {
-		super(entityManager, applicationManagedTransactions, Tuple.class, batchSize);
-		metamodel = getEntityManager().getMetamodel();
-		criteriaBuilder = getEntityManager().getCriteriaBuilder();
-	}
-
-    /**
-     * Constructor.
-     * @param entityManager the entityManager that gives us access to the database and cache
-     * @param detachedEntities if true, entities will be detached from the persistence context and merged as needed.
-     * @param applicationManagedTransactions false if running in a J2EE container that provides the entityManager used, true otherwise
-     * @param batchSize how many tuples to retrieve at once.
-     */
-    public BeanTupleQueryDefinition(
-            EntityManager entityManager,
-            boolean detachedEntities,
-            boolean applicationManagedTransactions,
-            int batchSize) {
-        super(entityManager, applicationManagedTransactions, Tuple.class, batchSize);
-        metamodel = getEntityManager().getMetamodel();
-        criteriaBuilder = getEntityManager().getCriteriaBuilder();
-        setDetachedEntities(detachedEntities);
-    }
-
-	/**
-	 * Reset the query definitions.
-	 */
-	@Override
-    public void refresh() {
-    	countingQuery = criteriaBuilder.createQuery();
-    	countingPath = defineQuery(criteriaBuilder, countingQuery);
-    	logger.trace("countingExpressionMap before={}",countingExpressionMap);
-    	mapProperties(countingQuery, countingExpressionMap, false);
-    	logger.trace("countingExpressionMap after={}",countingExpressionMap);
-        addRestrictions(criteriaBuilder, countingQuery, countingExpressionMap);
-        
-        tupleQuery = criteriaBuilder.createTupleQuery();
-        defineQuery(criteriaBuilder, tupleQuery);
-        logger.trace("selectExpressionMap before={}",selectExpressionMap);
-        mapProperties(tupleQuery, selectExpressionMap, true);
-        logger.trace("selectExpressionMap after={}",selectExpressionMap);
-        addRestrictions(criteriaBuilder, tupleQuery, selectExpressionMap);
-        
-        initialized = true;
-	}
-
-	/**
-	 * Initial setup, once only.
-	 */
-	public void init() {
-	    if (!initialized) {
-	        refresh();
-	        initialized = true;
-	    }
-	}
-
-	/**
-	 * @return a query with the applicable sorting options applied
-	 */
-	@Override
-	public TypedQuery<Tuple> getSelectQuery() {
-	    init();
-	    
-		// apply the ordering defined by the container on the returned entity.
-		final List<Order> ordering = getOrdering(selectExpressionMap);
-		if (ordering != null && ordering.size() > 0) {
-			tupleQuery.orderBy(ordering);
-		} else {
-		    tupleQuery.orderBy();
-		}		
-		
-		final TypedQuery<Tuple> tq = getEntityManager().createQuery(tupleQuery);
-		// the container will set the parameter values that are defined through the filter() method
-		// so we only handle those that we add ourselves
-		setParameters(tq);
-		return tq;
-	}
-	
-	/**
-	 * This method returns the number of entities.
-	 * @return number of entities.
-	 */
-	@Override
-	public TypedQuery<Object> getCountQuery() {
-	    final CriteriaQuery<Object> explicitCountingQuery = defineCountingQuery(criteriaBuilder,tupleQuery,getEntityManager());
-		if (explicitCountingQuery != null) {
-	    	countingQuery = explicitCountingQuery;
-	    } else {
-		    init();
-
-		    // we only want the count so we override the selection in the query
-		    countingQuery.orderBy();
-		    if (USE_OLD_COUNTINGQUERY) {
-			    defineCount();
-		    } else {
-		    	extendedDefineCount();
-		    }
-
-	    }
-
-	    // create the executable query
-	    TypedQuery<Object> typedCountingQuery = getEntityManager().createQuery(countingQuery);
-		setParameters(typedCountingQuery);
-		return typedCountingQuery;
-	}
-
-	/**
-	 * 
-	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private void extendedDefineCount() {
-		final Bindable<?> model = countingPath.getModel();
-		if (model != null && model instanceof EntityType) {
-			EntityType<?> entityType = (EntityType<?>)model;
-			if (entityType.hasSingleIdAttribute()) {
-				defineCount();
-			} else {
-				// massive patch for @IdPath under hibernate.
-				if (! countingQuery.isDistinct()) {
-					// we can count any of the ids in the composite key.
-					countingQuery.select(criteriaBuilder.count(countingPath.get((SingularAttribute) entityType.getIdClassAttributes().iterator().next())));
-				} else {
-					throw new UnsupportedOperationException("Cannot automatically determine the counting query; please use defineCountQuery to define a count");
-				}
-				
-			}
-		}
-	}
-
-	/**
-	 * 
-	 */
-	private void defineCount() {
-		Selection<?> selection = countingQuery.getSelection();
-  
-		if (selection == null) {
-			countingQuery.select(criteriaBuilder.count(countingPath));
-		} else if (selection.isCompoundSelection()) {
-		    List<Selection<?>> items = selection.getCompoundSelectionItems();
-		    if (items.size() == 1) {
-		        if (countingQuery.isDistinct()) {
-		            // distinct query, use countDistinct
-		            countingQuery.distinct(false);
-		            countingQuery.select(criteriaBuilder.countDistinct((Expression<?>) items.get(0)));
-		        } else {
-		            countingQuery.select(criteriaBuilder.count((Expression<?>) items.get(0)));
-		        }
-		    } else {
-		        countingQuery.select(criteriaBuilder.count(countingPath));
-		    }
-		} else {
-			if (countingQuery.isDistinct()) {
-		        countingQuery.distinct(false);
-				countingQuery.select(criteriaBuilder.countDistinct((Expression<?>) selection));
-		    } else {
-		        countingQuery.select(criteriaBuilder.count((Expression<?>) countingQuery.getSelection()));
-		    }
-		}
-	}
-
-	/**
-	 * Method used to override the default counting.
-	 * By default the container will generate a count by manipulating the select query.
-	 * Use this method if a more efficient way to get the count exists (or if the JPA implementation is broken)
-	 * e.g. Hibernate with @IdClass)
-	 * 
-	 * @param criteriaBuilder the criteriaBuilder
-	 * @param tupleQuery the resulting query
-	 * @param entityManager the entityManager to use
-	 * @return a counting query, ready to run.
-	 */
-	protected CriteriaQuery<Object> defineCountingQuery(
-			CriteriaBuilder criteriaBuilder,
-			CriteriaQuery<Tuple> tupleQuery,
-			EntityManager entityManager
-			) {
-		return null;
-	}
-
-	/**
-	 * Define a query that fetches a tuple of one or more entities.
-	 * 
-	 * <p>Note that defineQuery must always use {@link CriteriaQuery#multiselect(Selection...)}
-	 * because a tuple is expected.
-	 * 
-	 * @param criteriaBuilder the CriteriaBuilder used to define the from, where and select
-	 * @param tupleQuery the CriteriaQuery to build the tuples,
-	 * @return a root of the query (used for counting the lines returned)
-	 */
-	@Override
-	protected abstract Path<?> defineQuery(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> tupleQuery);
-	
-
-	/**
-	 * @param javaType the type
-	 * @return the corresponding class for which newInstance can be called.
-	 */
-	protected Class<?> instantatiableType(Class<?> javaType) {
-		if (javaType == long.class) {
-			javaType = Long.class;
-		} else if (javaType == int.class) {
-			javaType = Integer.class;
-		} else if (javaType == boolean.class) {
-			javaType = Boolean.class;
-		} else if (javaType == char.class) {
-            javaType = Character.class;
-        }
-		return javaType;
-	}
-	
-
-	/**
-	 * @param javaType the type
-	 * @return a meaningful default value
-	 */
-	protected Object defaultValue(Class<?> javaType) {
-		if (javaType == long.class) {
-			return 0L;
-		} else if (javaType == int.class) {
-			return 0;
-		} else if (javaType == boolean.class) {
-			return false;
-		} else if (javaType == char.class) {
-			return ' ';
-		} else if (javaType == Long.class) {
-            return 0L;
-        } else if (javaType == Integer.class) {
-            return 0;
-        } else if (javaType == Boolean.class) {
-            return new Boolean(false);
-        } else if (javaType == Character.class) {
-            return new Character(' ');
-        } else if (javaType  == String.class) {
-			return "";
-		} else {
-		    return null;
-		}
-	}
-	
-	
-	/**
-	 * Applies the sort state.
-	 * A JPA ordering is created based on the saved sort orders.
-	 * @param expressionMap where to lookup expressions by id 
-	 * @return a list of Order objects to be added to the query.
-	 */
-	protected List<Order> getOrdering(Map<Object, Expression<?>> expressionMap) {
-        if (sortPropertyIds == null || sortPropertyIds.length == 0) {
-            sortPropertyIds = nativeSortPropertyIds;
-            sortPropertyAscendingStates = nativeSortPropertyAscendingStates;
-        }
-  
-        ArrayList<Order> ordering = new ArrayList<Order>();
-    	if (sortPropertyIds == null || sortPropertyIds.length == 0) return ordering;
-
-		for (int curItem = 0; curItem < sortPropertyIds.length; curItem++ ) {
-	    	final String id = (String)sortPropertyIds[curItem];
-			final Expression<?> sortExpression = getExpressionById(id, expressionMap);
-			if (sortExpression != null && sortPropertyAscendingStates[curItem]) {
-				ordering.add(criteriaBuilder.asc(sortExpression));
-			} else {
-				ordering.add(criteriaBuilder.desc(sortExpression));
-			}
-		}
-		return ordering;
-	}
-
-
-    /**
-     * Return the expression used to access a given property
-     * @param id the property id
-     * @param expressionMap where to lookup expressions by id.
-     * @return the expression
-     */
-    public Expression<?> getExpressionById(final String id, Map<Object, Expression<?>> expressionMap) {
-        final Expression<?> sortExpression = expressionMap.get(id);
-        if (sortExpression == null) {
-            throw new PersistenceException("Property "+id+" cannot be mapped to a selection from the query.");
-        }
-        return sortExpression;
-    }
-	
-
-	
-	/**
-	 * Define the expression required to retrieve a column.
-	 * The entity field will be retrieved as a tuple element. In order to enable sorting,
-	 * we must memorize the query expression used to retrieve each field. An alias
-	 * is defined on the expression.
-	 * 
-	 * @param expressionMap where to remember the mapping
-	 * @param propertyId the desired property id. An alias will be defined.
-	 * @param selection the root or join from which the desired column will be fetched
-	 * @param defineProperties define properties for the container
-	 * @return an expression that can be used in JPA order()
-	 */
-	protected Expression<?> addPropertyForComputedValue(
-	        Map<Object, Expression<?>> expressionMap,
-			final String propertyId,
-			final Selection<?> selection,
-			boolean defineProperties) {
-		final Expression<?> expression = (Expression<?>) selection;
-		addPropertyForExpression(expressionMap,propertyId,expression, defineProperties);
-		return expression;
-	}
-	
-
-	/**
-	 * Define the expression required to retrieve an item property. 
-	 * The entity field will be retrieved as a tuple element. In order to enable sorting,
-	 * we must memorize the query expression used to retrieve each field.
-	 * 
-	 * This version is used when the propertyId must differ from the field name in the Entity
-	 * (for example, when two fields have the same name, and aliases must be used, this method
-	 * ensures that the aliases are defined consistently with the propertyId).
-     * @param expressionMap where to remember the mapping
-	 * @param propertyId the property identifier in the items that will be constructed
-	 * @param path the root or join from which the desired column will be fetched
-	 * @param column the expression used to get the desired column in the query results
-	 * @param defineProperties define the property for the container
-	 * @return an expression that can be used in JPA order()
-	 */
-	protected Expression<?> addPropertyForAttribute(
-	        Map<Object, Expression<?>> expressionMap,
-			final String propertyId,
-			final Path<?> path,
-			final SingularAttribute<?, ?> column, 
-			boolean defineProperties) {
-		Expression<?> expression;
-		try {
-			final String name = column.getName();
-			expression = path.get(name);
-			expression.alias(propertyId);
-			addPropertyForExpression(expressionMap,propertyId,expression,defineProperties);
-			return expression;
-		} catch (Exception e) {
-			LoggerUtils.logErrorException(logger, e);
-			throw new RuntimeException(e);
-		}
-	}
-	
-	
-	/**
-	 * Helper routine to add a property.
-	 * @param expressionMap where to remember the mapping
-	 * @param propertyId the property Id
-	 * @param expression the expression that fetches the value for propertyId
-	 * @param defineProperties define the property for the container
-	 */
-	protected void addPropertyForExpression(
-	        Map<Object, Expression<?>> expressionMap,
-	        Object propertyId,
-			Expression<?> expression, boolean defineProperties) {
-		Class<?> propertyType = instantatiableType(expression.getJavaType());
-		
-		boolean isEntity = propertyType.getClass().isAnnotationPresent(Entity.class);
-		boolean sortable = Comparable.class.isAssignableFrom(propertyType);
-		boolean readOnly = !isEntity; // entities are read-only, attributes and expressions readable
-		
-		if (defineProperties) {
-			logger.trace("adding property ({}): {}",(defineProperties ? "select" : "count"),propertyId);
-		    addProperty(propertyId, propertyType, defaultValue(propertyType), readOnly, sortable);
-		}
-		if (sortable){
-		    logger.trace("sortable - adding to expression map ({}): {}",(defineProperties ? "select" : "count"),propertyId);
-		    logger.trace("propertyId({}): {}",System.identityHashCode(propertyId),propertyId.hashCode());
-		    logger.trace("propertyId present? : {}",expressionMap.containsKey(propertyId));
-		    expressionMap.put(propertyId, expression);
-		} else {
-			logger.trace("not sortable - NOT adding to expression map ({}): {}",(defineProperties ? "select" : "count"),propertyId);
-		}
-	}
-
-
-	/**
-	 * @return the metamodel
-	 */
-	public Metamodel getMetamodel() {
-		return metamodel;
-	}
-
-
-	/**
-	 * Add an entity to the list of selections.
-	 * Create Expression objects for each of the attributes of the entity, so
-	 * that sorting is possible on the attributes.  Ensure that an alias is
-	 * present on the selection, if not, use the type as alias
-	 * 
-	 * @param expressionMap where to remember the mappings
-	 * @param entityPath path (Root or Join) that designates an entity
-	 * @param defineProperties define properties for the container
-	 */
-	protected void addEntityProperties(
-	        Map<Object, Expression<?>> expressionMap,
-	        Path<?> entityPath, boolean defineProperties) {
-		ensureAlias(entityPath);
-		addPropertyForEntity(expressionMap, entityPath, defineProperties);
-		addPropertiesForAttributes(expressionMap, entityPath, defineProperties);
-	}
-
-	/**
-	 * If needed, add a property for the entity itself (if entity Person is 
-	 * part of the resulting tuple, then Person can be used to get the whole
-	 * entity).
-	 * 
-	 * @param expressionMap where to remember the mappings
-	 * @param entityPath path (Root or Join) that designates an entity
-	 * @param defineProperties define properties for the container
-	 */
-	protected void addPropertyForEntity(Map<Object, Expression<?>> expressionMap,
-			Path<?> entityPath, boolean defineProperties) {
-		addPropertyForExpression(expressionMap, entityPath.getAlias(), entityPath, defineProperties);
-	}
-	
-
-	/**
-	 * Add properties for all the attributes to the sortable items the container knows about
-	 * (the BeanTupleItem is smart about this and does not actually duplicate info)
-	 * 
-	 * @param expressionMap where to remember the mappings
-	 * @param entityPath path (Root or Join) that designates an entity
-	 * @param defineProperties define properties for the container
-	 */
-	protected void addPropertiesForAttributes(
-			Map<Object, Expression<?>> expressionMap, Path<?> entityPath,
-			boolean defineProperties) {		
-		Class<?> instantatiableType = instantatiableType(entityPath.getJavaType());
-		final EntityType<?> entity = getMetamodel().entity(instantatiableType);
-		Set<?> attributes = entity.getSingularAttributes();
-		logger.trace("getSingularAttributes().size() = {}",attributes.size());
-		for (Object attributeObject : attributes) {
-			SingularAttribute<?, ?> column = (SingularAttribute<?, ?>)attributeObject;
-			addPropertyForAttribute(expressionMap,
-			        columnName(entityPath, column), 
-			        entityPath, 
-			        column, 
-			        defineProperties);
-		}
-		
-//		// Apparently, if @IdClass is used, the @Id annotations that represent the individual
-//		// columns inside the idClass are not returned by getSingularAttributes
-//		// so we go and fetch them explicitly.
-//		try {
-//			Set<?> idClassAttributes = entity.getIdClassAttributes();
-//			logger.trace("getIdClassAttributes().size() = {}",idClassAttributes.size());
-//			for (Object attributeObject : idClassAttributes) {
-//				SingularAttribute<?, ?> column = (SingularAttribute<?, ?>)attributeObject;
-//				addPropertyForAttribute(expressionMap,
-//						columnName(entityPath, column), 
-//				        entityPath, 
-//				        column, 
-//				        defineProperties);
-//			}
-//		} catch (IllegalArgumentException noIdClass) {
-//			// nothing to do -- no idClass present.
-//		}
-	}
-
-	/**
-	 * @param entityPath the path to the entity
-	 * @param column the expression for the column
-	 * @return the name to use
-	 */
-	protected String columnName(Path<?> entityPath, SingularAttribute<?, ?> column) {
-		// return a name qualified by the alias of the table/entity
-		return entityPath.getAlias()+"."+column.getName();
-	}
-
-
-	/**
-	 * Add a computed expression to the list of selections.
-	 * Remember the Expression so that sorting is possible on the attributes.
-	 * Ensure that an alias is present on the selection.
-	 * 
-	 * @param expressionMap where to remember the mapping
-	 * @param selection alias for an Expression for a computed value
-	 * @param defineProperties where to remember the mapping
-	 */
-	protected void addComputedProperty(
-	        Map<Object, Expression<?>> expressionMap,
-	        Selection<?> selection,
-	        boolean defineProperties) {
-		// make sure there is an alias
-		String alias = selection.getAlias();
-		if (alias == null) {
-			throw new IllegalArgumentException("All non-entity selections in multiselect() must have an alias defined : missing alias on "+selection);
-		}
-		
-		// remember the expression so we can sort on the computed value
-		addPropertyForComputedValue(expressionMap, selection.getAlias(), selection, defineProperties);
-	}
-
-
-	/**
-	 * Create property definitions for the container.
-	 * The wrapped container actually calls this method to get its properties.
-	 * @param query the query for which the mapping is being performed
-	 * @param expressionMap where to remember the mappings
-	 * @param defineProperties define properties for the container
-	 */
-	protected void mapProperties(
-	        CriteriaQuery<?> query,
-	        Map<Object, Expression<?>> expressionMap,
-	        boolean defineProperties) {
-		Object propertyId ;
-		for ( Entry<Object, Expression<?>>  entry : expressionMap.entrySet()){
-			propertyId = entry.getKey();
-			if (logger.isDebugEnabled() && defineProperties) {logger.debug("expression: {}",propertyId);}
-			Expression<?> expression = entry.getValue();
-			if (propertyId != null){
-				addPropertyForExpression(expressionMap, propertyId, expression, defineProperties);
-			}
-		}
-		// add the other items in the selection that are not meant to be sortable
-		Selection<?> selection = query.getSelection();
-		if (selection != null) {
-			if (selection.isCompoundSelection()) {
-				logger.trace("compound selection");
-				List<Selection<?>> compoundSelectionItems = selection.getCompoundSelectionItems();
-				for (Selection<?> compoundSelection: compoundSelectionItems){
-					if (compoundSelection.getJavaType().isAnnotationPresent(Entity.class)) {
-						if (defineProperties) {logger.debug("entity1: {}",compoundSelection.getJavaType());}
-						addEntityProperties(expressionMap,(Path<?>) compoundSelection, defineProperties);
-					} else {
-						if (defineProperties) {logger.debug("computed1: {}",compoundSelection.getJavaType());}
-						addComputedProperty(expressionMap, compoundSelection, defineProperties);
-					}
-				}
-			} else {
-				logger.trace("NOT compound selection");
-				// counting or agregate query, find the underlying entity
-				if (selection.getJavaType().isAnnotationPresent(Entity.class)) {
-					if (defineProperties) {logger.debug("entity2: {}",selection.getJavaType());}
-					addEntityProperties(expressionMap,(Path<?>) selection, defineProperties);
-				} else {
-					if (defineProperties) {logger.debug("computed2: {}",selection.getJavaType());}
-					addComputedProperty(expressionMap, selection, defineProperties);
-				}
-			}
-		}
-		
-	}
-
-
-	/**
-	 * If the selection has no alias, add one based on the type name.
-	 * @param selection the selection for which the alias is sought.
-	 * @return the alias string
-	 */
-	protected String ensureAlias(Selection<?> selection) {
-		String alias = selection.getAlias();
-		if (alias == null || alias.isEmpty()) {
-			selection.alias(instantatiableType(selection.getJavaType()).getSimpleName());
-		}
-		return selection.getAlias();
-	}
-
-	
-    /**
-     * Store a list of filters.
-     * Each restriction will be transformed into a predicate added to the WHERE clause.
-     * 
-     * @param restrictions a list of objects that each define a condition to be added
-     */
-    public void setFilters(Collection<FilterRestriction> restrictions) {
-        this.restrictions = restrictions;
-    }
-	
-    
-    /**
-     * @return the filters
-     */
-    public Collection<FilterRestriction> getFilters() {
-        return restrictions;
-    }
-    
-    
-    /**
-     * @param cb the criteria builder
-     * @param cq the query constructed so far
-     * @param expressionMap where to locate the expressions
-     */
-	protected void addRestrictions(
-            CriteriaBuilder cb,
-            CriteriaQuery<?> cq,
-            Map<Object, Expression<?>> expressionMap) {
-        List<Predicate> filterExpressions = new ArrayList<Predicate>();
-        
-        // get the where conditions already in the query
-        Predicate currentRestriction = cq.getRestriction();
-        if (currentRestriction != null){
-           filterExpressions.add(currentRestriction);
-        }
-        
-        // get the predicates that result from container filtering
-        addFilteringPredicates(filterExpressions, cb, cq, expressionMap);
-
-        // build array, casting all the elements to Predicate
-        final Predicate[] array = filterExpressions.toArray(new Predicate[0]);
-        
-        // overwrite the conditions that were in the query
-        if (filterExpressions.size() > 0){
-            cq.where(array);
-        } else {   
-            cq.where();
-        }
-    }
-    
-   
-    
-    /**
-     * Prepare the query so that container filtering works.
-     * 
-     * @param filterExpressions the predicates created by filtering mechanisms so far.
-     * @param cb the current query builder
-     * @param cq the query as built so far
-     * @param expressionMap where to lookup expressions by id
-     * @return a list of predicates to be added to the query 
-     */
-	protected List<Predicate> addFilteringPredicates( List<Predicate> filterExpressions,
-            CriteriaBuilder cb,
-            CriteriaQuery<?> cq,
-            Map<Object, Expression<?>> expressionMap) {
-        if (filters != null) {
-        	for (Filter f: filters)  {
-        		filterExpressions.add(FilterTranslator.getPredicate(f,cb,this,expressionMap));
-        	}
-        }
-        if (restrictions != null) {
-            filterExpressions.add(FilterRestriction.getConjoinedPredicate(restrictions,cb,this,expressionMap));
-        }
-        return filterExpressions;
-    }
-
-	/**
-	 * Compute the property id as the container expects it.
-	 * For BeanTupleContainer, the type name must be prefixed.
-	 * 
-	 * @param metamodelType the static metamodel in which the attribute is found.
-	 * @param attr a singular attribute defined in the model
-	 * @return a propertyId
-	 */
-	public String getPropertyId(Class<?> metamodelType, SingularAttribute<?, ?> attr) {
-	    init();
-		Class<?> entityType = metamodelType.getAnnotation(StaticMetamodel.class).value();
-		String propertyId = entityType.getSimpleName()+"."+attr.getName();
-		return propertyId;
-	}
-
-	
-	/**
-	 * Compute the property id as the container expects it.
-	 * For BeanTupleContainer, the alias must be prefixed.
-	 * 
-	 * @param alias alias used in the query definition.
-	 * @param attr a singular attribute defined in the model
-	 * @return a propertyId if it has been found in the defined properties, null if not.
-	 */
-	public String getPropertyId(String alias, SingularAttribute<?, ?> attr) {
-	    init();
-		String propertyId = alias+"."+attr.getName();
-		return propertyId;
-	}
-
-
-
-    
-    /* (non-Javadoc)
-     * @see org.vaadin.addons.lazyquerycontainer.QueryDefinition#isCompositeItems()
-     */
-    @Override
-    public boolean isCompositeItems() {
-        throw new UnsupportedOperationException();
-    }
-
-
-    /* (non-Javadoc)
-     * @see org.vaadin.addons.lazyquerycontainer.QueryDefinition#setCompositeItems(boolean)
-     */
-    @Override
-    public void setCompositeItems(boolean arg0) {
-        throw new UnsupportedOperationException();
-    }
-
-
-    /**
-     * @return whether the query manages detached entities.
-     */
-    public boolean isDetachedEntities() {
-        return detachedEntities;
-    }
-    
-
-    /**
-     * @param detachedEntities the detachedEntities to set
-     */
-    public void setDetachedEntities(boolean detachedEntities) {
-        this.detachedEntities = detachedEntities;
-    }
-
-	/**
-	 * @param filter to be removed
-	 */
-	public void removeFilter(Filter filter) {
-		filters.remove(filter);		
-	}
-
-	/**
-	 * @param filter to be added
-	 */
-	public void addFilter(Filter filter) {
-		filters.add(filter);
-	}
-
-	/**
-	 * Remove all filters added through {@link #addFilter(Filter)}
-	 */
-	public void clearFilters() {
-		filters.clear();
-	}
-
-}
-
+/**
+ * Copyright 2011 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Parameter;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Fetch;
+import javax.persistence.criteria.FetchParent;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Bindable;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.StaticMetamodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.beantuplecontainer.PropertyMetadataRegistry.PropertyMetadata;
+import org.vaadin.addons.criteriacore.AbstractCriteriaQueryDefinition;
+import org.vaadin.addons.criteriacore.CompiledFilter;
+import org.vaadin.addons.criteriacore.FilterNormalizer;
+import org.vaadin.addons.criteriacore.FilterRestriction;
+import org.vaadin.addons.criteriacore.FilterTranslator;
+import org.vaadin.addons.criteriacore.InPredicates;
+import org.vaadin.addons.criteriacore.LoggerUtils;
+import org.vaadin.addons.criteriacore.NGramIndex;
+import org.vaadin.addons.criteriacore.QueryEvent;
+import org.vaadin.addons.criteriacore.QueryListener;
+import org.vaadin.addons.criteriacore.QueryPhase;
+import org.vaadin.addons.criteriacore.SlowQueryDetector;
+import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.filter.AbstractJunctionFilter;
+import com.vaadin.data.util.filter.Between;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Like;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+/**
+ * Type-safe implementation of JPA 2.0 Tuple-based query definition.
+ * 
+ * <p>This class uses the JPA 2.0 Criteria API to automatically infer all the information necessary to
+ * populate a container (the names of the properties, their sorting, etc.)</p>
+ * 
+ * <p>The query returns a Tuple of one or more entities and computed expressions. The query defines
+ * all the attributes of each of the entities as nested propertyIds, so a container using this query will
+ * consider them present.  The {@link BeanTupleItem} used in the {@link BeanTupleContainer} maps
+ * the nested properties to entity fields, and in this way allows properties to be edited.</p>
+ * 
+ * <p>The following example shows a query that can be used to define a container:
+ * it returns a tuple of entities (through the multiselect() call), and defines
+ * conditions through a where() call.</p>
+ * 
+ * <p>The other methods in this class will examine the resulting object structure to
+ * retrieve the information necessary to list the properties, define sorting, and
+ * so on.</p>
+ * <pre>
+{@code protected Root<?> defineQuery( }
+        CriteriaBuilder cb,
+        CriteriaQuery<?> cq) {
+
+    // FROM task JOIN PERSON 
+    {@code Root<Person> person = (Root<Person>) cq.from(Person.class);}
+    task = person.join(Person_.tasks); 
+
+    // SELECT task as Task, person as Person, ... 
+    cq.multiselect(task,person);
+
+    // WHERE t.name LIKE "..."    
+    cq.where(
+        cb.like(
+            task.get(Task_.name), // t.name
+            "some string%")  // sql "like" pattern to be matched
+        );
+    }
+
+    return task; // for EclipseLink you must return the rightmost joined entity.
+}
+}</pre>
+ * 
+ * @author jflamy
+ */
+
+@SuppressWarnings("deprecation")
+public abstract class BeanTupleQueryDefinition extends AbstractCriteriaQueryDefinition<Tuple> implements QueryDefinition  {
+
+    final private static Logger logger = LoggerFactory.getLogger(BeanTupleQueryDefinition.class);
+
+	private static final boolean USE_OLD_COUNTINGQUERY = false;
+
+	/** classes that override {@link #defineCountingQuery(CriteriaBuilder, CriteriaQuery, EntityManager)} */
+	private static final Map<Class<?>, Boolean> countingQueryOverrides = Collections.synchronizedMap(new WeakHashMap<Class<?>, Boolean>());
+
+	/**
+	 * Map from a property name to the expression that is used to set the property.
+	 * Each item property is retrieved by an expression in a {@link CriteriaQuery#multiselect(List)}
+	 * In order to be able to sort, we need to create an {@link Order} using that expression, so
+	 * we must memorize the correspondence between propertyIds and the expression that fetch
+	 * item properties for that id.
+	 */
+	protected Map<Object,Expression<?>> countingExpressionMap = new HashMap<Object, Expression<?>>();
+	/**
+     * The maps cannot be shared between the two queries.
+     * @see #countingExpressionMap
+     */
+	protected Map<Object,Expression<?>> selectExpressionMap = new HashMap<Object, Expression<?>>();
+
+	/** name of the parameter that holds the last key read, in {@link #getKeysetQuery(EntityManager, Object, boolean, boolean)} */
+	public static final String KEYSET_PARAMETER = "keysetLast";
+
+	/** name of the parameter that holds the last key of a range, in {@link #getKeyRangeQuery(EntityManager, Object, boolean, boolean)} */
+	public static final String KEYSET_UPPER_PARAMETER = "keysetUpper";
+	
+	/** all columns and expressions returned by the where */
+	protected Set<Selection<?>> selections = new HashSet<Selection<?>>();
+
+	private Metamodel metamodel;	
+	
+	/** the criteria builder used to build the JPA query data structure */
+	protected CriteriaBuilder criteriaBuilder;
+	
+	/** the executable query */
+	protected CriteriaQuery<Tuple> tupleQuery;
+	
+	/** all columns and expressions returned by the where */
+	protected CriteriaQuery<Object> countingQuery;
+
+	/** what to count */
+	protected Path<?> countingPath;
+
+    private Collection<FilterRestriction> restrictions;
+    
+	private Collection<Filter> filters = new HashSet<Filter>();
+
+	/** filters after normalization, null when the filters change. */
+	private List<Filter> normalizedFilters;
+
+	/** translation of the normalized filters, kept as long as the filter is in use. */
+	private Map<Filter, CompiledFilter> compiledFilters = new HashMap<Filter, CompiledFilter>();
+
+	/** values of the parameters created for the filters of the current queries, by parameter name. */
+	private Map<String, Object> filterParameterValues = new HashMap<String, Object>();
+
+	/** prefix of the names of the filter parameters of the select and count queries. */
+	private static final String FILTER_PREFIX = "filter";
+
+	/** prefix of the names of the filter parameters of the keyset queries, which are bound separately. */
+	private static final String KEYSET_FILTER_PREFIX = "keysetFilter";
+
+	/** prefix of the names of the filter parameters created for the statement being built. */
+	private String filterParameterPrefix = FILTER_PREFIX;
+
+	/** number of filter parameters created for the statement being built. */
+	private int statementParameterCount = 0;
+
+	/** largest number of parameters bound in one statement. */
+	private int maxStatementParameters = InPredicates.MAX_PARAMETERS;
+
+	/** false while a statement that exceeded {@link #maxStatementParameters} is built again with plain IN lists. */
+	private boolean boundInLists = true;
+
+	/** property holding an upper-case copy of another property, used for case-insensitive filters. */
+	private Map<Object, Object> normalizedPropertyIds = new HashMap<Object, Object>();
+
+	/** n-gram indexes used for "contains" filters, by property id; shared between sessions, so not serialized. */
+	private transient Map<Object, NGramIndex> ngramIndexes = new HashMap<Object, NGramIndex>();
+
+	/** for each indexed property, the property that holds the key of the index. */
+	private Map<Object, Object> ngramKeyPropertyIds = new HashMap<Object, Object>();
+
+    private boolean detachedEntities = false;
+
+    private boolean pageEntityManagers = false;
+
+    private boolean automaticFetchJoins = false;
+
+    private boolean lazyLoadDetection = false;
+
+    /** number of rows whose entities may stay in the persistence context, 0 for no limit. */
+    private int persistenceContextBudget = 0;
+
+    private boolean clearPersistenceContext = false;
+
+    private transient ManagedEntityTracker managedEntityTracker;
+
+    /** associations loaded for a whole page at once, with the item property that exposes them (or null). */
+    private Map<String, Object> batchLoadedAssociations = new LinkedHashMap<String, Object>();
+
+    private boolean asynchronousCount = false;
+
+    /** runs the background counts; null for the executor shared by all the containers. */
+    private transient ExecutorService countExecutor;
+
+    private int inMemoryThreshold = 0;
+
+    /** incremented on each refresh, so that late results from a previous query can be recognized. */
+    private volatile int refreshCount = 0;
+
+    private List<CountListener> countListeners = new CopyOnWriteArrayList<CountListener>();
+
+    /**
+     * listeners notified of the query phases of all the query definitions; held weakly, so that a listener
+     * (and its class loader) can be collected once the application that registered it is gone.
+     */
+    private static final List<WeakReference<QueryListener>> globalQueryListeners = new CopyOnWriteArrayList<WeakReference<QueryListener>>();
+
+    /** listeners of this definition; not serialized, since monitors and statistics are tied to the JVM. */
+    private transient volatile List<QueryListener> queryListeners;
+
+    /** number of batches served from memory instead of the database. */
+    private final AtomicLong memoryLoads = new AtomicLong();
+
+    /** logs the queries slower than its threshold, null if none. */
+    private SlowQueryDetector slowQueryDetector;
+
+    /** name under which the query events are reported. */
+    private String statisticsSource;
+
+    /** shape of the current query, computed when first needed after a refresh. */
+    private String querySignature;
+
+
+
+    /**
+	 * Constructor.
+	 * @param entityManager the entityManager that gives us access to the database and cache
+	 * @param applicationManagedTransactions false if running in a J2EE container that provides the entityManager used, true otherwise
+	 * @param batchSize how many tuples to retrieve at once.
+	 */
+	public BeanTupleQueryDefinition(EntityManager entityManager, boolean applicationManagedTransactions, int batchSize) {
+		super(entityManager, applicationManagedTransactions, Tuple.class, batchSize);
+		metamodel = getEntityManager().getMetamodel();
+		criteriaBuilder = getEntityManager().getCriteriaBuilder();
+	}
+
+    /**
+     * Constructor.
+     * @param entityManager the entityManager that gives us access to the database and cache
+     * @param detachedEntities if true, entities will be detached from the persistence context and merged as needed.
+     * @param applicationManagedTransactions false if running in a J2EE container that provides the entityManager used, true otherwise
+     * @param batchSize how many tuples to retrieve at once.
+     */
+    public BeanTupleQueryDefinition(
+            EntityManager entityManager,
+            boolean detachedEntities,
+            boolean applicationManagedTransactions,
+            int batchSize) {
+        super(entityManager, applicationManagedTransactions, Tuple.class, batchSize);
+        metamodel = getEntityManager().getMetamodel();
+        criteriaBuilder = getEntityManager().getCriteriaBuilder();
+        setDetachedEntities(detachedEntities);
+    }
+
+	/**
+	 * Reset the query definitions.
+	 * 
+	 * <p>The queries are rebuilt on demand by {@link #getSelectQuery()} and {@link #getCountQuery()}:
+	 * a refresh followed only by a count does not build the select query, and the count query is not
+	 * built at all if the size is not needed.</p>
+	 */
+	@Override
+    public void refresh() {
+		if (!initialized) {
+			initMetadata();
+		}
+		countingQuery = null;
+		tupleQuery = null;
+		filterParameterValues.clear();
+		querySignature = null;
+		refreshCount++;
+        initialized = true;
+	}
+
+	/**
+	 * Define the container properties from the selections made in {@link #defineQuery(CriteriaBuilder, CriteriaQuery)}.
+	 * 
+	 * <p>Only the criteria API is used: filters and sorting are not applied, and nothing is sent
+	 * to the database, so that a table can be configured before any data is requested.</p>
+	 */
+	private void initMetadata() {
+		final CriteriaQuery<Tuple> metadataQuery = criteriaBuilder.createTupleQuery();
+		defineQuery(criteriaBuilder, metadataQuery);
+		logger.trace("selectExpressionMap before={}",selectExpressionMap);
+		mapProperties(metadataQuery, selectExpressionMap, true);
+		logger.trace("selectExpressionMap after={}",selectExpressionMap);
+	}
+
+	/**
+	 * Build the query that counts the results, including the container filters.
+	 */
+	private void buildCountingQuery() {
+		final long start = System.nanoTime();
+		boundInLists = true;
+		composeCountingQuery();
+		if (getStatementParameterCount() > maxStatementParameters) {
+			logger.debug("{} parameters in the count statement, building it with plain IN lists", getStatementParameterCount());
+			boundInLists = false;
+			composeCountingQuery();
+			boundInLists = true;
+		}
+        fireQueryEvent(QueryPhase.BUILD, System.nanoTime() - start, 0, -1, -1);
+	}
+
+	/**
+	 * Create the counting query and add the container filters to it.
+	 */
+	private void composeCountingQuery() {
+    	countingQuery = criteriaBuilder.createQuery();
+    	statementParameterCount = 0;
+    	countingPath = defineQuery(criteriaBuilder, countingQuery);
+    	logger.trace("countingExpressionMap before={}",countingExpressionMap);
+    	mapProperties(countingQuery, countingExpressionMap, false);
+    	logger.trace("countingExpressionMap after={}",countingExpressionMap);
+        addRestrictions(criteriaBuilder, countingQuery, countingExpressionMap);
+	}
+
+	/**
+	 * Build the query that retrieves the tuples, including the container filters.
+	 * The container properties have already been defined by {@link #initMetadata()}.
+	 */
+	private void buildSelectQuery() {
+		final long start = System.nanoTime();
+		composeSelectQueryWithinBudget();
+        fireQueryEvent(QueryPhase.BUILD, System.nanoTime() - start, 0, -1, -1);
+	}
+
+	/**
+	 * Create the select query; build it again with plain IN lists if it holds too many parameters.
+	 */
+	private void composeSelectQueryWithinBudget() {
+		boundInLists = true;
+		composeSelectQuery();
+		if (getStatementParameterCount() > maxStatementParameters) {
+			logger.debug("{} parameters in the select statement, building it with plain IN lists", getStatementParameterCount());
+			boundInLists = false;
+			composeSelectQuery();
+			boundInLists = true;
+		}
+	}
+
+	/**
+	 * Create the select query and add the fetch joins and the container filters to it.
+	 */
+	private void composeSelectQuery() {
+        tupleQuery = criteriaBuilder.createTupleQuery();
+        statementParameterCount = 0;
+        defineQuery(criteriaBuilder, tupleQuery);
+        logger.trace("selectExpressionMap before={}",selectExpressionMap);
+        mapProperties(tupleQuery, selectExpressionMap, false);
+        logger.trace("selectExpressionMap after={}",selectExpressionMap);
+        if (automaticFetchJoins) {
+            // before the restrictions, so that filters on nested property ids reuse the fetches.
+            addFetchJoins(tupleQuery);
+        }
+        addRestrictions(criteriaBuilder, tupleQuery, selectExpressionMap);
+	}
+
+	/**
+	 * Fetch, in the select query, the associations traversed by the nested property ids.
+	 * 
+	 * <p>For a property id such as <code>assignedTo.lastName</code> (or <code>task.assignedTo.lastName</code>
+	 * when the first element is the alias of a root), the single-valued associations on the path are
+	 * fetched with LEFT JOIN FETCH, so that the items do not load them one row at a time.  Collections
+	 * are not fetched, since they would multiply the rows and break paging.  Only roots that are selected
+	 * can be fetched from.  The count query is not affected.</p>
+	 * 
+	 * @param query the select query
+	 */
+	protected void addFetchJoins(CriteriaQuery<Tuple> query) {
+		if (propertyIds == null) {
+			return;
+		}
+		for (Object propertyId : propertyIds) {
+			if (!(propertyId instanceof String) || ((String) propertyId).indexOf('.') < 0) {
+				continue;
+			}
+			final String[] segments = ((String) propertyId).split("\\.");
+			int first = 0;
+			Root<?> root = null;
+			for (Root<?> candidate : query.getRoots()) {
+				if (segments[0].equals(candidate.getAlias())) {
+					root = candidate;
+					first = 1;
+				}
+			}
+			if (root == null && query.getRoots().size() == 1) {
+				root = query.getRoots().iterator().next();
+			}
+			if (root == null || !isSelected(root, query)) {
+				continue;
+			}
+			FetchParent<?, ?> parent = root;
+			Class<?> parentType = root.getJavaType();
+			for (int i = first; i < segments.length - 1; i++) {
+				final Attribute<?, ?> attribute = getAttribute(parentType, segments[i]);
+				if (attribute == null || !attribute.isAssociation() || attribute.isCollection()) {
+					break;
+				}
+				parent = fetch(parent, segments[i]);
+				parentType = attribute.getJavaType();
+			}
+		}
+	}
+
+	/**
+	 * @return the existing fetch of the attribute, or a new LEFT fetch.
+	 */
+	private static FetchParent<?, ?> fetch(FetchParent<?, ?> parent, String attributeName) {
+		for (Fetch<?, ?> fetch : parent.getFetches()) {
+			if (fetch.getAttribute().getName().equals(attributeName)) {
+				return fetch;
+			}
+		}
+		return parent.fetch(attributeName, JoinType.LEFT);
+	}
+
+	/**
+	 * @return the attribute of the managed type, or null if the type or the attribute are unknown.
+	 */
+	private Attribute<?, ?> getAttribute(Class<?> type, String attributeName) {
+		try {
+			return metamodel.managedType(type).getAttribute(attributeName);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static boolean isSelected(Root<?> root, CriteriaQuery<?> query) {
+		final Selection<?> selection = query.getSelection();
+		if (selection == null) {
+			return false;
+		} else if (selection.isCompoundSelection()) {
+			return selection.getCompoundSelectionItems().contains(root);
+		} else {
+			return selection == root;
+		}
+	}
+
+	/**
+	 * @return the query that retrieves the tuples, built if needed since the last refresh.
+	 */
+	protected CriteriaQuery<Tuple> getTupleQuery() {
+		init();
+		if (tupleQuery == null) {
+			buildSelectQuery();
+		}
+		return tupleQuery;
+	}
+
+	/**
+	 * Initial setup, once only.
+	 */
+	public void init() {
+	    if (!initialized) {
+	        refresh();
+	        initialized = true;
+	    }
+	}
+
+	/**
+	 * @return a query with the applicable sorting options applied
+	 */
+	@Override
+	public TypedQuery<Tuple> getSelectQuery() {
+		return getSelectQuery(getEntityManager());
+	}
+
+	/**
+	 * Create the select query for a given entity manager.
+	 * Used to read a page with an EntityManager of its own (see {@link #setPageEntityManagers(boolean)}).
+	 * The entity manager must come from the same persistence unit as {@link #getEntityManager()}.
+	 * 
+	 * @param entityManager the entity manager that will run the query
+	 * @return a query with the applicable sorting options applied
+	 */
+	public TypedQuery<Tuple> getSelectQuery(EntityManager entityManager) {
+	    final CriteriaQuery<Tuple> tupleQuery = getTupleQuery();
+	    
+		// apply the ordering defined by the container on the returned entity.
+		final List<Order> ordering = getOrdering(selectExpressionMap);
+		if (ordering != null && ordering.size() > 0) {
+			tupleQuery.orderBy(ordering);
+		} else {
+		    tupleQuery.orderBy();
+		}		
+		
+		final TypedQuery<Tuple> tq = entityManager.createQuery(tupleQuery);
+		// the container will set the parameter values that are defined through the filter() method
+		// so we only handle those that we add ourselves
+		setParameters(tq);
+		applyReadProfile(tq, true);
+		return tq;
+	}
+	
+	/**
+	 * Create a query that reads the rows in key order, for reading the whole result by chunks
+	 * (see {@link ItemCursor}).  The container filters apply; the container sort does not.
+	 * 
+	 * <p>The criteria query is built separately from the select query, so that adding the key
+	 * condition does not affect the container.  Its filter parameters are bound on the returned query
+	 * only, and building it is not reported to the query listeners.</p>
+	 * 
+	 * @param entityManager the entity manager that will run the query
+	 * @param keyPropertyId the property whose values are unique and ordered
+	 * @param ascending the order of the keys
+	 * @param after if true, only the rows after the key given as parameter {@link #KEYSET_PARAMETER}
+	 * @return the query
+	 */
+	public TypedQuery<Tuple> getKeysetQuery(EntityManager entityManager, Object keyPropertyId, boolean ascending, boolean after) {
+		return getKeysetQuery(entityManager, keyPropertyId, ascending, after, false);
+	}
+
+	/**
+	 * Create a query that reads a range of keys, in ascending key order, for reading a partition of the
+	 * result by chunks (see {@link ParallelExporter}).
+	 * 
+	 * @param entityManager the entity manager that will run the query
+	 * @param keyPropertyId the property whose values are unique and ordered
+	 * @param after if true, only the rows after the key given as parameter {@link #KEYSET_PARAMETER}
+	 * @param until if true, only the rows up to and including the key given as parameter {@link #KEYSET_UPPER_PARAMETER}
+	 * @return the query
+	 */
+	public TypedQuery<Tuple> getKeyRangeQuery(EntityManager entityManager, Object keyPropertyId, boolean after, boolean until) {
+		return getKeysetQuery(entityManager, keyPropertyId, true, after, until);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private TypedQuery<Tuple> getKeysetQuery(EntityManager entityManager, Object keyPropertyId, boolean ascending,
+			boolean after, boolean until) {
+		init();
+		final CriteriaQuery<Tuple> savedTupleQuery = tupleQuery;
+		final Map<Object, Expression<?>> savedExpressionMap = selectExpressionMap;
+		final Map<String, Object> savedParameterValues = filterParameterValues;
+		final int savedParameterCount = statementParameterCount;
+		// the filter parameters of this query get names of their own, and are bound on this query only.
+		final Map<String, Object> keysetParameterValues = new HashMap<String, Object>();
+		final CriteriaQuery<Tuple> keysetQuery;
+		final Expression key;
+		try {
+			selectExpressionMap = new HashMap<Object, Expression<?>>();
+			filterParameterValues = keysetParameterValues;
+			filterParameterPrefix = KEYSET_FILTER_PREFIX;
+			composeSelectQueryWithinBudget();
+			keysetQuery = tupleQuery;
+			key = getExpressionById(keyPropertyId.toString(), selectExpressionMap);
+		} finally {
+			tupleQuery = savedTupleQuery;
+			selectExpressionMap = savedExpressionMap;
+			filterParameterValues = savedParameterValues;
+			filterParameterPrefix = FILTER_PREFIX;
+			statementParameterCount = savedParameterCount;
+		}
+		if (after) {
+			final ParameterExpression<Comparable> lastKey = criteriaBuilder.parameter(Comparable.class, KEYSET_PARAMETER);
+			final Predicate next = ascending ? criteriaBuilder.greaterThan(key, lastKey) : criteriaBuilder.lessThan(key, lastKey);
+			final Predicate restriction = keysetQuery.getRestriction();
+			keysetQuery.where(restriction != null ? criteriaBuilder.and(restriction, next) : next);
+		}
+		if (until) {
+			final ParameterExpression<Comparable> upperKey = criteriaBuilder.parameter(Comparable.class, KEYSET_UPPER_PARAMETER);
+			final Predicate bound = criteriaBuilder.lessThanOrEqualTo(key, upperKey);
+			final Predicate restriction = keysetQuery.getRestriction();
+			keysetQuery.where(restriction != null ? criteriaBuilder.and(restriction, bound) : bound);
+		}
+		keysetQuery.orderBy(ascending ? criteriaBuilder.asc(key) : criteriaBuilder.desc(key));
+
+		final TypedQuery<Tuple> tq = entityManager.createQuery(keysetQuery);
+		setParameters(tq);
+		bindFilterParameters(tq, keysetParameterValues);
+		applyReadProfile(tq, true);
+		return tq;
+	}
+
+	/**
+	 * This method returns the number of entities.
+	 * @return number of entities.
+	 */
+	@Override
+	public TypedQuery<Object> getCountQuery() {
+		return getCountQuery(getEntityManager());
+	}
+
+	/**
+	 * Create the counting query for a given entity manager.
+	 * Used to run the count on a separate entity manager (see {@link #setAsynchronousCount(boolean)}).
+	 * The entity manager must come from the same persistence unit as {@link #getEntityManager()}.
+	 * 
+	 * @param entityManager the entity manager that will run the query
+	 * @return a query that returns the number of entities.
+	 */
+	public TypedQuery<Object> getCountQuery(EntityManager entityManager) {
+	    // the select query is only built for subclasses that may derive their count from it.
+	    final CriteriaQuery<Object> explicitCountingQuery = overridesCountingQuery()
+	    		? defineCountingQuery(criteriaBuilder,getTupleQuery(),entityManager)
+	    		: null;
+		if (explicitCountingQuery != null) {
+	    	countingQuery = explicitCountingQuery;
+	    } else if (countingQuery == null) {
+		    init();
+		    buildCountingQuery();
+
+		    // we only want the count so we override the selection in the query
+		    countingQuery.orderBy();
+		    if (USE_OLD_COUNTINGQUERY) {
+			    defineCount();
+		    } else {
+		    	extendedDefineCount();
+		    }
+
+	    }
+
+	    // create the executable query
+	    TypedQuery<Object> typedCountingQuery = entityManager.createQuery(countingQuery);
+		setParameters(typedCountingQuery);
+		applyReadProfile(typedCountingQuery, false);
+		return typedCountingQuery;
+	}
+
+	/**
+	 * 
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void extendedDefineCount() {
+		final Bindable<?> model = countingPath.getModel();
+		if (model != null && model instanceof EntityType) {
+			EntityType<?> entityType = (EntityType<?>)model;
+			if (entityType.hasSingleIdAttribute()) {
+				defineCount();
+			} else {
+				// massive patch for @IdPath under hibernate.
+				if (! countingQuery.isDistinct()) {
+					// we can count any of the ids in the composite key.
+					countingQuery.select(criteriaBuilder.count(countingPath.get((SingularAttribute) entityType.getIdClassAttributes().iterator().next())));
+				} else {
+					throw new UnsupportedOperationException("Cannot automatically determine the counting query; please use defineCountQuery to define a count");
+				}
+				
+			}
+		}
+	}
+
+	/**
+	 * 
+	 */
+	private void defineCount() {
+		Selection<?> selection = countingQuery.getSelection();
+  
+		if (selection == null) {
+			countingQuery.select(criteriaBuilder.count(countingPath));
+		} else if (selection.isCompoundSelection()) {
+		    List<Selection<?>> items = selection.getCompoundSelectionItems();
+		    if (items.size() == 1) {
+		        if (countingQuery.isDistinct()) {
+		            // distinct query, use countDistinct
+		            countingQuery.distinct(false);
+		            countingQuery.select(criteriaBuilder.countDistinct((Expression<?>) items.get(0)));
+		        } else {
+		            countingQuery.select(criteriaBuilder.count((Expression<?>) items.get(0)));
+		        }
+		    } else {
+		        countingQuery.select(criteriaBuilder.count(countingPath));
+		    }
+		} else {
+			if (countingQuery.isDistinct()) {
+		        countingQuery.distinct(false);
+				countingQuery.select(criteriaBuilder.countDistinct((Expression<?>) selection));
+		    } else {
+		        countingQuery.select(criteriaBuilder.count((Expression<?>) countingQuery.getSelection()));
+		    }
+		}
+	}
+
+	/**
+	 * Method used to override the default counting.
+	 * By default the container will generate a count by manipulating the select query.
+	 * Use this method if a more efficient way to get the count exists (or if the JPA implementation is broken)
+	 * e.g. Hibernate with @IdClass)
+	 * 
+	 * @param criteriaBuilder the criteriaBuilder
+	 * @param tupleQuery the resulting query
+	 * @param entityManager the entityManager to use
+	 * @return a counting query, ready to run.
+	 */
+	protected CriteriaQuery<Object> defineCountingQuery(
+			CriteriaBuilder criteriaBuilder,
+			CriteriaQuery<Tuple> tupleQuery,
+			EntityManager entityManager
+			) {
+		return null;
+	}
+
+	/**
+	 * @return true if the class of this definition overrides
+	 * {@link #defineCountingQuery(CriteriaBuilder, CriteriaQuery, EntityManager)}
+	 */
+	private boolean overridesCountingQuery() {
+		final Class<?> definitionClass = getClass();
+		Boolean overrides = countingQueryOverrides.get(definitionClass);
+		if (overrides == null) {
+			overrides = Boolean.FALSE;
+			for (Class<?> c = definitionClass; c != BeanTupleQueryDefinition.class && c != null; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("defineCountingQuery", CriteriaBuilder.class, CriteriaQuery.class, EntityManager.class);
+					overrides = Boolean.TRUE;
+					break;
+				} catch (NoSuchMethodException e) {
+					// not declared at this level.
+				}
+			}
+			countingQueryOverrides.put(definitionClass, overrides);
+		}
+		return overrides;
+	}
+
+	/**
+	 * Define a query that fetches a tuple of one or more entities.
+	 * 
+	 * <p>Note that defineQuery must always use {@link CriteriaQuery#multiselect(Selection...)}
+	 * because a tuple is expected.
+	 * 
+	 * @param criteriaBuilder the CriteriaBuilder used to define the from, where and select
+	 * @param tupleQuery the CriteriaQuery to build the tuples,
+	 * @return a root of the query (used for counting the lines returned)
+	 */
+	@Override
+	protected abstract Path<?> defineQuery(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> tupleQuery);
+	
+
+	/**
+	 * @param javaType the type
+	 * @return the corresponding class for which newInstance can be called.
+	 */
+	protected Class<?> instantatiableType(Class<?> javaType) {
+		if (javaType == long.class) {
+			javaType = Long.class;
+		} else if (javaType == int.class) {
+			javaType = Integer.class;
+		} else if (javaType == boolean.class) {
+			javaType = Boolean.class;
+		} else if (javaType == char.class) {
+            javaType = Character.class;
+        }
+		return javaType;
+	}
+	
+
+	/**
+	 * @param javaType the type
+	 * @return a meaningful default value
+	 */
+	protected Object defaultValue(Class<?> javaType) {
+		if (javaType == long.class) {
+			return 0L;
+		} else if (javaType == int.class) {
+			return 0;
+		} else if (javaType == boolean.class) {
+			return false;
+		} else if (javaType == char.class) {
+			return ' ';
+		} else if (javaType == Long.class) {
+            return 0L;
+        } else if (javaType == Integer.class) {
+            return 0;
+        } else if (javaType == Boolean.class) {
+            return new Boolean(false);
+        } else if (javaType == Character.class) {
+            return new Character(' ');
+        } else if (javaType  == String.class) {
+			return "";
+		} else {
+		    return null;
+		}
+	}
+	
+	
+	/**
+	 * Applies the sort state.
+	 * A JPA ordering is created based on the saved sort orders.
+	 * @param expressionMap where to lookup expressions by id 
+	 * @return a list of Order objects to be added to the query.
+	 */
+	protected List<Order> getOrdering(Map<Object, Expression<?>> expressionMap) {
+        // the native order applies when the container is not sorted, without replacing the sort state.
+        Object[] ids = sortPropertyIds;
+        boolean[] ascendingStates = sortPropertyAscendingStates;
+        if (ids == null || ids.length == 0) {
+            ids = nativeSortPropertyIds;
+            ascendingStates = nativeSortPropertyAscendingStates;
+        }
+  
+        ArrayList<Order> ordering = new ArrayList<Order>();
+    	if (ids == null || ids.length == 0) return ordering;
+
+		for (int curItem = 0; curItem < ids.length; curItem++ ) {
+	    	final String id = (String)ids[curItem];
+			final Expression<?> sortExpression = getExpressionById(id, expressionMap);
+			if (ascendingStates[curItem]) {
+				ordering.add(criteriaBuilder.asc(sortExpression));
+			} else {
+				ordering.add(criteriaBuilder.desc(sortExpression));
+			}
+		}
+		return ordering;
+	}
+
+
+    /**
+     * Return the expression used to access a given property.
+     * 
+     * <p>A nested property id that is not selected by the query, such as <code>assignedTo.lastName</code>
+     * or <code>task.assignedTo.lastName</code>, is resolved by LEFT joining the associations on the path,
+     * in the query to which the expression map belongs.  Joins are reused, so sorting and filtering on
+     * the same association add a single join.</p>
+     * 
+     * @param id the property id
+     * @param expressionMap where to lookup expressions by id.
+     * @return the expression
+     */
+    public Expression<?> getExpressionById(final String id, Map<Object, Expression<?>> expressionMap) {
+        Expression<?> sortExpression = expressionMap.get(id);
+        if (sortExpression == null && id.indexOf('.') >= 0) {
+            sortExpression = getNestedExpression(id, expressionMap);
+        }
+        if (sortExpression == null) {
+            throw new PersistenceException("Property "+id+" cannot be mapped to a selection from the query.");
+        }
+        return sortExpression;
+    }
+
+    /**
+     * Resolve a nested property id from an entity of the query.
+     * The longest prefix of the id that designates an entity in the expression map is used, otherwise a root
+     * whose alias is the first element of the id, otherwise the only root of the query.
+     * 
+     * @param id the property id
+     * @param expressionMap the expressions of the query (select or count) being built
+     * @return the path, or null if no entity can be found or if the path goes through a collection.
+     */
+    private Expression<?> getNestedExpression(String id, Map<Object, Expression<?>> expressionMap) {
+        final CriteriaQuery<?> query = expressionMap == countingExpressionMap ? countingQuery : tupleQuery;
+        if (query == null) {
+            return null;
+        }
+        From<?, ?> from = null;
+        String rest = id;
+        for (int dot = id.lastIndexOf('.'); dot > 0 && from == null; dot = id.lastIndexOf('.', dot - 1)) {
+            final Expression<?> prefix = expressionMap.get(id.substring(0, dot));
+            if (prefix instanceof From && query.getRoots().contains(rootOf((From<?, ?>) prefix))) {
+                from = (From<?, ?>) prefix;
+                rest = id.substring(dot + 1);
+            }
+        }
+        if (from == null) {
+            final String alias = id.substring(0, id.indexOf('.'));
+            for (Root<?> root : query.getRoots()) {
+                if (alias.equals(root.getAlias())) {
+                    from = root;
+                    rest = id.substring(alias.length() + 1);
+                }
+            }
+        }
+        if (from == null && query.getRoots().size() == 1) {
+            from = query.getRoots().iterator().next();
+        }
+        if (from == null) {
+            return null;
+        }
+        // only single-valued associations: a collection would multiply the rows.
+        final String[] segments = rest.split("\\.");
+        Class<?> type = from.getJavaType();
+        for (int i = 0; i < segments.length - 1; i++) {
+            final Attribute<?, ?> attribute = getAttribute(type, segments[i]);
+            if (attribute == null || attribute.isCollection()) {
+                return null;
+            }
+            type = attribute.getJavaType();
+        }
+        return getNestedPath(from, rest);
+    }
+
+    /**
+     * @return the root from which a join originates
+     */
+    private static From<?, ?> rootOf(From<?, ?> from) {
+        From<?, ?> current = from;
+        while (current instanceof Join) {
+            current = ((Join<?, ?>) current).getParent();
+        }
+        return current;
+    }
+	
+
+	
+	/**
+	 * Define the expression required to retrieve a column.
+	 * The entity field will be retrieved as a tuple element. In order to enable sorting,
+	 * we must memorize the query expression used to retrieve each field. An alias
+	 * is defined on the expression.
+	 * 
+	 * @param expressionMap where to remember the mapping
+	 * @param propertyId the desired property id. An alias will be defined.
+	 * @param selection the root or join from which the desired column will be fetched
+	 * @param defineProperties define properties for the container
+	 * @return an expression that can be used in JPA order()
+	 */
+	protected Expression<?> addPropertyForComputedValue(
+	        Map<Object, Expression<?>> expressionMap,
+			final String propertyId,
+			final Selection<?> selection,
+			boolean defineProperties) {
+		final Expression<?> expression = (Expression<?>) selection;
+		addPropertyForExpression(expressionMap,propertyId,expression, defineProperties);
+		return expression;
+	}
+	
+
+	/**
+	 * Define the expression required to retrieve an item property. 
+	 * The entity field will be retrieved as a tuple element. In order to enable sorting,
+	 * we must memorize the query expression used to retrieve each field.
+	 * 
+	 * This version is used when the propertyId must differ from the field name in the Entity
+	 * (for example, when two fields have the same name, and aliases must be used, this method
+	 * ensures that the aliases are defined consistently with the propertyId).
+     * @param expressionMap where to remember the mapping
+	 * @param propertyId the property identifier in the items that will be constructed
+	 * @param path the root or join from which the desired column will be fetched
+	 * @param column the expression used to get the desired column in the query results
+	 * @param defineProperties define the property for the container
+	 * @return an expression that can be used in JPA order()
+	 */
+	protected Expression<?> addPropertyForAttribute(
+	        Map<Object, Expression<?>> expressionMap,
+			final String propertyId,
+			final Path<?> path,
+			final SingularAttribute<?, ?> column, 
+			boolean defineProperties) {
+		Expression<?> expression;
+		try {
+			final String name = column.getName();
+			expression = path.get(name);
+			expression.alias(propertyId);
+			addPropertyForExpression(expressionMap,propertyId,expression,defineProperties);
+			return expression;
+		} catch (Exception e) {
+			LoggerUtils.logErrorException(logger, e);
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	/**
+	 * Helper routine to add a property.
+	 * @param expressionMap where to remember the mapping
+	 * @param propertyId the property Id
+	 * @param expression the expression that fetches the value for propertyId
+	 * @param defineProperties define the property for the container
+	 */
+	protected void addPropertyForExpression(
+	        Map<Object, Expression<?>> expressionMap,
+	        Object propertyId,
+			Expression<?> expression, boolean defineProperties) {
+		Class<?> propertyType = instantatiableType(expression.getJavaType());
+		registerProperty(expressionMap, propertyId, expression, propertyType, defaultValue(propertyType),
+				isReadOnlyType(propertyType), isSortableType(propertyType), defineProperties);
+	}
+
+
+	/**
+	 * Helper routine to add a property for an entity attribute, using the precomputed metadata.
+	 * @param expressionMap where to remember the mapping
+	 * @param metadata the cached description of the property
+	 * @param expression the expression that fetches the value for the property
+	 * @param defineProperties define the property for the container
+	 */
+	protected void addPropertyForMetadata(
+			Map<Object, Expression<?>> expressionMap,
+			PropertyMetadata metadata,
+			Expression<?> expression, boolean defineProperties) {
+		registerProperty(expressionMap, metadata.getPropertyId(), expression, metadata.getType(),
+				metadata.getDefaultValue(), metadata.isReadOnly(), metadata.isSortable(), defineProperties);
+	}
+
+
+	/**
+	 * Define the property for the container, and remember the expression if sorting is possible.
+	 */
+	private void registerProperty(
+			Map<Object, Expression<?>> expressionMap,
+			Object propertyId,
+			Expression<?> expression,
+			Class<?> propertyType,
+			Object defaultValue,
+			boolean readOnly,
+			boolean sortable,
+			boolean defineProperties) {
+		if (defineProperties) {
+			logger.trace("adding property ({}): {}",(defineProperties ? "select" : "count"),propertyId);
+		    addProperty(propertyId, propertyType, defaultValue, readOnly, sortable);
+		}
+		if (sortable){
+		    logger.trace("sortable - adding to expression map ({}): {}",(defineProperties ? "select" : "count"),propertyId);
+		    logger.trace("propertyId({}): {}",System.identityHashCode(propertyId),propertyId.hashCode());
+		    logger.trace("propertyId present? : {}",expressionMap.containsKey(propertyId));
+		    expressionMap.put(propertyId, expression);
+		} else {
+			logger.trace("not sortable - NOT adding to expression map ({}): {}",(defineProperties ? "select" : "count"),propertyId);
+		}
+	}
+
+
+	/**
+	 * @param propertyType the type of a property
+	 * @return true if the container can sort on values of that type.
+	 */
+	protected boolean isSortableType(Class<?> propertyType) {
+		return Comparable.class.isAssignableFrom(propertyType);
+	}
+
+
+	/**
+	 * @param propertyType the type of a property
+	 * @return true if properties of that type cannot be edited through the item.
+	 */
+	protected boolean isReadOnlyType(Class<?> propertyType) {
+		boolean isEntity = propertyType.getClass().isAnnotationPresent(Entity.class);
+		return !isEntity; // entities are read-only, attributes and expressions readable
+	}
+
+
+	/**
+	 * @return the metamodel
+	 */
+	public Metamodel getMetamodel() {
+		return metamodel;
+	}
+
+
+	/**
+	 * Add an entity to the list of selections.
+	 * Create Expression objects for each of the attributes of the entity, so
+	 * that sorting is possible on the attributes.  Ensure that an alias is
+	 * present on the selection, if not, use the type as alias
+	 * 
+	 * @param expressionMap where to remember the mappings
+	 * @param entityPath path (Root or Join) that designates an entity
+	 * @param defineProperties define properties for the container
+	 */
+	protected void addEntityProperties(
+	        Map<Object, Expression<?>> expressionMap,
+	        Path<?> entityPath, boolean defineProperties) {
+		ensureAlias(entityPath);
+		addPropertyForEntity(expressionMap, entityPath, defineProperties);
+		addPropertiesForAttributes(expressionMap, entityPath, defineProperties);
+	}
+
+	/**
+	 * If needed, add a property for the entity itself (if entity Person is 
+	 * part of the resulting tuple, then Person can be used to get the whole
+	 * entity).
+	 * 
+	 * @param expressionMap where to remember the mappings
+	 * @param entityPath path (Root or Join) that designates an entity
+	 * @param defineProperties define properties for the container
+	 */
+	protected void addPropertyForEntity(Map<Object, Expression<?>> expressionMap,
+			Path<?> entityPath, boolean defineProperties) {
+		addPropertyForExpression(expressionMap, entityPath.getAlias(), entityPath, defineProperties);
+	}
+	
+
+	/**
+	 * Add properties for all the attributes to the sortable items the container knows about
+	 * (the BeanTupleItem is smart about this and does not actually duplicate info)
+	 * 
+	 * <p>The metamodel is only walked the first time a given entity and alias are seen
+	 * by a given class of query definition; see {@link PropertyMetadataRegistry}.  The results of
+	 * {@link #columnName(Path, SingularAttribute)} and {@link #defaultValue(Class)} are therefore
+	 * shared, and must only depend on their arguments and on the class of the query definition.
+	 * If a subclass overrides {@link #addPropertyForAttribute(Map, String, Path, SingularAttribute, boolean)},
+	 * that method is called for every attribute instead, and nothing is cached.</p>
+	 * 
+	 * @param expressionMap where to remember the mappings
+	 * @param entityPath path (Root or Join) that designates an entity
+	 * @param defineProperties define properties for the container
+	 */
+	protected void addPropertiesForAttributes(
+			Map<Object, Expression<?>> expressionMap, Path<?> entityPath,
+			boolean defineProperties) {		
+		if (PropertyMetadataRegistry.overridesAttributeHook(getClass())) {
+			// the subclass customizes each attribute; the metadata cannot be shared.
+			Class<?> instantatiableType = instantatiableType(entityPath.getJavaType());
+			final EntityType<?> entity = getMetamodel().entity(instantatiableType);
+			Set<?> attributes = entity.getSingularAttributes();
+			logger.trace("getSingularAttributes().size() = {}",attributes.size());
+			for (Object attributeObject : attributes) {
+				SingularAttribute<?, ?> column = (SingularAttribute<?, ?>)attributeObject;
+				addPropertyForAttribute(expressionMap,
+				        columnName(entityPath, column), 
+				        entityPath, 
+				        column, 
+				        defineProperties);
+			}
+			return;
+		}
+		List<PropertyMetadata> attributes = PropertyMetadataRegistry.getAttributeMetadata(this, entityPath);
+		logger.trace("getSingularAttributes().size() = {}",attributes.size());
+		for (PropertyMetadata metadata : attributes) {
+			final Expression<?> expression = entityPath.get(metadata.getAttributeName());
+			expression.alias(metadata.getPropertyId());
+			addPropertyForMetadata(expressionMap, metadata, expression, defineProperties);
+		}
+		
+//		// Apparently, if @IdClass is used, the @Id annotations that represent the individual
+//		// columns inside the idClass are not returned by getSingularAttributes
+//		// so we go and fetch them explicitly.
+//		try {
+//			Set<?> idClassAttributes = entity.getIdClassAttributes();
+//			logger.trace("getIdClassAttributes().size() = {}",idClassAttributes.size());
+//			for (Object attributeObject : idClassAttributes) {
+//				SingularAttribute<?, ?> column = (SingularAttribute<?, ?>)attributeObject;
+//				addPropertyForAttribute(expressionMap,
+//						columnName(entityPath, column), 
+//				        entityPath, 
+//				        column, 
+//				        defineProperties);
+//			}
+//		} catch (IllegalArgumentException noIdClass) {
+//			// nothing to do -- no idClass present.
+//		}
+	}
+
+	/**
+	 * @param entityPath the path to the entity
+	 * @param column the expression for the column
+	 * @return the name to use
+	 */
+	protected String columnName(Path<?> entityPath, SingularAttribute<?, ?> column) {
+		// return a name qualified by the alias of the table/entity
+		return entityPath.getAlias()+"."+column.getName();
+	}
+
+
+	/**
+	 * Add a computed expression to the list of selections.
+	 * Remember the Expression so that sorting is possible on the attributes.
+	 * Ensure that an alias is present on the selection.
+	 * 
+	 * @param expressionMap where to remember the mapping
+	 * @param selection alias for an Expression for a computed value
+	 * @param defineProperties where to remember the mapping
+	 */
+	protected void addComputedProperty(
+	        Map<Object, Expression<?>> expressionMap,
+	        Selection<?> selection,
+	        boolean defineProperties) {
+		// make sure there is an alias
+		String alias = selection.getAlias();
+		if (alias == null) {
+			throw new IllegalArgumentException("All non-entity selections in multiselect() must have an alias defined : missing alias on "+selection);
+		}
+		
+		// remember the expression so we can sort on the computed value
+		addPropertyForComputedValue(expressionMap, selection.getAlias(), selection, defineProperties);
+	}
+
+
+	/**
+	 * Create property definitions for the container.
+	 * The wrapped container actually calls this method to get its properties.
+	 * @param query the query for which the mapping is being performed
+	 * @param expressionMap where to remember the mappings
+	 * @param defineProperties define properties for the container
+	 */
+	protected void mapProperties(
+	        CriteriaQuery<?> query,
+	        Map<Object, Expression<?>> expressionMap,
+	        boolean defineProperties) {
+		Object propertyId ;
+		for ( Entry<Object, Expression<?>>  entry : expressionMap.entrySet()){
+			propertyId = entry.getKey();
+			if (logger.isDebugEnabled() && defineProperties) {logger.debug("expression: {}",propertyId);}
+			Expression<?> expression = entry.getValue();
+			if (propertyId != null){
+				addPropertyForExpression(expressionMap, propertyId, expression, defineProperties);
+			}
+		}
+		// add the other items in the selection that are not meant to be sortable
+		Selection<?> selection = query.getSelection();
+		if (selection != null) {
+			if (selection.isCompoundSelection()) {
+				logger.trace("compound selection");
+				List<Selection<?>> compoundSelectionItems = selection.getCompoundSelectionItems();
+				for (Selection<?> compoundSelection: compoundSelectionItems){
+					if (compoundSelection.getJavaType().isAnnotationPresent(Entity.class)) {
+						if (defineProperties) {logger.debug("entity1: {}",compoundSelection.getJavaType());}
+						addEntityProperties(expressionMap,(Path<?>) compoundSelection, defineProperties);
+					} else {
+						if (defineProperties) {logger.debug("computed1: {}",compoundSelection.getJavaType());}
+						addComputedProperty(expressionMap, compoundSelection, defineProperties);
+					}
+				}
+			} else {
+				logger.trace("NOT compound selection");
+				// counting or agregate query, find the underlying entity
+				if (selection.getJavaType().isAnnotationPresent(Entity.class)) {
+					if (defineProperties) {logger.debug("entity2: {}",selection.getJavaType());}
+					addEntityProperties(expressionMap,(Path<?>) selection, defineProperties);
+				} else {
+					if (defineProperties) {logger.debug("computed2: {}",selection.getJavaType());}
+					addComputedProperty(expressionMap, selection, defineProperties);
+				}
+			}
+		}
+		
+	}
+
+
+	/**
+	 * If the selection has no alias, add one based on the type name.
+	 * @param selection the selection for which the alias is sought.
+	 * @return the alias string
+	 */
+	protected String ensureAlias(Selection<?> selection) {
+		String alias = selection.getAlias();
+		if (alias == null || alias.isEmpty()) {
+			selection.alias(instantatiableType(selection.getJavaType()).getSimpleName());
+		}
+		return selection.getAlias();
+	}
+
+	
+    /**
+     * Store a list of filters.
+     * Each restriction will be transformed into a predicate added to the WHERE clause.
+     * 
+     * @param restrictions a list of objects that each define a condition to be added
+     */
+    public void setFilters(Collection<FilterRestriction> restrictions) {
+        this.restrictions = restrictions;
+    }
+	
+    
+    /**
+     * @return the filters
+     */
+    public Collection<FilterRestriction> getFilters() {
+        return restrictions;
+    }
+    
+    
+    /**
+     * @param cb the criteria builder
+     * @param cq the query constructed so far
+     * @param expressionMap where to locate the expressions
+     */
+	protected void addRestrictions(
+            CriteriaBuilder cb,
+            CriteriaQuery<?> cq,
+            Map<Object, Expression<?>> expressionMap) {
+        List<Predicate> filterExpressions = new ArrayList<Predicate>();
+        
+        // get the where conditions already in the query
+        Predicate currentRestriction = cq.getRestriction();
+        if (currentRestriction != null){
+           filterExpressions.add(currentRestriction);
+        }
+        
+        // get the predicates that result from container filtering
+        addFilteringPredicates(filterExpressions, cb, cq, expressionMap);
+
+        // build array, casting all the elements to Predicate
+        final Predicate[] array = filterExpressions.toArray(new Predicate[0]);
+        
+        // overwrite the conditions that were in the query
+        if (filterExpressions.size() > 0){
+            cq.where(array);
+        } else {   
+            cq.where();
+        }
+    }
+    
+   
+    
+    /**
+     * Prepare the query so that container filtering works.
+     * 
+     * @param filterExpressions the predicates created by filtering mechanisms so far.
+     * @param cb the current query builder
+     * @param cq the query as built so far
+     * @param expressionMap where to lookup expressions by id
+     * @return a list of predicates to be added to the query 
+     */
+	protected List<Predicate> addFilteringPredicates( List<Predicate> filterExpressions,
+            CriteriaBuilder cb,
+            CriteriaQuery<?> cq,
+            Map<Object, Expression<?>> expressionMap) {
+        if (filters != null) {
+        	for (Filter f: getNormalizedFilters())  {
+        		filterExpressions.add(getCompiledFilter(f).getPredicate(cb,this,expressionMap));
+        	}
+        }
+        if (restrictions != null) {
+            filterExpressions.add(FilterRestriction.getConjoinedPredicate(restrictions,cb,this,expressionMap));
+        }
+        return filterExpressions;
+    }
+
+	/**
+	 * Compute the property id as the container expects it.
+	 * For BeanTupleContainer, the type name must be prefixed.
+	 * 
+	 * @param metamodelType the static metamodel in which the attribute is found.
+	 * @param attr a singular attribute defined in the model
+	 * @return a propertyId
+	 */
+	public String getPropertyId(Class<?> metamodelType, SingularAttribute<?, ?> attr) {
+	    init();
+		Class<?> entityType = metamodelType.getAnnotation(StaticMetamodel.class).value();
+		String propertyId = entityType.getSimpleName()+"."+attr.getName();
+		return propertyId;
+	}
+
+	
+	/**
+	 * Compute the property id as the container expects it.
+	 * For BeanTupleContainer, the alias must be prefixed.
+	 * 
+	 * @param alias alias used in the query definition.
+	 * @param attr a singular attribute defined in the model
+	 * @return a propertyId if it has been found in the defined properties, null if not.
+	 */
+	public String getPropertyId(String alias, SingularAttribute<?, ?> attr) {
+	    init();
+		String propertyId = alias+"."+attr.getName();
+		return propertyId;
+	}
+
+
+
+    
+    /* (non-Javadoc)
+     * @see org.vaadin.addons.lazyquerycontainer.QueryDefinition#isCompositeItems()
+     */
+    @Override
+    public boolean isCompositeItems() {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /* (non-Javadoc)
+     * @see org.vaadin.addons.lazyquerycontainer.QueryDefinition#setCompositeItems(boolean)
+     */
+    @Override
+    public void setCompositeItems(boolean arg0) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * @return whether the query manages detached entities.
+     */
+    public boolean isDetachedEntities() {
+        return detachedEntities;
+    }
+
+
+    /**
+     * Detached entities are edited and merged: they must not be the shared instances of a cache.
+     * @see org.vaadin.addons.criteriacore.AbstractCriteriaQueryDefinition#isPrivateCopies()
+     */
+    @Override
+    protected boolean isPrivateCopies() {
+        return detachedEntities;
+    }
+    
+
+    /**
+     * @param detachedEntities the detachedEntities to set
+     */
+    public void setDetachedEntities(boolean detachedEntities) {
+        this.detachedEntities = detachedEntities;
+    }
+
+
+    /**
+     * @return true if, in detached mode, each page is read by an EntityManager of its own.
+     */
+    public boolean isPageEntityManagers() {
+        return pageEntityManagers;
+    }
+
+
+    /**
+     * In detached mode, read each page with a new EntityManager from the same factory, and close it once the
+     * items are built.  Closing detaches all the entities of the page in one step, instead of one detach
+     * (with its cascades) per entity of each tuple.  The entities are never in the persistence context of
+     * {@link #getEntityManager()} until they are merged when saved.
+     * A select query provided to {@link BeanTupleItemHelper} by a subclass is bound to {@link #getEntityManager()},
+     * so it is run there, and its entities are detached one tuple at a time.
+     * 
+     * @param pageEntityManagers true to use an EntityManager per page; ignored unless entities are detached.
+     * @see #setDetachedEntities(boolean)
+     */
+    public void setPageEntityManagers(boolean pageEntityManagers) {
+        this.pageEntityManagers = pageEntityManagers;
+    }
+
+
+    /**
+     * @return true if the associations traversed by nested property ids are fetched by the select query.
+     */
+    public boolean isAutomaticFetchJoins() {
+        return automaticFetchJoins;
+    }
+
+
+    /**
+     * @param automaticFetchJoins true to fetch the associations traversed by nested property ids (false by default,
+     *        since the fetches change the SQL of the select query).
+     * @see #addFetchJoins(CriteriaQuery)
+     */
+    public void setAutomaticFetchJoins(boolean automaticFetchJoins) {
+        this.automaticFetchJoins = automaticFetchJoins;
+    }
+
+
+    /**
+     * @return true if a warning is logged when the items of a page will load an association one row at a time.
+     */
+    public boolean isLazyLoadDetection() {
+        return lazyLoadDetection;
+    }
+
+
+    /**
+     * Check, after each page is loaded, whether the associations traversed by the nested property ids are
+     * loaded.  If not, displaying the page will run one query per row (the N+1 problem), and a warning is logged.
+     * Meant for development: the check inspects every row.
+     * 
+     * @param lazyLoadDetection true to check
+     */
+    public void setLazyLoadDetection(boolean lazyLoadDetection) {
+        this.lazyLoadDetection = lazyLoadDetection;
+    }
+
+
+    /**
+     * @return the number of rows whose entities may stay in the persistence context, 0 for no limit.
+     */
+    public int getPersistenceContextBudget() {
+        return persistenceContextBudget;
+    }
+
+
+    /**
+     * Limit the growth of the persistence context when entities are not detached.
+     * 
+     * <p>In that mode, every entity loaded stays managed as long as the EntityManager lives, with its
+     * snapshot for dirty checking.  With a budget, once more rows than the budget have been loaded, the
+     * entities of the oldest pages are detached in bulk.  The entities of the most recent page, of the
+     * items with unsaved changes, and of any page still within the budget stay managed.  Items edited
+     * after their entities were detached are merged when saved.</p>
+     * 
+     * <p>Lazy associations of detached entities can no longer be loaded; the budget should cover
+     * several screens, or the associations should be fetched with the rows.</p>
+     * 
+     * @param persistenceContextBudget rows whose entities may stay managed, 0 (the default) for no limit
+     * @see #setClearPersistenceContext(boolean)
+     */
+    public void setPersistenceContextBudget(int persistenceContextBudget) {
+        this.persistenceContextBudget = Math.max(0, persistenceContextBudget);
+    }
+
+
+    /**
+     * @return true if the persistence context is cleared, rather than detached page by page, when over budget.
+     */
+    public boolean isClearPersistenceContext() {
+        return clearPersistenceContext;
+    }
+
+
+    /**
+     * Clear the whole persistence context, in one step, before loading a page that would exceed the budget.
+     * Only suitable when the EntityManager is used by this container alone: everything it manages is
+     * detached, including the entities of items with unsaved changes (which are merged when saved).
+     * 
+     * @param clearPersistenceContext true to clear instead of detaching the oldest pages.
+     */
+    public void setClearPersistenceContext(boolean clearPersistenceContext) {
+        this.clearPersistenceContext = clearPersistenceContext;
+    }
+
+
+    /**
+     * @return the number of rows loaded whose entities are still counted against the budget.
+     */
+    public int getManagedRowCount() {
+        return getManagedEntityTracker().getManagedRows();
+    }
+
+
+    /**
+     * @return the record of the pages whose entities are still managed.
+     */
+    synchronized ManagedEntityTracker getManagedEntityTracker() {
+        if (managedEntityTracker == null) {
+            managedEntityTracker = new ManagedEntityTracker();
+        }
+        return managedEntityTracker;
+    }
+
+
+    /**
+     * Load an association for all the rows of a page with a single query, when a fetch join is not
+     * possible (collections, DISTINCT queries, several collection paths).
+     * 
+     * <p>The owners of the page and their associated entities are selected together, which places the
+     * associated entities in the persistence context: reading a single-valued association then
+     * does not query the database.  A collection of the entity is not initialized this way; give an
+     * itemPropertyId to read the associated entities, as a List, from that item property instead.</p>
+     * 
+     * @param path the association of the first entity of the tuple, or alias.association
+     * @param itemPropertyId the item property that receives the associated entity (or the List of
+     *        entities for a collection); null if the association is read from the entity.
+     */
+    public void addBatchLoadedAssociation(String path, Object itemPropertyId) {
+        batchLoadedAssociations.put(path, itemPropertyId);
+    }
+
+
+    /**
+     * @param path the association that no longer needs to be loaded
+     */
+    public void removeBatchLoadedAssociation(String path) {
+        batchLoadedAssociations.remove(path);
+    }
+
+
+    /**
+     * @return the associations loaded for each page, with the item property that exposes them (or null).
+     */
+    public Map<String, Object> getBatchLoadedAssociations() {
+        return Collections.unmodifiableMap(batchLoadedAssociations);
+    }
+
+
+    /**
+     * @return true if the count is computed in the background.
+     */
+    public boolean isAsynchronousCount() {
+        return asynchronousCount;
+    }
+
+
+    /**
+     * When true, the first page of results is returned without waiting for the count.
+     * 
+     * <p>The size reported by the container is provisional (one more than the batch size) until the count,
+     * run on a separate EntityManager, completes.  The {@link CountListener}s are then notified; the
+     * container uses this to fire an ItemSetChangeEvent if it has been given the application lock
+     * (see {@link BeanTupleContainer#setApplicationLock(Object)}).  The exact size is applied the next
+     * time the size is requested; if the background count failed, the count is then run synchronously.
+     * If the first page is not full, its size is exact and no count is run.</p>
+     * 
+     * @param asynchronousCount true to compute the count in the background.
+     */
+    public void setAsynchronousCount(boolean asynchronousCount) {
+        this.asynchronousCount = asynchronousCount;
+    }
+
+
+    /**
+     * @return the executor that runs the background counts, null if the shared one is used.
+     */
+    public ExecutorService getCountExecutor() {
+        return countExecutor;
+    }
+
+
+    /**
+     * Run the background counts with an executor managed by the application, for instance one sized for
+     * the connection pool, and shut down by the application.  Each count holds a connection while it runs.
+     * When the executor rejects a count, the count is run synchronously on the next access.
+     * 
+     * <p>By default the counts share a pool of a few daemon threads; call {@link #shutdownCountExecutor()}
+     * when the web application is stopped.</p>
+     * 
+     * @param countExecutor the executor, null to use the shared one.
+     * @see #setAsynchronousCount(boolean)
+     */
+    public void setCountExecutor(ExecutorService countExecutor) {
+        this.countExecutor = countExecutor;
+    }
+
+
+    /**
+     * Stop the threads of the executor shared by the background counts.  To be called when the web application
+     * is stopped (e.g. from <code>ServletContextListener.contextDestroyed</code>), so that no thread keeps
+     * its class loader alive.  Executors supplied with {@link #setCountExecutor(ExecutorService)} are not affected.
+     */
+    public static void shutdownCountExecutor() {
+        AsynchronousCounter.shutdown();
+    }
+
+
+    /**
+     * @return the largest number of items that may be kept in memory, 0 if disabled.
+     */
+    public int getInMemoryThreshold() {
+        return inMemoryThreshold;
+    }
+
+
+    /**
+     * Allow results of at most inMemoryThreshold items to be kept in memory.
+     * 
+     * <p>Such a result is loaded in a single query.  When the container is sorted differently, the items
+     * are sorted in memory.  When the container filters are made stricter (for example a {@link com.vaadin.data.util.filter.SimpleStringFilter}
+     * going from "smi" to "smit") and nothing else changes, the new filters are evaluated
+     * in memory with {@link Filter#passesFilter(Object, com.vaadin.data.Item)} instead of querying the
+     * database.  The in-memory evaluation follows Java semantics, which may differ from the database
+     * collation for accented characters and for the position of null values.  A result that grows
+     * above the threshold is handled lazily again.</p>
+     * 
+     * @param inMemoryThreshold a number of items, 0 to disable.
+     */
+    public void setInMemoryThreshold(int inMemoryThreshold) {
+        this.inMemoryThreshold = inMemoryThreshold;
+    }
+
+
+    /**
+     * @return the number of times the query has been refreshed.
+     */
+    public int getRefreshCount() {
+        return refreshCount;
+    }
+
+
+    /**
+     * @param listener notified when a count computed in the background is available.
+     */
+    public void addCountListener(CountListener listener) {
+        countListeners.add(listener);
+    }
+
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeCountListener(CountListener listener) {
+        countListeners.remove(listener);
+    }
+
+
+    /**
+     * Notify the listeners that the count is known.  Called from a background thread.
+     * @param count the number of items
+     */
+    protected void fireCountComputed(int count) {
+        for (CountListener listener : countListeners) {
+            listener.countComputed(this, count);
+        }
+    }
+
+
+    /**
+     * The listener is held weakly: the application keeps a reference to it (as it does to read
+     * {@link org.vaadin.addons.criteriacore.QueryStatistics}) for as long as it must be notified.
+     * 
+     * @param listener notified of the phases of the queries run by all the containers.
+     * @see org.vaadin.addons.criteriacore.QueryStatistics
+     */
+    public static void addGlobalQueryListener(QueryListener listener) {
+        globalQueryListeners.add(new WeakReference<QueryListener>(listener));
+    }
+
+
+    /**
+     * @param listener the listener to remove
+     */
+    public static void removeGlobalQueryListener(QueryListener listener) {
+        for (WeakReference<QueryListener> reference : globalQueryListeners) {
+            final QueryListener registered = reference.get();
+            if (registered == null || registered == listener) {
+                globalQueryListeners.remove(reference);
+            }
+        }
+    }
+
+
+    /**
+     * @return the global listeners still alive; the references to collected listeners are dropped.
+     */
+    private static List<QueryListener> getGlobalQueryListeners() {
+        if (globalQueryListeners.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<QueryListener> listeners = new ArrayList<QueryListener>(globalQueryListeners.size());
+        for (WeakReference<QueryListener> reference : globalQueryListeners) {
+            final QueryListener listener = reference.get();
+            if (listener == null) {
+                globalQueryListeners.remove(reference);
+            } else {
+                listeners.add(listener);
+            }
+        }
+        return listeners;
+    }
+
+
+    /**
+     * @param listener notified of the phases of the queries run for this definition.
+     */
+    public void addQueryListener(QueryListener listener) {
+        synchronized (this) {
+            if (queryListeners == null) {
+                queryListeners = new CopyOnWriteArrayList<QueryListener>();
+            }
+        }
+        queryListeners.add(listener);
+    }
+
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeQueryListener(QueryListener listener) {
+        final List<QueryListener> listeners = queryListeners;
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+
+    /**
+     * @return true if someone listens to the query phases; timing is skipped otherwise.
+     */
+    public boolean isInstrumented() {
+        final List<QueryListener> listeners = queryListeners;
+        return (listeners != null && !listeners.isEmpty()) || !getGlobalQueryListeners().isEmpty();
+    }
+
+
+    /**
+     * Report a completed query phase to the listeners.
+     * 
+     * @param phase the phase
+     * @param durationNanos time spent in the phase
+     * @param rowCount number of rows returned or processed
+     * @param firstResult index of the first row requested, -1 if not applicable
+     * @param maxResults number of rows requested, -1 if not applicable
+     */
+    protected void fireQueryEvent(QueryPhase phase, long durationNanos, int rowCount, int firstResult, int maxResults) {
+        if (!isInstrumented()) {
+            return;
+        }
+        fireQueryEvent(new QueryEvent(getStatisticsSource(), phase, durationNanos, rowCount,
+                firstResult, maxResults, getQuerySignature()));
+    }
+
+
+    /**
+     * Report a completed query phase to the listeners.
+     * 
+     * <p>Used from background threads: the source and signature of the event must have been computed
+     * on the thread that uses the container, since computing the signature reads the filters.</p>
+     * 
+     * @param event the event, see {@link #getStatisticsSource()} and {@link #getQuerySignature()}
+     */
+    protected void fireQueryEvent(QueryEvent event) {
+        final List<QueryListener> listeners = queryListeners;
+        if (listeners != null) {
+            for (QueryListener listener : listeners) {
+                listener.queryPhaseCompleted(event);
+            }
+        }
+        for (QueryListener listener : getGlobalQueryListeners()) {
+            listener.queryPhaseCompleted(event);
+        }
+    }
+
+
+    /**
+     * @return the detector that logs slow count and select queries, null if none.
+     */
+    public SlowQueryDetector getSlowQueryDetector() {
+        return slowQueryDetector;
+    }
+
+
+    /**
+     * @param slowQueryDetector logs the count and select queries that exceed its threshold, null to disable.
+     */
+    public void setSlowQueryDetector(SlowQueryDetector slowQueryDetector) {
+        this.slowQueryDetector = slowQueryDetector;
+    }
+
+
+    /**
+     * Record that a batch was served from memory instead of the database.
+     */
+    void recordMemoryLoad() {
+        memoryLoads.incrementAndGet();
+    }
+
+
+    /**
+     * @return the number of batches served from memory instead of the database.
+     */
+    public long getMemoryLoadCount() {
+        return memoryLoads.get();
+    }
+
+
+    /**
+     * @return the name under which query events are reported; the class of the container by default.
+     */
+    public String getStatisticsSource() {
+        return statisticsSource != null ? statisticsSource : getClass().getName();
+    }
+
+
+    /**
+     * @param statisticsSource the name under which query events are reported, for example the name of the screen.
+     */
+    public void setStatisticsSource(String statisticsSource) {
+        this.statisticsSource = statisticsSource;
+    }
+
+
+    /**
+     * @return true if a name was given for the query events.
+     */
+    boolean hasStatisticsSource() {
+        return statisticsSource != null;
+    }
+
+
+    /**
+     * Describe the shape of the current query: the filtered properties and the sort order, without the values,
+     * so that the events for the same screen can be grouped.
+     * 
+     * @return the signature
+     */
+    public String getQuerySignature() {
+        String signature = querySignature;
+        if (signature == null) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("filters=[");
+            boolean first = true;
+            for (Filter filter : getNormalizedFilters()) {
+                if (!first) sb.append(", ");
+                describe(filter, sb);
+                first = false;
+            }
+            sb.append("] sort=[");
+            final Object[] sortPropertyIds = getSortPropertyIds();
+            final boolean[] ascending = getSortPropertyAscendingStates();
+            for (int i = 0; sortPropertyIds != null && i < sortPropertyIds.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(sortPropertyIds[i]);
+                if (ascending != null && i < ascending.length && !ascending[i]) sb.append(" desc");
+            }
+            sb.append("]");
+            signature = sb.toString();
+            querySignature = signature;
+        }
+        return signature;
+    }
+
+    private static void describe(Filter filter, StringBuilder sb) {
+        if (filter instanceof AbstractJunctionFilter) {
+            sb.append(filter.getClass().getSimpleName()).append('(');
+            boolean first = true;
+            for (Filter subFilter : ((AbstractJunctionFilter) filter).getFilters()) {
+                if (!first) sb.append(", ");
+                describe(subFilter, sb);
+                first = false;
+            }
+            sb.append(')');
+        } else if (filter instanceof Not) {
+            sb.append("Not(");
+            describe(((Not) filter).getFilter(), sb);
+            sb.append(')');
+        } else if (filter instanceof Compare) {
+            sb.append(((Compare) filter).getPropertyId()).append(' ').append(((Compare) filter).getOperation());
+        } else if (filter instanceof SimpleStringFilter) {
+            sb.append(((SimpleStringFilter) filter).getPropertyId())
+                .append(((SimpleStringFilter) filter).isOnlyMatchPrefix() ? " starts" : " contains");
+        } else if (filter instanceof Like) {
+            sb.append(((Like) filter).getPropertyId()).append(" like");
+        } else if (filter instanceof Between) {
+            sb.append(((Between) filter).getPropertyId()).append(" between");
+        } else if (filter instanceof IsNull) {
+            sb.append(((IsNull) filter).getPropertyId()).append(" is null");
+        } else {
+            sb.append(filter.getClass().getSimpleName());
+        }
+    }
+
+	/**
+	 * @param filter to be removed
+	 */
+	public void removeFilter(Filter filter) {
+		filters.remove(filter);		
+		normalizedFilters = null;
+		querySignature = null;
+	}
+
+	/**
+	 * @param filter to be added
+	 */
+	public void addFilter(Filter filter) {
+		filters.add(filter);
+		normalizedFilters = null;
+		querySignature = null;
+	}
+
+	/**
+	 * Remove all filters added through {@link #addFilter(Filter)}
+	 */
+	public void clearFilters() {
+		filters.clear();
+		normalizedFilters = null;
+		querySignature = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.criteriacore.AbstractCriteriaQueryDefinition#setSortState(java.lang.Object[], boolean[])
+	 */
+	@Override
+	public void setSortState(final Object[] sortPropertyIds, final boolean[] sortPropertyAscendingStates) {
+		super.setSortState(sortPropertyIds, sortPropertyAscendingStates);
+		querySignature = null;
+	}
+
+	/**
+	 * @return the container filters, simplified by {@link FilterNormalizer}.
+	 */
+	protected List<Filter> getNormalizedFilters() {
+		if (normalizedFilters == null) {
+			normalizedFilters = FilterNormalizer.normalizeConjunction(filters);
+			// forget the translations of filters no longer in use.
+			compiledFilters.keySet().retainAll(normalizedFilters);
+		}
+		return normalizedFilters;
+	}
+
+	/**
+	 * Create a query parameter for a value used by a filter.
+	 * The value is bound when the runnable query is created (see {@link #setParameters(TypedQuery)}).
+	 * 
+	 * @param <Y> the type of the parameter
+	 * @param cb the criteria builder for the CriteriaQuery being built
+	 * @param type the type of the parameter
+	 * @param value the value to bind
+	 * @return the parameter expression
+	 */
+	public <Y> ParameterExpression<Y> createFilterParameter(CriteriaBuilder cb, Class<Y> type, Object value) {
+		final String name = filterParameterPrefix + filterParameterValues.size();
+		filterParameterValues.put(name, value);
+		statementParameterCount++;
+		return cb.parameter(type, name);
+	}
+
+	/**
+	 * @return the number of parameters already used by the statement being built: the filter parameters
+	 * created so far, and the named parameters set by the application.
+	 */
+	public int getStatementParameterCount() {
+		final Map<String, Object> namedParameterValues = getNamedParameterValues();
+		return statementParameterCount + (namedParameterValues != null ? namedParameterValues.size() : 0);
+	}
+
+	/**
+	 * @return the largest number of parameters bound in one statement.
+	 */
+	public int getMaxStatementParameters() {
+		return maxStatementParameters;
+	}
+
+	/**
+	 * @return false while a statement that holds more than {@link #getMaxStatementParameters()} parameters
+	 * is built again: the IN lists are then not bound (see {@link InPredicates}).
+	 */
+	public boolean isBoundInLists() {
+		return boundInLists;
+	}
+
+	/**
+	 * Set the largest number of parameters bound in one statement.
+	 * The default, {@link InPredicates#MAX_PARAMETERS}, suits SQL Server (about 2100); PostgreSQL and Oracle
+	 * accept much more, and the limit can be raised for them when very large IN filters are used.
+	 * 
+	 * @param maxStatementParameters the limit
+	 */
+	public void setMaxStatementParameters(int maxStatementParameters) {
+		this.maxStatementParameters = maxStatementParameters;
+	}
+
+	/**
+	 * Bind the named parameters, and the parameters created for the container filters.
+	 * @see org.vaadin.addons.criteriacore.AbstractCriteriaQueryDefinition#setParameters(javax.persistence.TypedQuery)
+	 */
+	@Override
+	protected TypedQuery<?> setParameters(TypedQuery<?> tq) {
+		super.setParameters(tq);
+		bindFilterParameters(tq, filterParameterValues);
+		return tq;
+	}
+
+	/**
+	 * @param tq the query
+	 * @param parameterValues values of the filter parameters, by name; those that the query does not use are ignored.
+	 */
+	private static void bindFilterParameters(TypedQuery<?> tq, Map<String, Object> parameterValues) {
+		for (Parameter<?> parameter : tq.getParameters()) {
+			final String name = parameter.getName();
+			if (name != null && parameterValues.containsKey(name)) {
+				tq.setParameter(name, parameterValues.get(name));
+			}
+		}
+	}
+
+	/**
+	 * Declare a property that holds the upper-case version of another one.
+	 * 
+	 * <p>Case-insensitive filters on propertyId ({@link com.vaadin.data.util.filter.SimpleStringFilter} with
+	 * ignoreCase, {@link com.vaadin.data.util.filter.Like} that is not case sensitive) are then applied to the
+	 * normalized property without calling UPPER(), so that an ordinary index on its column can be used.
+	 * The application (or a database trigger) is responsible for keeping the column up to date.  The normalized
+	 * property must be sortable, so that its expression is known.</p>
+	 * 
+	 * <p>Without a normalized property, UPPER(column) is compared; databases that support function-based
+	 * indexes can use an index on that expression.</p>
+	 * 
+	 * @param propertyId the property being filtered
+	 * @param normalizedPropertyId the property that holds the upper-case copy, null to remove.
+	 */
+	public void setNormalizedProperty(Object propertyId, Object normalizedPropertyId) {
+		if (normalizedPropertyId == null) {
+			normalizedPropertyIds.remove(propertyId);
+		} else {
+			normalizedPropertyIds.put(propertyId, normalizedPropertyId);
+		}
+	}
+
+	/**
+	 * @param propertyId the property being filtered
+	 * @return the property that holds its upper-case copy, or null if none was declared.
+	 */
+	public Object getNormalizedPropertyId(Object propertyId) {
+		return normalizedPropertyIds.get(propertyId);
+	}
+
+	/**
+	 * Use an in-memory n-gram index to answer "contains" filters on a property.
+	 * 
+	 * <p>A {@link SimpleStringFilter} on propertyId that does not only match the prefix is looked up in the index;
+	 * if there are few enough matches, the query is restricted to their keys (keyPropertyId IN (...)), which the
+	 * database finds through its index on the key, instead of evaluating LIKE '%...%' on every row.  Only
+	 * top-level container filters are considered.</p>
+	 * 
+	 * <p>The same index should be registered on all the query definitions for the entity. Items saved through the
+	 * container are applied to the index by {@link #updateIndexes(List, List, List)}.</p>
+	 * 
+	 * @param propertyId the string property being filtered
+	 * @param keyPropertyId the property that holds the keys of the index (usually the id)
+	 * @param index the index, null to remove.
+	 */
+	public void addNGramIndex(Object propertyId, Object keyPropertyId, NGramIndex index) {
+		if (ngramIndexes == null) {
+			ngramIndexes = new HashMap<Object, NGramIndex>();
+		}
+		if (index == null) {
+			ngramIndexes.remove(propertyId);
+			ngramKeyPropertyIds.remove(propertyId);
+		} else {
+			ngramIndexes.put(propertyId, index);
+			ngramKeyPropertyIds.put(propertyId, keyPropertyId);
+		}
+		// filters already translated must be translated again.
+		compiledFilters.clear();
+	}
+
+	/**
+	 * @param propertyId the property being filtered
+	 * @return the n-gram index for the property, or null if none was declared.
+	 */
+	public NGramIndex getNGramIndex(Object propertyId) {
+		return ngramIndexes == null ? null : ngramIndexes.get(propertyId);
+	}
+
+	/**
+	 * Apply saved items to the n-gram indexes.  Called once the changes have been committed.
+	 * 
+	 * @param addedItems new items
+	 * @param modifiedItems changed items
+	 * @param removedItems removed items
+	 */
+	public void updateIndexes(List<Item> addedItems, List<Item> modifiedItems, List<Item> removedItems) {
+		if (ngramIndexes == null || ngramIndexes.isEmpty()) {
+			return;
+		}
+		for (Entry<Object, NGramIndex> entry : ngramIndexes.entrySet()) {
+			final Object propertyId = entry.getKey();
+			final Object keyPropertyId = ngramKeyPropertyIds.get(propertyId);
+			final NGramIndex index = entry.getValue();
+			for (Item item : addedItems) {
+				updateIndex(index, item, keyPropertyId, propertyId);
+			}
+			for (Item item : modifiedItems) {
+				updateIndex(index, item, keyPropertyId, propertyId);
+			}
+			for (Item item : removedItems) {
+				final Property keyProperty = item.getItemProperty(keyPropertyId);
+				if (keyProperty != null && keyProperty.getValue() != null) {
+					index.remove(keyProperty.getValue());
+				}
+			}
+		}
+	}
+
+	private void updateIndex(NGramIndex index, Item item, Object keyPropertyId, Object propertyId) {
+		final Property keyProperty = item.getItemProperty(keyPropertyId);
+		final Property textProperty = item.getItemProperty(propertyId);
+		if (keyProperty == null || keyProperty.getValue() == null || textProperty == null) {
+			return;
+		}
+		final Object text = textProperty.getValue();
+		index.update(keyProperty.getValue(), text == null ? null : text.toString());
+	}
+
+	/**
+	 * Get the translation of a filter.  The filters are compared with equals(), so a filter that
+	 * is removed and added again, or the same filter used for both the count and select queries,
+	 * is only analyzed once.
+	 * 
+	 * @param filter a normalized filter
+	 * @return its translation
+	 */
+	protected CompiledFilter getCompiledFilter(Filter filter) {
+		CompiledFilter compiledFilter = compiledFilters.get(filter);
+		if (compiledFilter == null) {
+			final NGramIndex index = filter instanceof SimpleStringFilter ? getNGramIndex(((SimpleStringFilter) filter).getPropertyId()) : null;
+			if (index != null && !((SimpleStringFilter) filter).isOnlyMatchPrefix()) {
+				final Object keyPropertyId = ngramKeyPropertyIds.get(((SimpleStringFilter) filter).getPropertyId());
+				compiledFilter = FilterTranslator.compile((SimpleStringFilter) filter, index, keyPropertyId);
+			} else {
+				compiledFilter = FilterTranslator.compile(filter);
+			}
+			compiledFilters.put(filter, compiledFilter);
+		}
+		return compiledFilter;
+	}
+
+	/**
+	 * @return true if the container filters cannot be satisfied, so the result is empty without querying.
+	 */
+	public boolean isProvablyEmpty() {
+		return getNormalizedFilters().contains(FilterNormalizer.NONE);
+	}
+
+	/**
+	 * @return the filters added through {@link #addFilter(Filter)}
+	 */
+	public Collection<Filter> getContainerFilters() {
+		return Collections.unmodifiableCollection(filters);
+	}
+
+}
+
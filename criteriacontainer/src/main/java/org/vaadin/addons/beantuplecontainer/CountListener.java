@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.io.Serializable;
+
+/**
+ * Notified when a count computed in the background becomes available.
+ * 
+ * @see BeanTupleQueryDefinition#setAsynchronousCount(boolean)
+ * @author jflamy
+ */
+public interface CountListener extends Serializable {
+
+	/**
+	 * Called from the thread that ran the count, not from the thread that handles the user's requests.
+	 * 
+	 * @param queryDefinition the query definition that was counted
+	 * @param count the exact number of items
+	 */
+	public void countComputed(BeanTupleQueryDefinition queryDefinition, int count);
+
+}
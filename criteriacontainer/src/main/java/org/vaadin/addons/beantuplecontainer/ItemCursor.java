@@ -0,0 +1,242 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.criteriacore.QueryEvent;
+import org.vaadin.addons.criteriacore.QueryPhase;
+import org.vaadin.addons.criteriacore.SlowQueryDetector;
+
+import com.vaadin.data.Item;
+
+/**
+ * Forward-only iteration over all the items of a container, in constant memory.
+ * 
+ * <p>The rows are read by chunks, on an EntityManager reserved for the cursor and cleared before each
+ * chunk.  Associations loaded in batch (see {@link BeanTupleQueryDefinition#getBatchLoadedAssociations()}) are
+ * read for the whole chunk, as for a page of the container.
+ * The items are created one at a time as they are requested, and are not added to the caches
+ * of the container, nor to its key map.  Changes made to the items are not saved.</p>
+ * 
+ * <p>If the container has a key property and is not sorted (or is sorted on the key only), the chunks are
+ * read with a condition on the last key read ("keyset" paging), so that each chunk costs the same whatever
+ * its position.  Otherwise the chunks are read by position, in the container sort order, and reading
+ * deep into a large result becomes slower.</p>
+ * 
+ * <p>The cursor must be closed if it is not read to the end.  It is not thread-safe.</p>
+ * 
+ * @see BeanTupleContainer#stream(int)
+ * @author jflamy
+ */
+public final class ItemCursor implements Iterator<Item>, Closeable {
+
+	final private static Logger logger = LoggerFactory.getLogger(ItemCursor.class);
+
+	private final BeanTupleQueryDefinition queryDefinition;
+	private final BeanTupleItemHelper itemHelper;
+	private final EntityManager cursorEntityManager;
+	private final int chunkSize;
+	private final Object keyPropertyId;
+	private final String statisticsSource;
+	private final String querySignature;
+
+	private final TypedQuery<Tuple> firstQuery;
+	private final TypedQuery<Tuple> nextQuery;
+
+	private Iterator<?> chunk;
+	/** batch-loaded association values of the chunk, one map per row; null if there are none */
+	private Iterator<Map<Object, Object>> chunkAssociations;
+	private boolean exhausted = false;
+	private boolean closed = false;
+	private int position = 0;
+	private Object lastKey;
+
+	/**
+	 * @param queryDefinition the definition of the query, with its filters and sort
+	 * @param itemHelper creates the items from the tuples
+	 * @param keyPropertyId the key of the container, null if none
+	 * @param chunkSize the number of rows read at once
+	 */
+	ItemCursor(BeanTupleQueryDefinition queryDefinition, BeanTupleItemHelper itemHelper, Object keyPropertyId, int chunkSize) {
+		this(queryDefinition, itemHelper, keyPropertyId, chunkSize, false, null, null);
+	}
+
+	/**
+	 * @param queryDefinition the definition of the query, with its filters and sort
+	 * @param itemHelper creates the items from the tuples
+	 * @param keyPropertyId the key of the container, null if none
+	 * @param chunkSize the number of rows read at once
+	 * @param range if true, read the keys after lowerKey and up to upperKey, in ascending order
+	 * @param lowerKey the key before the range, null if the range is not bounded below
+	 * @param upperKey the last key of the range, null if the range is not bounded above
+	 */
+	ItemCursor(BeanTupleQueryDefinition queryDefinition, BeanTupleItemHelper itemHelper, Object keyPropertyId, int chunkSize,
+			boolean range, Object lowerKey, Object upperKey) {
+		this.queryDefinition = queryDefinition;
+		this.itemHelper = itemHelper;
+		this.chunkSize = chunkSize;
+		this.cursorEntityManager = queryDefinition.getEntityManager().getEntityManagerFactory().createEntityManager();
+		// computed now: the cursor may be read from another thread while the container filters change.
+		this.statisticsSource = queryDefinition.getStatisticsSource();
+		this.querySignature = queryDefinition.isInstrumented() ? queryDefinition.getQuerySignature() : null;
+
+		final Object[] sortPropertyIds = queryDefinition.getSortPropertyIds();
+		final boolean keyset = keyPropertyId != null
+				&& (sortPropertyIds == null || sortPropertyIds.length == 0
+				|| (sortPropertyIds.length == 1 && keyPropertyId.equals(sortPropertyIds[0])));
+		try {
+			if (range) {
+				this.keyPropertyId = keyPropertyId;
+				firstQuery = queryDefinition.getKeyRangeQuery(cursorEntityManager, keyPropertyId, lowerKey != null, upperKey != null);
+				nextQuery = queryDefinition.getKeyRangeQuery(cursorEntityManager, keyPropertyId, true, upperKey != null);
+				if (lowerKey != null) {
+					firstQuery.setParameter(BeanTupleQueryDefinition.KEYSET_PARAMETER, lowerKey);
+				}
+				if (upperKey != null) {
+					firstQuery.setParameter(BeanTupleQueryDefinition.KEYSET_UPPER_PARAMETER, upperKey);
+					nextQuery.setParameter(BeanTupleQueryDefinition.KEYSET_UPPER_PARAMETER, upperKey);
+				}
+			} else if (keyset) {
+				final boolean ascending = sortPropertyIds == null || sortPropertyIds.length == 0
+						|| queryDefinition.getSortPropertyAscendingStates()[0];
+				this.keyPropertyId = keyPropertyId;
+				firstQuery = queryDefinition.getKeysetQuery(cursorEntityManager, keyPropertyId, ascending, false);
+				nextQuery = queryDefinition.getKeysetQuery(cursorEntityManager, keyPropertyId, ascending, true);
+			} else {
+				this.keyPropertyId = null;
+				firstQuery = queryDefinition.getSelectQuery(cursorEntityManager);
+				nextQuery = firstQuery;
+			}
+		} catch (RuntimeException e) {
+			cursorEntityManager.close();
+			throw e;
+		}
+		logger.debug("cursor on {}: {} chunks of {}", new Object[] {
+				queryDefinition.getStatisticsSource(), range ? "range" : keyset ? "keyset" : "positional", chunkSize });
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		while (!closed && (chunk == null || !chunk.hasNext())) {
+			if (exhausted) {
+				close();
+			} else {
+				readChunk();
+			}
+		}
+		return !closed;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public Item next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final Item item = itemHelper.toItem((Tuple) chunk.next());
+		if (chunkAssociations != null) {
+			BeanTupleItemHelper.addAssociationProperties(item, chunkAssociations.next());
+		}
+		if (keyPropertyId != null) {
+			lastKey = item.getItemProperty(keyPropertyId).getValue();
+		}
+		position++;
+		return item;
+	}
+
+	/**
+	 * Not supported: the cursor is read-only.
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("the cursor is read-only");
+	}
+
+	/**
+	 * Release the EntityManager of the cursor.  Done automatically when the last item has been read.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			chunk = null;
+			chunkAssociations = null;
+			cursorEntityManager.close();
+		}
+	}
+
+	/**
+	 * @return the number of items returned so far
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Read the next chunk, after forgetting the entities of the previous one.
+	 */
+	private void readChunk() {
+		cursorEntityManager.clear();
+		final TypedQuery<Tuple> query;
+		if (position == 0) {
+			query = firstQuery;
+		} else {
+			query = nextQuery;
+			if (keyPropertyId != null) {
+				query.setParameter(BeanTupleQueryDefinition.KEYSET_PARAMETER, lastKey);
+			}
+		}
+		query.setFirstResult(keyPropertyId != null ? 0 : position);
+		query.setMaxResults(chunkSize);
+		final long start = System.nanoTime();
+		final List<?> rows = query.getResultList();
+		final long elapsedNanos = System.nanoTime() - start;
+		if (queryDefinition.isInstrumented()) {
+			queryDefinition.fireQueryEvent(new QueryEvent(statisticsSource, QueryPhase.SELECT, elapsedNanos, rows.size(),
+					position, chunkSize, querySignature));
+		}
+		final SlowQueryDetector slowQueryDetector = queryDefinition.getSlowQueryDetector();
+		if (slowQueryDetector != null) {
+			slowQueryDetector.check("cursor", query, elapsedNanos, rows.size());
+		}
+		exhausted = rows.size() < chunkSize;
+
+		// associations are loaded now, while the owners are still managed; the next chunk clears them.
+		final Map<String, Object> associations = queryDefinition.getBatchLoadedAssociations();
+		chunkAssociations = associations.isEmpty() || rows.isEmpty()
+				? null : AssociationBatchLoader.load(cursorEntityManager, associations, rows).iterator();
+		chunk = rows.iterator();
+	}
+
+}
@@ -1,46 +1,59 @@
-/**
- * Copyright 2010 Jean-François Lamy
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.vaadin.addons.beantuplecontainer;
-
-import java.util.Map;
-
-/**
- * @author jflamy
- *
- */
-public interface KeyManager {
-    
-    /**
-     * if true, align retrieval to the size of the batches.  This optimizes getItemIds().
-     */
-    boolean USE_BATCHING = true;
-
-	/**
-     * @return the propertyId to be used as key
-     */
-    public Object getKeyPropertyId();
-    
-    /**
-     * @return the map between keys in the entity and the index in the container
-     */
-    public Map<Object, Integer> getKeyToId();
-
-	/**
-	 * @return the effective batch size for the underlying view
-	 */
-	public int getBatchSize();
-
+/**
+ * Copyright 2010 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.data.Item;
+
+/**
+ * @author jflamy
+ *
+ */
+public interface KeyManager {
+    
+    /**
+     * if true, align retrieval to the size of the batches.  This optimizes getItemIds().
+     */
+    boolean USE_BATCHING = true;
+
+	/**
+     * @return the propertyId to be used as key
+     */
+    public Object getKeyPropertyId();
+    
+    /**
+     * @return the map between keys in the entity and the index in the container
+     */
+    public Map<Object, Integer> getKeyToId();
+
+	/**
+	 * @return the effective batch size for the underlying view
+	 */
+	public int getBatchSize();
+
+	/**
+	 * @return the items of the last small result, kept to answer narrower or re-sorted queries from memory.
+	 */
+	public ResidentResult getResidentResult();
+
+	/**
+	 * @return the items with changes not yet saved.
+	 */
+	public List<Item> getModifiedItems();
+
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.metamodel.Metamodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.BeanItem;
+
+/**
+ * Keep track of the entities that the pages have placed in the persistence context, and detach
+ * the oldest ones when there are more rows than the budget.
+ * 
+ * @see BeanTupleQueryDefinition#setPersistenceContextBudget(int)
+ * @author jflamy
+ * 
+ */
+final class ManagedEntityTracker {
+
+	final private static Logger logger = LoggerFactory.getLogger(ManagedEntityTracker.class);
+
+	/** the entities of each page still managed, oldest first */
+	private final LinkedList<List<Object>> pages = new LinkedList<List<Object>>();
+	private final LinkedList<Integer> pageRows = new LinkedList<Integer>();
+	private int managedRows = 0;
+
+	/** whether the objects of a class are entities, as found in the metamodel */
+	private final Map<Class<?>, Boolean> entityClasses = new HashMap<Class<?>, Boolean>();
+
+	/**
+	 * In clear mode, empty the persistence context if the page about to be loaded would exceed the budget.
+	 * 
+	 * @param entityManager the EntityManager of the query definition
+	 * @param rows the number of rows about to be loaded
+	 * @param budget the number of rows whose entities may stay managed
+	 */
+	synchronized void beforeLoad(EntityManager entityManager, int rows, int budget) {
+		if (managedRows > 0 && managedRows + rows > budget) {
+			logger.debug("clearing the persistence context: {} rows managed", managedRows);
+			entityManager.clear();
+			pages.clear();
+			pageRows.clear();
+			managedRows = 0;
+		}
+	}
+
+	/**
+	 * Record the entities of a page; detach those of the oldest pages until the budget is met.
+	 * The entities of the most recent page, and those of items with pending changes, stay managed.
+	 * 
+	 * @param entityManager the EntityManager of the query definition
+	 * @param tuples the rows of the page
+	 * @param budget the number of rows whose entities may stay managed
+	 * @param modifiedItems the items with pending changes
+	 */
+	synchronized void afterLoad(EntityManager entityManager, List<?> tuples, int budget, List<Item> modifiedItems) {
+		final List<Object> entities = new LinkedList<Object>();
+		final Metamodel metamodel = entityManager.getMetamodel();
+		for (Object tuple : tuples) {
+			addEntities(metamodel, ((Tuple) tuple).toArray(), entities);
+		}
+		pages.addLast(entities);
+		pageRows.addLast(tuples.size());
+		managedRows += tuples.size();
+		if (managedRows <= budget || pages.size() == 1) {
+			return;
+		}
+
+		// an entity can be in several pages, or have pending changes: these stay managed.
+		final Set<Object> kept = identitySet();
+		for (Item item : modifiedItems) {
+			addEntities(metamodel, item, kept);
+		}
+		int keptRows = 0;
+		int keptPages = 0;
+		for (int i = pages.size() - 1; i >= 0 && (keptPages == 0 || keptRows + pageRows.get(i) <= budget); i--) {
+			kept.addAll(pages.get(i));
+			keptRows += pageRows.get(i);
+			keptPages++;
+		}
+		int detached = 0;
+		while (pages.size() > keptPages) {
+			for (Object entity : pages.removeFirst()) {
+				if (!kept.contains(entity) && entityManager.contains(entity)) {
+					entityManager.detach(entity);
+					detached++;
+				}
+			}
+			managedRows -= pageRows.removeFirst();
+		}
+		logger.debug("detached {} entities, {} rows still managed", detached, managedRows);
+	}
+
+	/**
+	 * @return the number of rows whose entities are still managed
+	 */
+	synchronized int getManagedRows() {
+		return managedRows;
+	}
+
+	/**
+	 * Forget the pages, without detaching anything.
+	 */
+	synchronized void reset() {
+		pages.clear();
+		pageRows.clear();
+		managedRows = 0;
+	}
+
+	private void addEntities(Metamodel metamodel, Object[] values, Collection<Object> entities) {
+		for (Object value : values) {
+			if (value != null && isEntity(metamodel, value.getClass())) {
+				entities.add(value);
+			}
+		}
+	}
+
+	private void addEntities(Metamodel metamodel, Item item, Set<Object> entities) {
+		if (item instanceof BeanTupleItem && ((BeanTupleItem) item).getTuple() != null) {
+			addEntities(metamodel, ((BeanTupleItem) item).getTuple().toArray(), entities);
+		} else if (item instanceof BeanItem) {
+			entities.add(((BeanItem<?>) item).getBean());
+		}
+	}
+
+	/**
+	 * Entities are recognized through the metamodel, so that proxies and entities mapped in orm.xml are found.
+	 * @return true if the objects of the class are entities.
+	 */
+	private boolean isEntity(Metamodel metamodel, Class<?> type) {
+		Boolean entity = entityClasses.get(type);
+		if (entity == null) {
+			entity = AssociationBatchLoader.findEntityClass(metamodel, type) != null;
+			entityClasses.put(type, entity);
+		}
+		return entity;
+	}
+
+	private static Set<Object> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	}
+
+}
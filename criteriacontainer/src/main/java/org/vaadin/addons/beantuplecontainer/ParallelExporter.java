@@ -0,0 +1,389 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.criteriacore.QueryPhase;
+
+import com.vaadin.data.Item;
+
+/**
+ * Export all the items of a container by reading several ranges of keys at the same time.
+ * 
+ * <p>The keys are split into ranges of roughly equal sizes, by reading the keys found at regular
+ * positions in key order.  Each range is read by its own {@link ItemCursor}, on its own EntityManager
+ * and thread, and written to a temporary file.  The files are then copied to the output in key order,
+ * so the result is the same as a sequential export.</p>
+ * 
+ * <p>The ranges can only be computed when the container has a key property and is not sorted (or is
+ * sorted on the key, ascending).  Otherwise, the export reads the items sequentially, as {@link BeanTupleContainer#stream(int)}.</p>
+ * 
+ * <p>Each range being read holds an EntityManager and, while its queries run, a connection.  The number of
+ * ranges is therefore limited to {@link #MAX_PARTITIONS}; an application can also run the ranges on an executor
+ * of its own (see {@link #setExecutor(ExecutorService)}), sized for the share of the connection pool that
+ * exports may use.</p>
+ * 
+ * <p>The {@link ItemWriter} is called from several threads at once, each with its own Writer.</p>
+ * 
+ * @see BeanTupleContainer#export(int)
+ * @author jflamy
+ */
+public final class ParallelExporter {
+
+	final private static Logger logger = LoggerFactory.getLogger(ParallelExporter.class);
+
+	/**
+	 * Writes one item to the export.
+	 */
+	public interface ItemWriter {
+		/**
+		 * @param item the item to write
+		 * @param writer the output of the range being read, or of the whole export
+		 * @throws IOException if the item cannot be written
+		 */
+		void write(Item item, Writer writer) throws IOException;
+	}
+
+	/** largest number of ranges read at once. */
+	public static final int MAX_PARTITIONS = 8;
+
+	private final BeanTupleQueryDefinition queryDefinition;
+	private final BeanTupleQueryFactory queryFactory;
+	private final Object keyPropertyId;
+	private final int partitions;
+	private final int chunkSize;
+	private File temporaryDirectory;
+	private ExecutorService executor;
+
+	/**
+	 * @param queryDefinition the definition of the query, with its filters and sort
+	 * @param queryFactory creates the item helpers, one per range
+	 * @param keyPropertyId the key of the container, null if none
+	 * @param partitions the maximum number of ranges read at once, at most {@link #MAX_PARTITIONS}
+	 * @param chunkSize the number of rows read at once in each range
+	 */
+	ParallelExporter(BeanTupleQueryDefinition queryDefinition, BeanTupleQueryFactory queryFactory, Object keyPropertyId,
+			int partitions, int chunkSize) {
+		this.queryDefinition = queryDefinition;
+		this.queryFactory = queryFactory;
+		this.keyPropertyId = keyPropertyId;
+		this.partitions = Math.max(1, Math.min(partitions, MAX_PARTITIONS));
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return the maximum number of ranges read at once, after applying {@link #MAX_PARTITIONS}.
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * @return the directory for the temporary files, null for the default one.
+	 */
+	public File getTemporaryDirectory() {
+		return temporaryDirectory;
+	}
+
+	/**
+	 * @param temporaryDirectory the directory for the temporary files, null for the default one.
+	 */
+	public void setTemporaryDirectory(File temporaryDirectory) {
+		this.temporaryDirectory = temporaryDirectory;
+	}
+
+	/**
+	 * @return the executor that reads the ranges, null if each export creates its own threads.
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Read the ranges with an executor managed by the application.  The executor is not shut down by the export;
+	 * its number of threads bounds the number of connections used at once by the exports that share it.
+	 * 
+	 * @param executor the executor, null to use threads created for each export (one per range).
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Write all the items, in key order, to the output.
+	 * 
+	 * @param itemWriter writes each item
+	 * @param out the output; it is not closed.
+	 * @return the number of items written
+	 * @throws IOException if the items cannot be written, or the export is interrupted
+	 */
+	public long export(final ItemWriter itemWriter, Writer out) throws IOException {
+		final List<Object> boundaries = isPartitionable() ? probeBoundaries() : new ArrayList<Object>();
+		if (boundaries.isEmpty()) {
+			return exportRange(new ItemCursor(queryDefinition, newItemHelper(), keyPropertyId, chunkSize), itemWriter, out);
+		}
+
+		// the cursors are created here: neither the criteria builder nor the query definition are thread-safe.
+		final List<ItemCursor> cursors = new ArrayList<ItemCursor>();
+		final List<File> files = new ArrayList<File>();
+		final List<Future<Long>> results = new ArrayList<Future<Long>>();
+		final ExecutorService rangeExecutor = executor != null ? executor : Executors.newFixedThreadPool(boundaries.size() + 1, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "criteriacontainer-export-" + threadNumber.getAndIncrement());
+				// must not prevent the servlet container from shutting down.
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			Object lowerKey = null;
+			for (int i = 0; i <= boundaries.size(); i++) {
+				final Object upperKey = i < boundaries.size() ? boundaries.get(i) : null;
+				cursors.add(new ItemCursor(queryDefinition, newItemHelper(), keyPropertyId, chunkSize, true, lowerKey, upperKey));
+				files.add(File.createTempFile("export", ".part", temporaryDirectory));
+				lowerKey = upperKey;
+			}
+
+			for (int i = 0; i < cursors.size(); i++) {
+				final ItemCursor cursor = cursors.get(i);
+				final File file = files.get(i);
+				results.add(rangeExecutor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+						try {
+							return exportRange(cursor, itemWriter, writer);
+						} finally {
+							writer.close();
+						}
+					}
+				}));
+			}
+			final long count = awaitRanges(results);
+			for (File file : files) {
+				copy(file, out);
+			}
+			logger.debug("exported {} items of {} in {} ranges", new Object[] {
+					count, queryDefinition.getStatisticsSource(), cursors.size() });
+			return count;
+		} finally {
+			if (rangeExecutor != executor) {
+				rangeExecutor.shutdownNow();
+			} else {
+				for (Future<Long> result : results) {
+					result.cancel(true);
+				}
+			}
+			for (ItemCursor cursor : cursors) {
+				cursor.close();
+			}
+			for (File file : files) {
+				if (!file.delete()) {
+					file.deleteOnExit();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the keys can be split in ranges that follow the order of the container
+	 */
+	private boolean isPartitionable() {
+		if (keyPropertyId == null || partitions < 2) {
+			return false;
+		}
+		final Object[] sortPropertyIds = queryDefinition.getSortPropertyIds();
+		return sortPropertyIds == null || sortPropertyIds.length == 0
+				|| (sortPropertyIds.length == 1 && keyPropertyId.equals(sortPropertyIds[0])
+						&& queryDefinition.getSortPropertyAscendingStates()[0]);
+	}
+
+	/**
+	 * Find the last key of each range but the last, by reading the key found at regular positions.
+	 * Small results are not split.
+	 * 
+	 * @return the upper bounds of the ranges, in ascending order, without duplicates.
+	 */
+	private List<Object> probeBoundaries() {
+		final List<Object> boundaries = new ArrayList<Object>();
+		final BeanTupleItemHelper itemHelper = newItemHelper();
+		final EntityManager probeEntityManager = queryDefinition.getEntityManager().getEntityManagerFactory().createEntityManager();
+		try {
+			long start = System.nanoTime();
+			final long count = ((Number) queryDefinition.getCountQuery(probeEntityManager).getSingleResult()).longValue();
+			queryDefinition.fireQueryEvent(QueryPhase.COUNT, System.nanoTime() - start, (int) count, 0, 0);
+			final int[] positions = probePositions(count, partitions, chunkSize);
+			if (positions.length == 0) {
+				return boundaries;
+			}
+
+			final TypedQuery<Tuple> probeQuery = queryDefinition.getKeysetQuery(probeEntityManager, keyPropertyId, true, false);
+			probeQuery.setMaxResults(1);
+			for (int position : positions) {
+				probeQuery.setFirstResult(position);
+				start = System.nanoTime();
+				final List<Tuple> rows = probeQuery.getResultList();
+				queryDefinition.fireQueryEvent(QueryPhase.SELECT, System.nanoTime() - start, rows.size(), position, 1);
+				if (rows.isEmpty()) {
+					// rows deleted since the count
+					break;
+				}
+				final Object key = itemHelper.toItem(rows.get(0)).getItemProperty(keyPropertyId).getValue();
+				if (key != null && (boundaries.isEmpty() || !key.equals(boundaries.get(boundaries.size() - 1)))) {
+					boundaries.add(key);
+				}
+			}
+		} finally {
+			probeEntityManager.close();
+		}
+		return boundaries;
+	}
+
+	/**
+	 * @param count the number of rows
+	 * @param partitions the number of ranges
+	 * @param chunkSize the number of rows read at once in each range
+	 * @return the position of the last row of each range but the last, in ascending order, without duplicates;
+	 *     none if the rows fit in one chunk.
+	 */
+	static int[] probePositions(long count, int partitions, int chunkSize) {
+		if (count <= chunkSize || partitions < 2) {
+			return new int[0];
+		}
+		final int[] positions = new int[partitions - 1];
+		int found = 0;
+		for (int i = 1; i < partitions; i++) {
+			final int position = (int) (count * i / partitions) - 1;
+			// with fewer rows than ranges, some ranges would be empty.
+			if (position >= 0 && (found == 0 || position > positions[found - 1])) {
+				positions[found++] = position;
+			}
+		}
+		return Arrays.copyOf(positions, found);
+	}
+
+	/**
+	 * Wait for all the ranges, even if one fails, so that no thread is still using its cursor afterwards.
+	 * 
+	 * @param results the futures for the ranges
+	 * @return the number of items written
+	 * @throws IOException the first failure
+	 */
+	private long awaitRanges(List<Future<Long>> results) throws IOException {
+		long count = 0;
+		Throwable failure = null;
+		for (Future<Long> result : results) {
+			try {
+				count += result.get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			} catch (InterruptedException e) {
+				for (Future<Long> other : results) {
+					other.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("export interrupted");
+			}
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+		return count;
+	}
+
+	/**
+	 * @param cursor the items to write, closed when done
+	 * @param itemWriter writes each item
+	 * @param writer the output
+	 * @return the number of items written
+	 * @throws IOException if an item cannot be written
+	 */
+	private static long exportRange(ItemCursor cursor, ItemWriter itemWriter, Writer writer) throws IOException {
+		try {
+			while (cursor.hasNext()) {
+				itemWriter.write(cursor.next(), writer);
+			}
+			return cursor.getPosition();
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Append the content of a range to the output.
+	 * @param file the output of the range
+	 * @param out the output of the export
+	 * @throws IOException if the file cannot be read or the output written
+	 */
+	private static void copy(File file, Writer out) throws IOException {
+		final Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			final char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return an item helper for one range; the helpers keep state and are not shared between threads.
+	 */
+	private BeanTupleItemHelper newItemHelper() {
+		return (BeanTupleItemHelper) queryFactory.constructItemHelper();
+	}
+
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.criteria.Path;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide cache of the item properties derived from the JPA metamodel.
+ *
+ * <p>Each time a query definition is refreshed, every attribute of every entity in the selection
+ * is turned into a container property (id, type, default value, sortability).  The result only
+ * depends on the class of the query definition, on the metamodel (persistence unit), on the entity class
+ * and on the alias under which the entity is selected, so it is computed once and shared by all the query
+ * definitions (and therefore all the sessions) that use the same combination.</p>
+ *
+ * <p>The cached values are immutable; default values returned by {@link BeanTupleQueryDefinition#defaultValue(Class)}
+ * are shared and must therefore be immutable as well.  {@link BeanTupleQueryDefinition#columnName(Path, SingularAttribute)}
+ * and {@link BeanTupleQueryDefinition#defaultValue(Class)} must give the same result for all the instances of a
+ * query definition class.  Query definitions that override
+ * {@link BeanTupleQueryDefinition#addPropertyForAttribute(Map, String, Path, SingularAttribute, boolean)}
+ * do not use the registry.</p>
+ *
+ * <p>The entries of a persistence unit are held through its metamodel, weakly: once the EntityManagerFactory
+ * is closed and forgotten (e.g. when the web application is redeployed), they can be collected along with
+ * its classes, without calling {@link #clear()}.  The cached metadata refer to the entity classes, and
+ * through them to the metamodel; they are therefore held by a soft reference, which the garbage collector
+ * clears when the metamodel is no longer used elsewhere.</p>
+ *
+ * @author jflamy
+ */
+public final class PropertyMetadataRegistry {
+
+	final private static Logger logger = LoggerFactory.getLogger(PropertyMetadataRegistry.class);
+
+	/** metadata by persistence unit (identified by its metamodel). */
+	private static final Map<Metamodel, SoftReference<ConcurrentMap<RegistryKey, List<PropertyMetadata>>>> registry =
+			Collections.synchronizedMap(new WeakHashMap<Metamodel, SoftReference<ConcurrentMap<RegistryKey, List<PropertyMetadata>>>>());
+
+	private static final Map<Class<?>, Boolean> attributeHookOverrides =
+			Collections.synchronizedMap(new WeakHashMap<Class<?>, Boolean>());
+
+	private PropertyMetadataRegistry() {
+	}
+
+	/**
+	 * Get the description of the properties for all the singular attributes of an entity.
+	 *
+	 * @param queryDefinition the query definition for which the properties are defined
+	 * @param entityPath path (Root or Join) that designates an entity; must already have an alias.
+	 * @return an immutable list, in metamodel order.
+	 */
+	public static List<PropertyMetadata> getAttributeMetadata(BeanTupleQueryDefinition queryDefinition, Path<?> entityPath) {
+		final Class<?> entityClass = queryDefinition.instantatiableType(entityPath.getJavaType());
+		final RegistryKey key = new RegistryKey(queryDefinition.getClass(), entityClass, entityPath.getAlias());
+		final ConcurrentMap<RegistryKey, List<PropertyMetadata>> unitRegistry = getUnitRegistry(queryDefinition.getMetamodel());
+		List<PropertyMetadata> metadata = unitRegistry.get(key);
+		if (metadata == null) {
+			metadata = computeAttributeMetadata(queryDefinition, entityPath, entityClass);
+			List<PropertyMetadata> previous = unitRegistry.putIfAbsent(key, metadata);
+			if (previous != null) {
+				metadata = previous;
+			}
+		}
+		return metadata;
+	}
+
+	/**
+	 * @param metamodel the metamodel of the persistence unit
+	 * @return the metadata of the persistence unit, created if needed.
+	 */
+	private static ConcurrentMap<RegistryKey, List<PropertyMetadata>> getUnitRegistry(Metamodel metamodel) {
+		synchronized (registry) {
+			final SoftReference<ConcurrentMap<RegistryKey, List<PropertyMetadata>>> reference = registry.get(metamodel);
+			ConcurrentMap<RegistryKey, List<PropertyMetadata>> unitRegistry = reference != null ? reference.get() : null;
+			if (unitRegistry == null) {
+				unitRegistry = new ConcurrentHashMap<RegistryKey, List<PropertyMetadata>>();
+				registry.put(metamodel, new SoftReference<ConcurrentMap<RegistryKey, List<PropertyMetadata>>>(unitRegistry));
+			}
+			return unitRegistry;
+		}
+	}
+
+	/**
+	 * @param definitionClass the class of a query definition
+	 * @return true if the class (or one of its superclasses) overrides
+	 * {@link BeanTupleQueryDefinition#addPropertyForAttribute(Map, String, Path, SingularAttribute, boolean)}
+	 */
+	static boolean overridesAttributeHook(Class<?> definitionClass) {
+		Boolean overrides = attributeHookOverrides.get(definitionClass);
+		if (overrides == null) {
+			overrides = Boolean.FALSE;
+			for (Class<?> c = definitionClass; c != BeanTupleQueryDefinition.class && c != null; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("addPropertyForAttribute",
+							Map.class, String.class, Path.class, SingularAttribute.class, boolean.class);
+					overrides = Boolean.TRUE;
+					break;
+				} catch (NoSuchMethodException e) {
+					// not declared at this level.
+				}
+			}
+			attributeHookOverrides.put(definitionClass, overrides);
+		}
+		return overrides;
+	}
+
+	/**
+	 * Forget everything.  Not needed when a persistence unit goes away, since its entries are then collected.
+	 */
+	public static void clear() {
+		registry.clear();
+		attributeHookOverrides.clear();
+	}
+
+	/**
+	 * Walk the metamodel for an entity.
+	 * @param queryDefinition the query definition for which the properties are defined
+	 * @param entityPath path (Root or Join) that designates an entity
+	 * @param entityClass the class of the entity
+	 * @return an immutable list of property descriptions
+	 */
+	private static List<PropertyMetadata> computeAttributeMetadata(BeanTupleQueryDefinition queryDefinition,
+			Path<?> entityPath, Class<?> entityClass) {
+		final EntityType<?> entity = queryDefinition.getMetamodel().entity(entityClass);
+		Set<?> attributes = entity.getSingularAttributes();
+		logger.trace("computing metadata for {} ({} attributes)", entityPath.getAlias(), attributes.size());
+
+		List<PropertyMetadata> metadata = new ArrayList<PropertyMetadata>(attributes.size());
+		for (Object attributeObject : attributes) {
+			SingularAttribute<?, ?> column = (SingularAttribute<?, ?>) attributeObject;
+			Class<?> propertyType = queryDefinition.instantatiableType(column.getJavaType());
+			metadata.add(new PropertyMetadata(
+					queryDefinition.columnName(entityPath, column),
+					column.getName(),
+					propertyType,
+					queryDefinition.defaultValue(propertyType),
+					queryDefinition.isReadOnlyType(propertyType),
+					queryDefinition.isSortableType(propertyType)));
+		}
+		return Collections.unmodifiableList(metadata);
+	}
+
+
+	/**
+	 * Immutable description of an item property that maps to an entity attribute.
+	 */
+	public static final class PropertyMetadata {
+		private final String propertyId;
+		private final String attributeName;
+		private final Class<?> type;
+		private final Object defaultValue;
+		private final boolean readOnly;
+		private final boolean sortable;
+
+		PropertyMetadata(String propertyId, String attributeName, Class<?> type, Object defaultValue,
+				boolean readOnly, boolean sortable) {
+			this.propertyId = propertyId;
+			this.attributeName = attributeName;
+			this.type = type;
+			this.defaultValue = defaultValue;
+			this.readOnly = readOnly;
+			this.sortable = sortable;
+		}
+
+		/**
+		 * @return the property id in the container
+		 */
+		public String getPropertyId() {
+			return propertyId;
+		}
+
+		/**
+		 * @return the name of the attribute in the entity
+		 */
+		public String getAttributeName() {
+			return attributeName;
+		}
+
+		/**
+		 * @return the (non-primitive) type of the property
+		 */
+		public Class<?> getType() {
+			return type;
+		}
+
+		/**
+		 * @return the default value for new items
+		 */
+		public Object getDefaultValue() {
+			return defaultValue;
+		}
+
+		/**
+		 * @return true if the property cannot be edited
+		 */
+		public boolean isReadOnly() {
+			return readOnly;
+		}
+
+		/**
+		 * @return true if the container can sort on the property
+		 */
+		public boolean isSortable() {
+			return sortable;
+		}
+	}
+
+
+	/**
+	 * Key for the metadata of a persistence unit.
+	 */
+	private static final class RegistryKey {
+		private final Class<?> definitionClass;
+		private final Class<?> entityClass;
+		private final String alias;
+
+		RegistryKey(Class<?> definitionClass, Class<?> entityClass, String alias) {
+			this.definitionClass = definitionClass;
+			this.entityClass = entityClass;
+			this.alias = alias;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof RegistryKey)) return false;
+			RegistryKey other = (RegistryKey) obj;
+			return definitionClass == other.definitionClass
+					&& entityClass == other.entityClass
+					&& (alias == null ? other.alias == null : alias.equals(other.alias));
+		}
+
+		@Override
+		public int hashCode() {
+			int result = definitionClass.hashCode();
+			result = 31 * result + entityClass.hashCode();
+			result = 31 * result + (alias == null ? 0 : alias.hashCode());
+			return result;
+		}
+	}
+}
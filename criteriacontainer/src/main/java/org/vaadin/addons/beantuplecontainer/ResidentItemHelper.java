@@ -0,0 +1,87 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vaadin.addons.lazyquerycontainer.Query;
+
+import com.vaadin.data.Item;
+
+/**
+ * Query whose items are already in memory.
+ * 
+ * <p>Used when the result can be computed from a previous, fully loaded result (see {@link ResidentResult}).
+ * Writes and item construction are delegated to the helper that would otherwise have run the query.</p>
+ * 
+ * @author jflamy
+ */
+public class ResidentItemHelper implements Query {
+
+	private final Query delegate;
+	private final List<Item> items;
+	private final KeyManager keyToIdMapper;
+
+	/**
+	 * @param delegate the helper that accesses the database
+	 * @param items the items of the result, in container order
+	 * @param keyToIdMapper Holds cache id to key mappings.
+	 */
+	public ResidentItemHelper(Query delegate, List<Item> items, KeyManager keyToIdMapper) {
+		this.delegate = delegate;
+		this.items = items;
+		this.keyToIdMapper = keyToIdMapper;
+	}
+
+	@Override
+	public int size() {
+		return items.size();
+	}
+
+	@Override
+	public List<Item> loadItems(int startIndex, int count) {
+		final int endIndex = Math.min(startIndex + count, items.size());
+		if (startIndex >= endIndex) {
+			return new ArrayList<Item>();
+		}
+		final Object keyPropertyId = keyToIdMapper.getKeyPropertyId();
+		for (int i = startIndex; i < endIndex; i++) {
+			final Item item = items.get(i);
+			if (keyPropertyId != null) {
+				keyToIdMapper.getKeyToId().put(item.getItemProperty(keyPropertyId).getValue(), i);
+			} else {
+				keyToIdMapper.getKeyToId().put(i, i);
+			}
+		}
+		return new ArrayList<Item>(items.subList(startIndex, endIndex));
+	}
+
+	@Override
+	public void saveItems(List<Item> addedItems, List<Item> modifiedItems, List<Item> removedItems) {
+		delegate.saveItems(addedItems, modifiedItems, removedItems);
+	}
+
+	@Override
+	public boolean deleteAllItems() {
+		return delegate.deleteAllItems();
+	}
+
+	@Override
+	public Item constructItem() {
+		return delegate.constructItem();
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.criteriacore.FilterNarrowing;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+/**
+ * The items of a small result, kept together with the state of the query definition that produced them.
+ * 
+ * <p>The items are recorded as they are loaded.  Once all of them are present, a later query whose
+ * filters only narrow the recorded ones, or that only sorts differently, can be answered from memory
+ * (see {@link BeanTupleQueryDefinition#setInMemoryThreshold(int)}).</p>
+ * 
+ * @author jflamy
+ */
+@SuppressWarnings("serial")
+public class ResidentResult implements Serializable {
+
+	final private static Logger logger = LoggerFactory.getLogger(ResidentResult.class);
+
+	private Item[] items;
+	private int loaded;
+
+	private Collection<Filter> filters;
+	private Object[] sortPropertyIds;
+	private boolean[] sortPropertyAscendingStates;
+	private Map<String, Object> namedParameterValues;
+	private Object keyPropertyId;
+
+	/**
+	 * Start recording the items of a query.
+	 * 
+	 * @param queryDefinition the definition, in the state used to run the query
+	 * @param keyPropertyId the key property of the view
+	 * @param size the exact number of items
+	 */
+	public void start(BeanTupleQueryDefinition queryDefinition, Object keyPropertyId, int size) {
+		if (queryDefinition.getFilters() != null && !queryDefinition.getFilters().isEmpty()) {
+			// deprecated restrictions can be changed in place, so we cannot tell whether they changed.
+			clear();
+			return;
+		}
+		this.items = new Item[size];
+		this.loaded = 0;
+		this.filters = new HashSet<Filter>(queryDefinition.getContainerFilters());
+		this.sortPropertyIds = copy(queryDefinition.getSortPropertyIds());
+		this.sortPropertyAscendingStates = copy(queryDefinition.getSortPropertyAscendingStates());
+		this.namedParameterValues = copy(queryDefinition.getNamedParameterValues());
+		this.keyPropertyId = keyPropertyId;
+	}
+
+	/**
+	 * Remember an item, if recording.
+	 * @param index the index of the item in the container
+	 * @param item the item
+	 */
+	public void record(int index, Item item) {
+		if (items == null || index < 0 || index >= items.length) {
+			return;
+		}
+		if (items[index] == null) {
+			loaded++;
+		}
+		items[index] = item;
+	}
+
+	/**
+	 * @return true if all the items of the result have been recorded.
+	 */
+	public boolean isComplete() {
+		return items != null && loaded == items.length;
+	}
+
+	/**
+	 * Forget the items.  Must be called when the database is changed through the container.
+	 */
+	public void clear() {
+		items = null;
+		loaded = 0;
+		filters = null;
+		sortPropertyIds = null;
+		sortPropertyAscendingStates = null;
+		namedParameterValues = null;
+		keyPropertyId = null;
+	}
+
+	/**
+	 * @return true if the items of the current query are being recorded.
+	 */
+	public boolean isRecording() {
+		return items != null;
+	}
+
+	/**
+	 * @return the number of items in the recorded result
+	 */
+	public int size() {
+		return items == null ? 0 : items.length;
+	}
+
+	/**
+	 * @return the number of items recorded so far
+	 */
+	public int getLoadedCount() {
+		return loaded;
+	}
+
+	/**
+	 * @param startIndex index of the first item
+	 * @param endIndex index after the last item
+	 * @return the recorded items in the range
+	 */
+	public List<Item> getItems(int startIndex, int endIndex) {
+		return new ArrayList<Item>(Arrays.asList(items).subList(startIndex, endIndex));
+	}
+
+	/**
+	 * Compute the result of the query definition from memory, if possible.
+	 * 
+	 * <p>This is possible when the recorded result is complete, the parameters and key are
+	 * unchanged, and either the container filters only got stricter, or the sort order changed, or both.
+	 * The new result is then recorded in place of the previous one.</p>
+	 * 
+	 * <p>Sorting follows Java semantics ({@link Comparable}, null values first when ascending), which may
+	 * differ from the database collation and null ordering.</p>
+	 * 
+	 * @param queryDefinition the definition, in its new state
+	 * @param keyPropertyId the key property of the view
+	 * @return the items that pass the filters, in order, or null if the database must be queried.
+	 */
+	public List<Item> computeFromMemory(BeanTupleQueryDefinition queryDefinition, Object keyPropertyId) {
+		if (!isComplete() || !isSameContext(queryDefinition, keyPropertyId)) {
+			return null;
+		}
+		final Collection<Filter> current = queryDefinition.getContainerFilters();
+		final boolean sameFilters = filters.size() == current.size() && filters.containsAll(current);
+		final boolean sameSort = Arrays.equals(sortPropertyIds, queryDefinition.getSortPropertyIds())
+				&& Arrays.equals(sortPropertyAscendingStates, queryDefinition.getSortPropertyAscendingStates());
+		if (sameFilters && sameSort) {
+			// an explicit refresh, the database may have changed.
+			return null;
+		}
+		if (!sameFilters && !FilterNarrowing.isNarrowing(filters, current)) {
+			return null;
+		}
+
+		final List<Item> result = new ArrayList<Item>();
+		try {
+			for (int i = 0; i < items.length; i++) {
+				if (sameFilters || passesFilters(current, i, items[i])) {
+					result.add(items[i]);
+				}
+			}
+		} catch (UnsupportedOperationException e) {
+			logger.debug("filter cannot be evaluated in memory: {}", e.getMessage());
+			return null;
+		}
+		if (!sameSort && !sort(result, queryDefinition.getSortPropertyIds(), queryDefinition.getSortPropertyAscendingStates())) {
+			return null;
+		}
+		logger.debug("computed {} items from {} in memory", result.size(), items.length);
+
+		start(queryDefinition, keyPropertyId, result.size());
+		for (int i = 0; i < result.size(); i++) {
+			record(i, result.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if only the container filters and the sort order may have changed.
+	 */
+	private boolean isSameContext(BeanTupleQueryDefinition queryDefinition, Object newKeyPropertyId) {
+		if (queryDefinition.getFilters() != null && !queryDefinition.getFilters().isEmpty()) {
+			return false;
+		}
+		return equal(namedParameterValues, queryDefinition.getNamedParameterValues())
+				&& equal(keyPropertyId, newKeyPropertyId);
+	}
+
+	/**
+	 * Sort the items on their property values.  The sort is stable.
+	 * 
+	 * @param result the items to sort
+	 * @param propertyIds the sort properties, null or empty to keep the current order
+	 * @param ascendingStates the directions
+	 * @return false if a value cannot be compared, in which case the database must do the sort.
+	 */
+	private static boolean sort(List<Item> result, final Object[] propertyIds, final boolean[] ascendingStates) {
+		if (propertyIds == null || propertyIds.length == 0) {
+			return true;
+		}
+		for (Item item : result) {
+			for (Object propertyId : propertyIds) {
+				Property property = item.getItemProperty(propertyId);
+				if (property == null) {
+					return false;
+				}
+				Object value = property.getValue();
+				if (value != null && !(value instanceof Comparable)) {
+					return false;
+				}
+			}
+		}
+		Collections.sort(result, new Comparator<Item>() {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			@Override
+			public int compare(Item item1, Item item2) {
+				for (int i = 0; i < propertyIds.length; i++) {
+					Comparable value1 = (Comparable) item1.getItemProperty(propertyIds[i]).getValue();
+					Comparable value2 = (Comparable) item2.getItemProperty(propertyIds[i]).getValue();
+					int comparison;
+					if (value1 == null) {
+						comparison = (value2 == null) ? 0 : -1;
+					} else if (value2 == null) {
+						comparison = 1;
+					} else {
+						comparison = value1.compareTo(value2);
+					}
+					if (comparison != 0) {
+						return (i < ascendingStates.length && !ascendingStates[i]) ? -comparison : comparison;
+					}
+				}
+				return 0;
+			}
+		});
+		return true;
+	}
+
+	private static boolean passesFilters(Collection<Filter> filters, int index, Item item) {
+		for (Filter filter : filters) {
+			if (!filter.passesFilter(index, item)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static Object[] copy(Object[] array) {
+		return array == null ? null : array.clone();
+	}
+
+	private static boolean[] copy(boolean[] array) {
+		return array == null ? null : array.clone();
+	}
+
+	private static Map<String, Object> copy(Map<String, Object> map) {
+		return map == null ? null : new HashMap<String, Object>(map);
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
+
+/**
+ * A Vaadin filter that has been analyzed once, and can produce its JPA predicate for any query.
+ * 
+ * <p>JPA predicates refer to the roots and joins of the query for which they are created, so they cannot
+ * be reused from one query to the next.  What is kept is everything that does not depend on the query:
+ * the structure of the filter tree, the property ids, and the prepared comparison values.</p>
+ * 
+ * @see FilterTranslator#compile(com.vaadin.data.Container.Filter)
+ * @author jflamy
+ */
+public interface CompiledFilter extends Serializable {
+
+	/**
+	 * @param cb
+	 *        the criteria builder for the CriteriaQuery being built
+	 * @param qd
+	 *        the query definition being built
+	 * @param expressionMap
+	 *        where to lookup expressions by id.
+	 * @return a JPA 2.0 Predicate for the filter
+	 */
+	public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap);
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.util.Collection;
+import java.util.Locale;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+/**
+ * Decide whether a set of container filters can only return a subset of what another set returned.
+ * 
+ * <p>The container filters are implicitly combined with AND.  The new set is narrower if every previous filter is
+ * either still present or replaced by a stricter {@link SimpleStringFilter} on the same property, and at
+ * least one filter changed.</p>
+ * 
+ * @author jflamy
+ */
+public class FilterNarrowing {
+
+	private FilterNarrowing() {
+	}
+
+	/**
+	 * @param previous the filters that produced the current result
+	 * @param current the filters now in effect
+	 * @return true if every item accepted by current is also accepted by previous, and the sets differ.
+	 */
+	public static boolean isNarrowing(Collection<Filter> previous, Collection<Filter> current) {
+		if (previous.size() == current.size() && current.containsAll(previous)) {
+			// same filters, nothing to narrow.
+			return false;
+		}
+		for (Filter previousFilter : previous) {
+			if (current.contains(previousFilter)) {
+				continue;
+			}
+			boolean replaced = false;
+			for (Filter currentFilter : current) {
+				if (isNarrower(currentFilter, previousFilter)) {
+					replaced = true;
+					break;
+				}
+			}
+			if (!replaced) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param candidate the new filter
+	 * @param reference the previous filter
+	 * @return true if candidate only accepts values that reference accepts.
+	 */
+	public static boolean isNarrower(Filter candidate, Filter reference) {
+		if (candidate.equals(reference)) {
+			return true;
+		}
+		if (candidate instanceof SimpleStringFilter && reference instanceof SimpleStringFilter) {
+			SimpleStringFilter c = (SimpleStringFilter) candidate;
+			SimpleStringFilter r = (SimpleStringFilter) reference;
+			if (!c.getPropertyId().equals(r.getPropertyId()) || c.isIgnoreCase() != r.isIgnoreCase()) {
+				return false;
+			}
+			String cs = c.getFilterString();
+			String rs = r.getFilterString();
+			if (c.isIgnoreCase()) {
+				cs = cs.toLowerCase(Locale.ROOT);
+				rs = rs.toLowerCase(Locale.ROOT);
+			}
+			if (r.isOnlyMatchPrefix()) {
+				return c.isOnlyMatchPrefix() && cs.startsWith(rs);
+			} else {
+				// a value that contains (or starts with) cs also contains rs.
+				return cs.contains(rs);
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+
+/**
+ * Simplify a Vaadin Filter structure before it is translated to JPA predicates.
+ * 
+ * <p>Nested {@link And} and {@link Or} are flattened, duplicates are removed, constant sub-trees are folded,
+ * and conjunctions that cannot be satisfied are replaced by {@link #NONE}.  The following are detected as
+ * unsatisfiable: a filter together with its negation, a property that must be null and compared to a value,
+ * two different equality values, and bounds that exclude each other.  Values that are character strings are
+ * not compared, since the result depends on the database collation.  Bounds are only compared for numbers and
+ * dates; other values, such as enums (which the database may store by name or by ordinal), are only checked
+ * for equality.</p>
+ * 
+ * @author jflamy
+ */
+public class FilterNormalizer {
+
+	/** A filter that accepts every item. */
+	public static final Filter ALL = new ConstantFilter(true);
+
+	/** A filter that rejects every item. */
+	public static final Filter NONE = new ConstantFilter(false);
+
+	private FilterNormalizer() {
+	}
+
+	/**
+	 * Normalize the filters of a container, which are implicitly combined with AND.
+	 * 
+	 * @param filters the container filters
+	 * @return the equivalent list of filters: empty if everything passes, only {@link #NONE} if nothing can.
+	 */
+	public static List<Filter> normalizeConjunction(Collection<Filter> filters) {
+		Filter normalized = normalize(new And(filters.toArray(new Filter[filters.size()])));
+		if (normalized == ALL) {
+			return Collections.emptyList();
+		} else if (normalized instanceof And) {
+			return new ArrayList<Filter>(((And) normalized).getFilters());
+		} else {
+			return Collections.singletonList(normalized);
+		}
+	}
+
+	/**
+	 * @param filter the filter to simplify
+	 * @return an equivalent filter; {@link #ALL} or {@link #NONE} if the result is constant.
+	 */
+	public static Filter normalize(Filter filter) {
+		if (filter instanceof And) {
+			return normalizeAnd(((And) filter).getFilters());
+		} else if (filter instanceof Or) {
+			return normalizeOr(((Or) filter).getFilters());
+		} else if (filter instanceof Not) {
+			Filter negated = normalize(((Not) filter).getFilter());
+			if (negated == ALL) {
+				return NONE;
+			} else if (negated == NONE) {
+				return ALL;
+			} else if (negated instanceof Not) {
+				return ((Not) negated).getFilter();
+			} else {
+				return new Not(negated);
+			}
+		}
+		return filter;
+	}
+
+	private static Filter normalizeAnd(Collection<Filter> filters) {
+		Set<Filter> terms = new LinkedHashSet<Filter>();
+		for (Filter filter : filters) {
+			Filter normalized = normalize(filter);
+			if (normalized == NONE) {
+				return NONE;
+			} else if (normalized instanceof And) {
+				terms.addAll(((And) normalized).getFilters());
+			} else if (normalized != ALL) {
+				terms.add(normalized);
+			}
+		}
+		if (isContradiction(terms)) {
+			return NONE;
+		}
+		return combine(terms, true);
+	}
+
+	private static Filter normalizeOr(Collection<Filter> filters) {
+		Set<Filter> terms = new LinkedHashSet<Filter>();
+		for (Filter filter : filters) {
+			Filter normalized = normalize(filter);
+			if (normalized == ALL) {
+				return ALL;
+			} else if (normalized instanceof Or) {
+				terms.addAll(((Or) normalized).getFilters());
+			} else if (normalized != NONE) {
+				terms.add(normalized);
+			}
+		}
+		return combine(terms, false);
+	}
+
+	private static Filter combine(Set<Filter> terms, boolean conjunction) {
+		if (terms.isEmpty()) {
+			return conjunction ? ALL : NONE;
+		} else if (terms.size() == 1) {
+			return terms.iterator().next();
+		}
+		Filter[] array = terms.toArray(new Filter[terms.size()]);
+		return conjunction ? new And(array) : new Or(array);
+	}
+
+	/**
+	 * @param terms filters combined with AND, already flattened
+	 * @return true if no item can pass all the filters.
+	 */
+	private static boolean isContradiction(Set<Filter> terms) {
+		Map<Object, Bounds> boundsByProperty = new HashMap<Object, Bounds>();
+		for (Filter term : terms) {
+			if (term instanceof Not && terms.contains(((Not) term).getFilter())) {
+				return true;
+			}
+			if (term instanceof IsNull) {
+				if (bounds(boundsByProperty, ((IsNull) term).getPropertyId()).setNull()) {
+					return true;
+				}
+			} else if (term instanceof Compare) {
+				Compare compare = (Compare) term;
+				if (compare.getValue() != null
+						&& bounds(boundsByProperty, compare.getPropertyId()).add(compare.getOperation(), compare.getValue())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static Bounds bounds(Map<Object, Bounds> boundsByProperty, Object propertyId) {
+		Bounds bounds = boundsByProperty.get(propertyId);
+		if (bounds == null) {
+			bounds = new Bounds();
+			boundsByProperty.put(propertyId, bounds);
+		}
+		return bounds;
+	}
+
+
+	/**
+	 * What the conditions on one property allow.
+	 */
+	private static class Bounds {
+		private boolean mustBeNull;
+		private boolean compared;
+		private Object equalValue;
+		private Comparable<Object> lower;
+		private boolean lowerStrict;
+		private Comparable<Object> upper;
+		private boolean upperStrict;
+
+		/**
+		 * @return true if the property can no longer have any value.
+		 */
+		boolean setNull() {
+			mustBeNull = true;
+			return compared;
+		}
+
+		/**
+		 * @return true if the property can no longer have any value.
+		 */
+		@SuppressWarnings("unchecked")
+		boolean add(Compare.Operation operation, Object value) {
+			compared = true;
+			if (mustBeNull) {
+				// a comparison with null is never true.
+				return true;
+			}
+			if (value instanceof CharSequence || value instanceof Character) {
+				return false;
+			}
+			if (!(value instanceof Number || value instanceof Date)) {
+				// the database order may differ from the Java order: only equality can be trusted.
+				if (operation != Compare.Operation.EQUAL) {
+					return false;
+				} else if (equalValue != null) {
+					return !equalValue.equals(value);
+				}
+				equalValue = value;
+				return false;
+			}
+			if (!(value instanceof Comparable)) {
+				return false;
+			}
+			Comparable<Object> comparable = (Comparable<Object>) value;
+			if ((lower != null && lower.getClass() != value.getClass())
+					|| (upper != null && upper.getClass() != value.getClass())) {
+				return false;
+			}
+			switch (operation) {
+			case EQUAL:
+				tightenLower(comparable, false);
+				tightenUpper(comparable, false);
+				break;
+			case GREATER:
+				tightenLower(comparable, true);
+				break;
+			case GREATER_OR_EQUAL:
+				tightenLower(comparable, false);
+				break;
+			case LESS:
+				tightenUpper(comparable, true);
+				break;
+			case LESS_OR_EQUAL:
+				tightenUpper(comparable, false);
+				break;
+			}
+			if (lower == null || upper == null) {
+				return false;
+			}
+			int comparison = lower.compareTo(upper);
+			return comparison > 0 || (comparison == 0 && (lowerStrict || upperStrict));
+		}
+
+		private void tightenLower(Comparable<Object> value, boolean strict) {
+			if (lower == null || value.compareTo(lower) > 0) {
+				lower = value;
+				lowerStrict = strict;
+			} else if (value.compareTo(lower) == 0) {
+				lowerStrict = lowerStrict || strict;
+			}
+		}
+
+		private void tightenUpper(Comparable<Object> value, boolean strict) {
+			if (upper == null || value.compareTo(upper) < 0) {
+				upper = value;
+				upperStrict = strict;
+			} else if (value.compareTo(upper) == 0) {
+				upperStrict = upperStrict || strict;
+			}
+		}
+	}
+
+
+	/**
+	 * Filter with a constant outcome.
+	 */
+	@SuppressWarnings("serial")
+	private static final class ConstantFilter implements Filter {
+		private final boolean value;
+
+		private ConstantFilter(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean passesFilter(Object itemId, Item item) {
+			return value;
+		}
+
+		@Override
+		public boolean appliesToProperty(Object propertyId) {
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return value ? "ALL" : "NONE";
+		}
+
+		private Object readResolve() {
+			// keep the constants unique, they are compared by identity.
+			return value ? ALL : NONE;
+		}
+	}
+}
@@ -1,209 +1,483 @@
-/**
- * Copyright 2011 Jean-François Lamy
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.vaadin.addons.criteriacore;
-
-import java.sql.Date;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.Expression;
-import javax.persistence.criteria.Predicate;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
-
-import com.vaadin.data.Container.Filter;
-import com.vaadin.data.util.filter.And;
-//import com.vaadin.data.util.filter.Between;
-import com.vaadin.data.util.filter.Compare;
-import com.vaadin.data.util.filter.Compare.Equal;
-import com.vaadin.data.util.filter.IsNull;
-//import com.vaadin.data.util.filter.Like;
-import com.vaadin.data.util.filter.Not;
-import com.vaadin.data.util.filter.Or;
-import com.vaadin.data.util.filter.SimpleStringFilter;
-import com.vaadin.data.util.filter.UnsupportedFilterException;
-
-/**
- * Translate a Vaadin Filter structure to the equivalent JPA Predicate structure
- * 
- * @author jflamy
- * 
- */
-@SuppressWarnings("unused")
-public class FilterTranslator {
-
-
-	private static Logger logger = LoggerFactory.getLogger(FilterTranslator.class);
-
-
-	/**
-	 * Return a JPA Predicate for a given Vaadin filter.
-	 * @param f 
-	 *        the filter being translated to a JPA Criteria predicate.
-	 * @param cb
-	 *        the criteria builder for the CriteriaQuery being built
-	 * @param qd
-	 *        the query definition being built
-	 * @param expressionMap
-	 *        where to lookup expressions by id.
-	 * @return a JPA 2.0 Predicate for the restriction
-	 */
-	@SuppressWarnings("unchecked")
-	public static Predicate getPredicate(Filter f, CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
-		Predicate pred = null;
-		if (f instanceof Compare) {
-			final Compare compareFilter = (Compare) f;
-			Compare.Operation operation = compareFilter.getOperation();
-			Object value = compareFilter.getValue();
-			String propertyId = (String) compareFilter.getPropertyId();
-
-			switch (operation) {
-			case EQUAL: {
-				Equal eqFilter = (Equal)f;
-				final Expression<?> expr = qd.getExpressionById(eqFilter.getPropertyId().toString(), expressionMap);
-				pred = cb.equal(expr, value);
-			}
-			break;
-			case GREATER_OR_EQUAL: {
-				if (value instanceof Number) {
-					final Expression<Number> expr = (Expression<Number>) qd.getExpressionById(propertyId, expressionMap);
-					pred = cb.ge(expr, (Number) value);
-				} else if (value instanceof String) {
-					Expression<String> expr2 = qd.getExpressionById(propertyId, expressionMap).as(String.class);
-					pred = cb.greaterThanOrEqualTo(expr2, (String) value);
-				}
-			}
-			break;
-			case GREATER: {
-				if (value instanceof Number) {
-					final Expression<Number> expr = (Expression<Number>) qd.getExpressionById(propertyId, expressionMap);
-					pred = cb.gt(expr, (Number) value);
-				} else if (value instanceof String) {
-					Expression<String> expr2 = qd.getExpressionById(propertyId, expressionMap).as(String.class);
-					pred = cb.greaterThan(expr2, (String) value);
-				}
-			}
-			break;
-			case LESS_OR_EQUAL: {
-				if (value instanceof Number) {
-					final Expression<Number> expr = (Expression<Number>) qd.getExpressionById(propertyId, expressionMap);
-					pred = cb.le(expr, (Number) value);
-				} else if (value instanceof String) {
-					Expression<String> expr2 = qd.getExpressionById(propertyId, expressionMap).as(String.class);
-					pred = cb.lessThanOrEqualTo(expr2, (String) value);
-				}
-			}
-			break;
-			case LESS: {
-				if (value instanceof Number) {
-					final Expression<Number> expr = (Expression<Number>) qd.getExpressionById(propertyId, expressionMap);
-					pred = cb.lt(expr, (Number) value);
-				} else if (value instanceof String) {
-					Expression<String> expr2 = qd.getExpressionById(propertyId, expressionMap).as(String.class);
-					pred = cb.lessThan(expr2, (String) value);
-				}
-			}
-			break;
-			}
-		} 
-//		else if (f instanceof Like) {
-//			final Like filter = (Like) f;
-//			final Expression<String> expr = (Expression<String>) qd.getExpressionById((String) filter.getPropertyId(), expressionMap);
-//			pred = cb.like(expr, filter.getValue());
-//		} 
-		else if (f instanceof IsNull) {
-			final IsNull filter = (IsNull) f;
-			final Expression<?> expr = qd.getExpressionById((String) filter.getPropertyId(), expressionMap);
-			pred = cb.isNull(expr);
-		} else if (f instanceof Not) {
-			Not notFilter = (Not)f;
-			Filter negatedFilter = notFilter.getFilter();
-			Predicate toBeNegated = getPredicate(negatedFilter,cb,qd,expressionMap);
-			pred = cb.not(toBeNegated);
-		} else if (f instanceof And) {
-			And andFilter = (And)f;
-			List<Predicate> andedPredicates = new LinkedList<Predicate>();
-			for (Filter subFilter : andFilter.getFilters()) {
-				andedPredicates.add(getPredicate(subFilter, cb, qd, expressionMap));
-			}
-			pred = cb.and(andedPredicates.toArray(new Predicate[]{}));
-		} else if (f instanceof Or) {
-			Or orFilter = (Or)f;
-			List<Predicate> oredPredicates = new LinkedList<Predicate>();
-			for (Filter subFilter : orFilter.getFilters()) {
-				oredPredicates.add(getPredicate(subFilter, cb, qd, expressionMap));
-			}
-			pred = cb.or(oredPredicates.toArray(new Predicate[]{}));
-		}
-//		else if (f instanceof Between) {
-//			Between betweenFilter = (Between)f;
-//			Comparable<?> exprL = betweenFilter.getStartValue();
-//			Comparable<?> exprH = betweenFilter.getEndValue();
-//			String propertyId2 = (String) betweenFilter.getPropertyId();
-//			if (exprL instanceof Integer && exprH instanceof Integer) {
-//				Expression<Integer> nexpr = (Expression<Integer>) qd.getExpressionById(propertyId2, expressionMap);
-//				Integer exprL2 = (Integer)exprL;
-//				Integer exprH2 = (Integer)exprH;
-//				pred = cb.between(nexpr, exprL2, exprH2);
-//			} else if (exprL instanceof Long && exprH instanceof Long) {
-//				Expression<Long> nexpr = (Expression<Long>) qd.getExpressionById(propertyId2, expressionMap);
-//				Long exprL2 = (Long)exprL;
-//				Long exprH2 = (Long)exprH;
-//				pred = cb.between(nexpr, exprL2, exprH2);
-//			} else if (exprL instanceof Float && exprH instanceof Float) {
-//				Expression<Float> nexpr = (Expression<Float>) qd.getExpressionById(propertyId2, expressionMap);
-//				Float exprL2 = (Float)exprL;
-//				Float exprH2 = (Float)exprH;
-//				pred = cb.between(nexpr, exprL2, exprH2);
-//			} else if (exprL instanceof Double && exprH instanceof Double) {
-//				Expression<Double> nexpr = (Expression<Double>) qd.getExpressionById(propertyId2, expressionMap);
-//				Double exprL2 = (Double)exprL;
-//				Double exprH2 = (Double)exprH;
-//				pred = cb.between(nexpr, exprL2, exprH2);
-//			} else if (exprL instanceof String && exprH instanceof String) {
-//				final Expression<String> expr = (Expression<String>) qd.getExpressionById(propertyId2, expressionMap);
-//				pred = cb.between(expr,(String)exprL,(String)exprH);					
-//			} else if (exprL instanceof Date && exprH instanceof Date) {
-//				final Expression<Date> expr = (Expression<Date>) qd.getExpressionById(propertyId2, expressionMap);
-//				pred = cb.between(expr,(Date)exprL,(Date)exprH);					
-//			} else {
-//				throw new UnsupportedFilterException(f.getClass().getName()+" with arguments of mismatched or unsupported types");
-//			}
-//		}
-		else if (f instanceof SimpleStringFilter) {
-			final SimpleStringFilter filter = (SimpleStringFilter)f;
-			Expression<?> expr = qd.getExpressionById((String) filter.getPropertyId(), expressionMap);
-			String value = filter.getFilterString();
-			if (filter.isIgnoreCase()) {
-				expr = cb.upper((Expression<String>) expr);
-				value = value.toUpperCase();
-			}
-			if (filter.isOnlyMatchPrefix()) {
-				pred = cb.like((Expression<String>) expr, value+"%");
-			} else {
-				pred = cb.like((Expression<String>) expr, "%"+value+"%");
-			}
-		} else {
-			throw new UnsupportedFilterException(f.getClass().getName());
-		}
-		return pred;
-	}  
-
-}
+/**
+ * Copyright 2011 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Between;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Like;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import com.vaadin.data.util.filter.UnsupportedFilterException;
+
+/**
+ * Translate a Vaadin Filter structure to the equivalent JPA Predicate structure
+ * 
+ * @author jflamy
+ * 
+ */
+@SuppressWarnings("unused")
+public class FilterTranslator {
+
+
+	private static Logger logger = LoggerFactory.getLogger(FilterTranslator.class);
+
+	/** escape character for LIKE patterns; not a backslash, which some databases also treat as a string literal escape. */
+	private static final char ESCAPE = '!';
+
+
+	/**
+	 * Return a JPA Predicate for a given Vaadin filter.
+	 * @param f 
+	 *        the filter being translated to a JPA Criteria predicate.
+	 * @param cb
+	 *        the criteria builder for the CriteriaQuery being built
+	 * @param qd
+	 *        the query definition being built
+	 * @param expressionMap
+	 *        where to lookup expressions by id.
+	 * @return a JPA 2.0 Predicate for the restriction
+	 */
+	public static Predicate getPredicate(Filter f, CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+		return compile(f).getPredicate(cb, qd, expressionMap);
+	}
+
+
+	/**
+	 * Analyze a Vaadin filter once, so that predicates can be produced for several queries.
+	 * @param f 
+	 *        the filter being translated to a JPA Criteria predicate.
+	 * @return an object that creates the JPA 2.0 Predicate for a given query
+	 * @throws UnsupportedFilterException if the filter (or one of its sub-filters) cannot be translated
+	 */
+	public static CompiledFilter compile(Filter f) {
+		if (f instanceof Compare) {
+			final Compare compareFilter = (Compare) f;
+			final Object value = compareFilter.getValue();
+			if (value == null && compareFilter.getOperation() == Compare.Operation.EQUAL) {
+				// Equal with null passes null values, SQL = NULL never does.
+				return new IsNullTranslation(compareFilter.getPropertyId().toString());
+			} else if (compareFilter.getOperation() != Compare.Operation.EQUAL && !(value instanceof Comparable)) {
+				throw new UnsupportedFilterException(f.getClass().getName()+" with a value that is not Comparable");
+			}
+			return new CompareTranslation(compareFilter.getPropertyId().toString(), compareFilter.getOperation(), value);
+		} else if (f instanceof Like) {
+			final Like filter = (Like) f;
+			String value = filter.getValue();
+			if (!filter.isCaseSensitive()) {
+				value = value.toUpperCase(Locale.ROOT);
+			}
+			// only % is a wildcard in a Vaadin Like filter.
+			final String pattern = escape(value, false);
+			return new LikeTranslation((String) filter.getPropertyId(), pattern, !filter.isCaseSensitive());
+		} else if (f instanceof Between) {
+			final Between filter = (Between) f;
+			if (filter.getStartValue() == null || filter.getEndValue() == null) {
+				throw new UnsupportedFilterException(f.getClass().getName()+" without both bounds");
+			}
+			return new BetweenTranslation((String) filter.getPropertyId(), filter.getStartValue(), filter.getEndValue());
+		} else if (f instanceof IsNull) {
+			return new IsNullTranslation((String) ((IsNull) f).getPropertyId());
+		} else if (f instanceof Not) {
+			return new NotTranslation(compile(((Not)f).getFilter()));
+		} else if (f instanceof And) {
+			return new JunctionTranslation(compile(((And)f).getFilters()), true);
+		} else if (f instanceof Or) {
+			return new JunctionTranslation(compile(((Or)f).getFilters()), false);
+		} else if (f == FilterNormalizer.ALL) {
+			return new ConstantTranslation(true);
+		} else if (f == FilterNormalizer.NONE) {
+			return new ConstantTranslation(false);
+		}
+		else if (f instanceof SimpleStringFilter) {
+			final SimpleStringFilter filter = (SimpleStringFilter)f;
+			String value = escape(filter.getFilterString(), true);
+			if (filter.isIgnoreCase()) {
+				value = value.toUpperCase(Locale.ROOT);
+			}
+			final String pattern = filter.isOnlyMatchPrefix() ? value+"%" : "%"+value+"%";
+			return new LikeTranslation((String) filter.getPropertyId(), pattern, filter.isIgnoreCase());
+		} else {
+			throw new UnsupportedFilterException(f.getClass().getName());
+		}
+	}  
+
+	/**
+	 * Translate a "contains" filter with the help of an {@link NGramIndex}.  When the index finds few enough
+	 * matches, the rows are restricted to their keys, and the pattern is still checked on these rows only.
+	 * Otherwise the plain translation is used: index not fresh, too many matches, or keys that do not fit
+	 * in the parameters of the statement.
+	 * 
+	 * @param filter a filter that does not only match the prefix
+	 * @param index the index on the filtered property
+	 * @param keyPropertyId the property that holds the keys returned by the index
+	 * @return an object that creates the JPA 2.0 Predicate for a given query
+	 */
+	public static CompiledFilter compile(SimpleStringFilter filter, NGramIndex index, Object keyPropertyId) {
+		return new IndexedContainsTranslation(filter.getFilterString(), index, keyPropertyId.toString(), compile(filter));
+	}
+
+	/**
+	 * Protect the characters that SQL LIKE would otherwise interpret.
+	 * @param value the string to match
+	 * @param escapePercent true if % must be matched literally
+	 * @return the string, with {@link #ESCAPE} before the special characters.
+	 */
+	private static String escape(String value, boolean escapePercent) {
+		final StringBuilder sb = new StringBuilder(value.length() + 4);
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == ESCAPE || c == '_' || (escapePercent && c == '%')) {
+				sb.append(ESCAPE);
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Create a parameter bound to a value, so that the database sees the same statement whatever the value.
+	 * A number of another type than the expression (an Integer compared with a Long id, as Vaadin filters
+	 * often do) is converted to the type of the expression when no precision is lost; otherwise the parameter
+	 * has the type of the value.
+	 * 
+	 * @param cb the criteria builder for the CriteriaQuery being built
+	 * @param qd the query definition being built
+	 * @param expr the expression compared with the value
+	 * @param value the value
+	 * @return an expression for the value
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Expression parameter(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Expression<?> expr, Object value) {
+		final Class type = boxed(expr.getJavaType());
+		if (value == null) {
+			return cb.nullLiteral(type != null ? type : Object.class);
+		} else if (type != null && type.isInstance(value)) {
+			return qd.createFilterParameter(cb, type, value);
+		} else if (type != null && value instanceof Number) {
+			final Object converted = convert((Number) value, type);
+			if (converted != null) {
+				return qd.createFilterParameter(cb, type, converted);
+			}
+		}
+		return qd.createFilterParameter(cb, value.getClass(), value);
+	}
+
+	/**
+	 * @param number the value of a filter
+	 * @param type the type of the expression it is compared with
+	 * @return the number in the given type, null if the type is not numeric or the conversion is not exact.
+	 */
+	static Object convert(Number number, Class<?> type) {
+		final Number converted;
+		if (type == Long.class) converted = number.longValue();
+		else if (type == Integer.class) converted = number.intValue();
+		else if (type == Double.class) converted = number.doubleValue();
+		else if (type == Float.class) converted = number.floatValue();
+		else if (type == Short.class) converted = number.shortValue();
+		else if (type == Byte.class) converted = number.byteValue();
+		else if (type == BigDecimal.class) converted = decimal(number);
+		else if (type == BigInteger.class) converted = decimal(number) != null ? decimal(number).toBigInteger() : null;
+		else return null;
+		final BigDecimal original = decimal(number);
+		final BigDecimal result = converted != null ? decimal(converted) : null;
+		return original != null && result != null && original.compareTo(result) == 0 ? converted : null;
+	}
+
+	/**
+	 * @return the exact decimal value of the number, null if it has none (NaN, infinity).
+	 */
+	private static BigDecimal decimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		} else if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger) number);
+		}
+		try {
+			return new BigDecimal(number.toString());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Class<?> boxed(Class<?> type) {
+		if (type == null || !type.isPrimitive()) return type;
+		if (type == int.class) return Integer.class;
+		if (type == long.class) return Long.class;
+		if (type == double.class) return Double.class;
+		if (type == float.class) return Float.class;
+		if (type == boolean.class) return Boolean.class;
+		if (type == short.class) return Short.class;
+		if (type == byte.class) return Byte.class;
+		if (type == char.class) return Character.class;
+		return type;
+	}
+
+	/**
+	 * @param filters the filters to analyze
+	 * @return one compiled filter per filter
+	 */
+	private static CompiledFilter[] compile(Collection<Filter> filters) {
+		final CompiledFilter[] compiled = new CompiledFilter[filters.size()];
+		int i = 0;
+		for (Filter subFilter : filters) {
+			compiled[i++] = compile(subFilter);
+		}
+		return compiled;
+	}
+
+
+	/**
+	 * Comparison with a value.
+	 */
+	@SuppressWarnings("serial")
+	private static class CompareTranslation implements CompiledFilter {
+		private final String propertyId;
+		private final Compare.Operation operation;
+		private final Object value;
+
+		CompareTranslation(String propertyId, Compare.Operation operation, Object value) {
+			this.propertyId = propertyId;
+			this.operation = operation;
+			this.value = value;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			Expression expr = qd.getExpressionById(propertyId, expressionMap);
+			if (value instanceof String && operation != Compare.Operation.EQUAL) {
+				expr = expr.as(String.class);
+			}
+			final Expression param = parameter(cb, qd, expr, value);
+			switch (operation) {
+			case EQUAL:
+				return cb.equal(expr, param);
+			case GREATER_OR_EQUAL:
+				return cb.greaterThanOrEqualTo(expr, param);
+			case GREATER:
+				return cb.greaterThan(expr, param);
+			case LESS_OR_EQUAL:
+				return cb.lessThanOrEqualTo(expr, param);
+			case LESS:
+				return cb.lessThan(expr, param);
+			default:
+				throw new UnsupportedFilterException(operation.toString());
+			}
+		}
+	}
+
+
+	/**
+	 * Inclusive range, as in {@link Between#passesFilter(Object, com.vaadin.data.Item)}.
+	 */
+	@SuppressWarnings("serial")
+	private static class BetweenTranslation implements CompiledFilter {
+		private final String propertyId;
+		private final Comparable<?> startValue;
+		private final Comparable<?> endValue;
+
+		BetweenTranslation(String propertyId, Comparable<?> startValue, Comparable<?> endValue) {
+			this.propertyId = propertyId;
+			this.startValue = startValue;
+			this.endValue = endValue;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			final Expression expr = qd.getExpressionById(propertyId, expressionMap);
+			return cb.between(expr, parameter(cb, qd, expr, startValue), parameter(cb, qd, expr, endValue));
+		}
+	}
+
+
+	/**
+	 * Null test.
+	 */
+	@SuppressWarnings("serial")
+	private static class IsNullTranslation implements CompiledFilter {
+		private final String propertyId;
+
+		IsNullTranslation(String propertyId) {
+			this.propertyId = propertyId;
+		}
+
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			final Expression<?> expr = qd.getExpressionById(propertyId, expressionMap);
+			return cb.isNull(expr);
+		}
+	}
+
+
+	/**
+	 * Negation.
+	 */
+	@SuppressWarnings("serial")
+	private static class NotTranslation implements CompiledFilter {
+		private final CompiledFilter negated;
+
+		NotTranslation(CompiledFilter negated) {
+			this.negated = negated;
+		}
+
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			return cb.not(negated.getPredicate(cb, qd, expressionMap));
+		}
+	}
+
+
+	/**
+	 * And, Or.
+	 */
+	@SuppressWarnings("serial")
+	private static class JunctionTranslation implements CompiledFilter {
+		private final CompiledFilter[] terms;
+		private final boolean conjunction;
+
+		JunctionTranslation(CompiledFilter[] terms, boolean conjunction) {
+			this.terms = terms;
+			this.conjunction = conjunction;
+		}
+
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			final Predicate[] predicates = new Predicate[terms.length];
+			for (int i = 0; i < terms.length; i++) {
+				predicates[i] = terms[i].getPredicate(cb, qd, expressionMap);
+			}
+			return conjunction ? cb.and(predicates) : cb.or(predicates);
+		}
+	}
+
+
+	/**
+	 * Always true or always false.
+	 */
+	@SuppressWarnings("serial")
+	private static class ConstantTranslation implements CompiledFilter {
+		private final boolean value;
+
+		ConstantTranslation(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			return value ? cb.conjunction() : cb.disjunction();
+		}
+	}
+
+
+	/**
+	 * Pattern matching, with the pattern already computed.
+	 */
+	@SuppressWarnings("serial")
+	private static class LikeTranslation implements CompiledFilter {
+		private final String propertyId;
+		private final String pattern;
+		private final boolean ignoreCase;
+
+		LikeTranslation(String propertyId, String pattern, boolean ignoreCase) {
+			this.propertyId = propertyId;
+			this.pattern = pattern;
+			this.ignoreCase = ignoreCase;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			Expression<String> expr;
+			final Object normalizedPropertyId = ignoreCase ? qd.getNormalizedPropertyId(propertyId) : null;
+			if (normalizedPropertyId != null) {
+				// the normalized property already holds upper-case values, and can be indexed.
+				expr = (Expression<String>) qd.getExpressionById(normalizedPropertyId.toString(), expressionMap);
+			} else {
+				expr = (Expression<String>) qd.getExpressionById(propertyId, expressionMap);
+				if (ignoreCase) {
+					// can use a function-based index on UPPER(column).
+					expr = cb.upper(expr);
+				}
+			}
+			return cb.like(expr, qd.createFilterParameter(cb, String.class, pattern), ESCAPE);
+		}
+	}
+
+
+	/**
+	 * "Contains" filter answered by an n-gram index.  The search is redone only if the index changes.
+	 */
+	@SuppressWarnings("serial")
+	private static class IndexedContainsTranslation implements CompiledFilter {
+		private final String fragment;
+		private final transient NGramIndex index;
+		private final String keyPropertyId;
+		private final CompiledFilter pattern;
+		private transient long version = -1;
+		private transient Set<Object> keys;
+
+		IndexedContainsTranslation(String fragment, NGramIndex index, String keyPropertyId, CompiledFilter pattern) {
+			this.fragment = fragment;
+			this.index = index;
+			this.keyPropertyId = keyPropertyId;
+			this.pattern = pattern;
+		}
+
+		@Override
+		public Predicate getPredicate(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Map<Object, Expression<?>> expressionMap) {
+			final Predicate like = pattern.getPredicate(cb, qd, expressionMap);
+			if (index == null || !index.isFresh()) {
+				// not available after deserialization, or may miss rows written since the last rebuild.
+				return like;
+			}
+			final long currentVersion = index.getVersion();
+			if (currentVersion != version) {
+				keys = index.search(fragment);
+				version = currentVersion;
+			}
+			if (keys == null) {
+				return like;
+			} else if (keys.isEmpty()) {
+				return cb.disjunction();
+			} else if (!qd.isBoundInLists() || keys.size() > qd.getMaxStatementParameters() - qd.getStatementParameterCount()) {
+				return like;
+			}
+			final Expression<?> keyExpr = qd.getExpressionById(keyPropertyId, expressionMap);
+			return cb.and(InPredicates.in(cb, qd, keyExpr, keys), like);
+		}
+	}
+
+}
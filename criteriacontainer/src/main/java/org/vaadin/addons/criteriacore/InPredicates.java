@@ -0,0 +1,123 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaBuilder.In;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
+
+/**
+ * Build <code>expr IN (...)</code> predicates for large collections of values.
+ * 
+ * <p>Drivers limit the number of values in a single IN list (1000 for Oracle), and a list of a different length
+ * produces a different statement, which the database must parse again.  The values are therefore split in
+ * chunks of at most {@link #CHUNK_SIZE} values, combined with OR in the same statement, so that counts and
+ * pages are computed by the database on the whole set.  Each chunk is padded to one of a few canonical lengths
+ * by repeating its last value, so that selections of similar sizes reuse the same statement.</p>
+ * 
+ * <p>The values are bound as parameters as long as the statement stays within
+ * {@link BeanTupleQueryDefinition#getMaxStatementParameters()} (SQL Server accepts about 2100): the padding is
+ * dropped if it would exceed the limit.  If the finished statement still holds too many parameters, the
+ * query definition builds it again with plain <code>expr IN (values)</code> lists, as earlier releases did,
+ * which databases without a low parameter limit (PostgreSQL, Oracle within 1000 values per list) accept.</p>
+ * 
+ * @author jflamy
+ */
+public class InPredicates {
+
+	/** largest number of values in one IN list. */
+	public static final int CHUNK_SIZE = 512;
+
+	/** default for the largest number of parameters bound in one statement. */
+	public static final int MAX_PARAMETERS = 2000;
+
+	/** lengths to which the IN lists are padded. */
+	private static final int[] CANONICAL_SIZES = { 1, 2, 4, 8, 16, 32, 64, 128, 256, CHUNK_SIZE };
+
+	private InPredicates() {
+	}
+
+	/**
+	 * @param cb the criteria builder for the query being built
+	 * @param qd the query definition, on which the parameters are created
+	 * @param expr the expression being tested
+	 * @param values the accepted values; duplicates and nulls are ignored, as they cannot change the result.
+	 * @return a predicate that is true if expr is one of the values (false if there are none)
+	 */
+	@SuppressWarnings("unchecked")
+	public static Predicate in(CriteriaBuilder cb, BeanTupleQueryDefinition qd, Expression<?> expr, Collection<?> values) {
+		final List<Object> distinct = new ArrayList<Object>(new LinkedHashSet<Object>(values));
+		distinct.remove(null);
+		if (distinct.isEmpty()) {
+			return cb.disjunction();
+		}
+		final int available = qd.getMaxStatementParameters() - qd.getStatementParameterCount();
+		if (!qd.isBoundInLists() || distinct.size() > available) {
+			// the statement cannot hold a parameter per value.
+			return ((Expression<Object>) expr).in(distinct);
+		}
+		final boolean pad = paddedSize(distinct.size()) <= available;
+
+		final List<Predicate> chunks = new ArrayList<Predicate>();
+		for (int start = 0; start < distinct.size(); start += CHUNK_SIZE) {
+			final List<Object> chunk = distinct.subList(start, Math.min(start + CHUNK_SIZE, distinct.size()));
+			final In<Object> in = cb.in((Expression<Object>) expr);
+			for (Object value : chunk) {
+				in.value(FilterTranslator.parameter(cb, qd, expr, value));
+			}
+			if (pad) {
+				final Object last = chunk.get(chunk.size() - 1);
+				for (int i = chunk.size(); i < canonicalSize(chunk.size()); i++) {
+					in.value(FilterTranslator.parameter(cb, qd, expr, last));
+				}
+			}
+			chunks.add(in);
+		}
+		return chunks.size() == 1 ? chunks.get(0) : cb.or(chunks.toArray(new Predicate[chunks.size()]));
+	}
+
+	/**
+	 * @param size number of values
+	 * @return the number of parameters once the values are split in chunks and each chunk padded
+	 */
+	public static int paddedSize(int size) {
+		final int fullChunks = size / CHUNK_SIZE;
+		final int rest = size % CHUNK_SIZE;
+		return fullChunks * CHUNK_SIZE + (rest > 0 ? canonicalSize(rest) : 0);
+	}
+
+	/**
+	 * @param size number of values
+	 * @return the smallest canonical length that can hold them
+	 */
+	public static int canonicalSize(int size) {
+		for (int canonicalSize : CANONICAL_SIZES) {
+			if (size <= canonicalSize) {
+				return canonicalSize;
+			}
+		}
+		return size;
+	}
+
+}
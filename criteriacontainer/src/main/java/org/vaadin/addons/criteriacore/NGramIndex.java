@@ -0,0 +1,374 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory trigram index on a string attribute of an entity, used to answer "contains" filters.
+ * 
+ * <p>A {@link com.vaadin.data.util.filter.SimpleStringFilter} that does not only match the prefix becomes
+ * <code>LIKE '%x%'</code>, which the database can only evaluate by reading every row.  The index finds the
+ * keys of the rows whose text contains the fragment; the query is then restricted to these keys, which the
+ * database retrieves through the primary key.</p>
+ * 
+ * <p>The index is meant to be shared by all the sessions: create it once, call {@link #rebuild(EntityManager)}
+ * and register it on each query definition with
+ * {@link org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition#addNGramIndex(Object, Object, NGramIndex)}.
+ * Changes saved through the containers are applied incrementally; changes made by other means must be
+ * reported with {@link #update(Object, String)} and {@link #remove(Object)}, or by rebuilding.</p>
+ * 
+ * <p>Since rows written by other applications are only seen after a rebuild, the index is not used once its
+ * last rebuild is older than {@link #getMaxAge()}: the filters then go to the database unchanged.  The
+ * application rebuilds the index periodically, more often than this age.</p>
+ * 
+ * <p>Texts are compared in lower case and without accents, so that the index finds at least the rows that
+ * a case- or accent-insensitive database collation matches; the pattern is still checked by the database
+ * on the rows found.</p>
+ * 
+ * @author jflamy
+ */
+public class NGramIndex {
+
+	final private static Logger logger = LoggerFactory.getLogger(NGramIndex.class);
+
+	/** length of the grams. */
+	public static final int N = 3;
+
+	/** accents left separate by the canonical decomposition. */
+	private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+	private final Class<?> entityClass;
+	private final String keyAttribute;
+	private final String textAttribute;
+	private int maxCandidates = 1000;
+	private long maxAge = 5 * 60 * 1000L;
+
+	/** time at which the content of the last rebuild was read, 0 if never built. */
+	private volatile long loadedAt = 0;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** content at the last rebuild: document number to key and (lower-case) text. */
+	private Object[] keys = new Object[0];
+	private String[] texts = new String[0];
+	/** for each gram, the sorted document numbers that contain it. */
+	private Map<Long, int[]> postings = new HashMap<Long, int[]>();
+
+	/** changes since the last rebuild: key to lower-case text, null text if removed.  Overrides the documents. */
+	private Map<Object, String> changes = new HashMap<Object, String>();
+
+	private volatile long version = 0;
+
+	/**
+	 * @param entityClass the entity that holds the text
+	 * @param keyAttribute the name of the attribute that identifies the entity (usually the id)
+	 * @param textAttribute the name of the string attribute being indexed
+	 */
+	public NGramIndex(Class<?> entityClass, String keyAttribute, String textAttribute) {
+		this.entityClass = entityClass;
+		this.keyAttribute = keyAttribute;
+		this.textAttribute = textAttribute;
+	}
+
+	/**
+	 * Load the keys and texts from the database and rebuild the index.
+	 * Searches keep using the previous content until the new one is ready.
+	 * 
+	 * @param entityManager used to run a projection query on the key and the text.
+	 */
+	public void rebuild(EntityManager entityManager) {
+		final Map<Object, String> changesBefore;
+		lock.readLock().lock();
+		try {
+			changesBefore = new HashMap<Object, String>(changes);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		final long loadStart = System.currentTimeMillis();
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Tuple> query = cb.createTupleQuery();
+		Root<?> root = query.from(entityClass);
+		query.multiselect(root.get(keyAttribute), root.get(textAttribute));
+		List<Tuple> rows = entityManager.createQuery(query).getResultList();
+
+		final Object[] newKeys = new Object[rows.size()];
+		final String[] newTexts = new String[rows.size()];
+		final Map<Long, IntList> builder = new HashMap<Long, IntList>();
+		int doc = 0;
+		for (Tuple row : rows) {
+			newKeys[doc] = row.get(0);
+			newTexts[doc] = normalize((String) row.get(1));
+			for (Long gram : grams(newTexts[doc])) {
+				IntList list = builder.get(gram);
+				if (list == null) {
+					list = new IntList();
+					builder.put(gram, list);
+				}
+				list.add(doc);
+			}
+			doc++;
+		}
+		final Map<Long, int[]> newPostings = new HashMap<Long, int[]>(builder.size() * 4 / 3 + 1);
+		for (Entry<Long, IntList> entry : builder.entrySet()) {
+			newPostings.put(entry.getKey(), entry.getValue().toArray());
+		}
+
+		lock.writeLock().lock();
+		try {
+			keys = newKeys;
+			texts = newTexts;
+			postings = newPostings;
+			// the changes known before loading are now in the documents.
+			for (Entry<Object, String> change : changesBefore.entrySet()) {
+				String current = changes.get(change.getKey());
+				if (current == null ? change.getValue() == null : current.equals(change.getValue())) {
+					changes.remove(change.getKey());
+				}
+			}
+			loadedAt = loadStart;
+			version++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		logger.debug("indexed {} rows, {} grams", newKeys.length, newPostings.size());
+	}
+
+	/**
+	 * Record a new or changed text.
+	 * @param key the key of the entity
+	 * @param text its text
+	 */
+	public void update(Object key, String text) {
+		lock.writeLock().lock();
+		try {
+			changes.put(key, normalize(text));
+			version++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Record the removal of an entity.
+	 * @param key the key of the entity
+	 */
+	public void remove(Object key) {
+		lock.writeLock().lock();
+		try {
+			changes.put(key, null);
+			version++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the keys of the entities whose text contains a fragment, ignoring case.
+	 * 
+	 * @param fragment the string being sought
+	 * @return the keys, or null if the index cannot help: index not fresh (see {@link #isFresh()}),
+	 *         fragment shorter than {@link #N}, or more than {@link #getMaxCandidates()} matches.
+	 */
+	public Set<Object> search(String fragment) {
+		final String normalized = normalize(fragment);
+		if (normalized.length() < N || !isFresh()) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			final Set<Object> result = new LinkedHashSet<Object>();
+			for (int doc : candidates(normalized)) {
+				if (texts[doc] != null && texts[doc].contains(normalized) && !changes.containsKey(keys[doc])) {
+					result.add(keys[doc]);
+					if (result.size() > maxCandidates) {
+						return null;
+					}
+				}
+			}
+			for (Entry<Object, String> change : changes.entrySet()) {
+				if (change.getValue() != null && change.getValue().contains(normalized)) {
+					result.add(change.getKey());
+				}
+			}
+			return result.size() > maxCandidates ? null : result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return a number that changes whenever the content of the index changes.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if the index has been built, and its last rebuild is recent enough to be trusted
+	 *         for rows written outside the containers.
+	 */
+	public boolean isFresh() {
+		final long loaded = loadedAt;
+		return loaded != 0 && System.currentTimeMillis() - loaded <= maxAge;
+	}
+
+	/**
+	 * @return the age, in milliseconds, after which the content of a rebuild is no longer used.
+	 */
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * The index is not used when its last rebuild is older than this, since rows written by other
+	 * applications may be missing from it.  The default is 5 minutes.
+	 * @param maxAge the age in milliseconds; {@link Long#MAX_VALUE} if all the writes go through the containers.
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @return the largest number of keys returned by {@link #search(String)}
+	 */
+	public int getMaxCandidates() {
+		return maxCandidates;
+	}
+
+	/**
+	 * Above this number of matching keys, the filter is left to the database.
+	 * @param maxCandidates the largest number of keys returned by {@link #search(String)}
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+		this.maxCandidates = maxCandidates;
+	}
+
+	/**
+	 * Intersect the postings of all the grams of the fragment, shortest first.
+	 */
+	private int[] candidates(String fragment) {
+		List<int[]> lists = new ArrayList<int[]>();
+		for (Long gram : grams(fragment)) {
+			int[] list = postings.get(gram);
+			if (list == null) {
+				return new int[0];
+			}
+			lists.add(list);
+		}
+		int[][] sorted = lists.toArray(new int[lists.size()][]);
+		Arrays.sort(sorted, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return a.length - b.length;
+			}
+		});
+		int[] result = sorted[0];
+		for (int i = 1; i < sorted.length && result.length > 0; i++) {
+			result = intersect(result, sorted[i]);
+		}
+		return result;
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[k++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+	/**
+	 * @return the distinct grams of a normalized text, each packed in a long.
+	 */
+	private static Set<Long> grams(String text) {
+		Set<Long> grams = new LinkedHashSet<Long>();
+		if (text == null) {
+			return grams;
+		}
+		for (int i = 0; i + N <= text.length(); i++) {
+			long gram = 0;
+			for (int j = 0; j < N; j++) {
+				gram = (gram << 16) | text.charAt(i + j);
+			}
+			grams.add(gram);
+		}
+		return grams;
+	}
+
+	/**
+	 * @return the text in lower case, without accents (so that a match in the database is also a match here).
+	 */
+	private static String normalize(String text) {
+		if (text == null) {
+			return null;
+		}
+		final String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+		return COMBINING_MARKS.matcher(decomposed).replaceAll("");
+	}
+
+
+	/**
+	 * Growable list of document numbers.
+	 */
+	private static class IntList {
+		private int[] data = new int[4];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(data, size);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+/**
+ * One phase of a query, as reported to a {@link QueryListener}.
+ * 
+ * @author jflamy
+ */
+public class QueryEvent {
+
+	private final String source;
+	private final QueryPhase phase;
+	private final long durationNanos;
+	private final int rowCount;
+	private final int firstResult;
+	private final int maxResults;
+	private final String signature;
+
+	/**
+	 * @param source what ran the query, normally the class of the container
+	 * @param phase the phase being reported
+	 * @param durationNanos the elapsed time
+	 * @param rowCount number of rows returned or processed (the count itself for {@link QueryPhase#COUNT})
+	 * @param firstResult index of the first row requested, -1 if not applicable
+	 * @param maxResults number of rows requested, -1 if not applicable
+	 * @param signature shape of the query: filtered and sorted properties, without the values
+	 */
+	public QueryEvent(String source, QueryPhase phase, long durationNanos, int rowCount, int firstResult,
+			int maxResults, String signature) {
+		this.source = source;
+		this.phase = phase;
+		this.durationNanos = durationNanos;
+		this.rowCount = rowCount;
+		this.firstResult = firstResult;
+		this.maxResults = maxResults;
+		this.signature = signature;
+	}
+
+	/**
+	 * @return what ran the query, normally the class of the container
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the phase being reported
+	 */
+	public QueryPhase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return number of rows returned or processed (the count itself for {@link QueryPhase#COUNT})
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return index of the first row requested, -1 if not applicable
+	 */
+	public int getFirstResult() {
+		return firstResult;
+	}
+
+	/**
+	 * @return number of rows requested, -1 if not applicable
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	/**
+	 * @return shape of the query: filtered and sorted properties, without the values
+	 */
+	public String getSignature() {
+		return signature;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return source + " " + phase + " " + (durationNanos / 1000) + "us rows=" + rowCount
+				+ (firstResult >= 0 ? " first=" + firstResult + " max=" + maxResults : "") + " " + signature;
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+/**
+ * Receives the timing of each phase of the queries run by the containers.
+ * 
+ * <p>Listeners are called in the thread that ran the phase, which is a background thread for
+ * asynchronous counts, and must therefore be thread-safe and fast.</p>
+ * 
+ * @author jflamy
+ */
+public interface QueryListener {
+
+	/**
+	 * @param event what was done, and how long it took.
+	 */
+	void queryPhaseCompleted(QueryEvent event);
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+/**
+ * The steps of loading data into a container, as reported to a {@link QueryListener}.
+ * 
+ * @author jflamy
+ */
+public enum QueryPhase {
+	/** building the criteria query, including the translation of the filters. */
+	BUILD,
+	/** running the count query. */
+	COUNT,
+	/** running the select query. */
+	SELECT,
+	/** creating the items from the tuples returned by the select query. */
+	HYDRATION,
+	/** detaching the entities from the persistence context. */
+	DETACH,
+	/** recording the index of each key in the container. */
+	KEY_MAPPING;
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory aggregation of {@link QueryEvent}s, by source and phase.
+ * 
+ * <p>For each source (normally the container class) and phase, the number of events, the total time and
+ * the number of rows are kept, as well as the durations of the last {@value #SAMPLES} events, from which
+ * percentiles are computed.  Register it for all containers with
+ * {@link org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition#addGlobalQueryListener(QueryListener)}.</p>
+ * 
+ * @author jflamy
+ */
+public class QueryStatistics implements QueryListener {
+
+	/** number of durations kept for the percentiles. */
+	public static final int SAMPLES = 1024;
+
+	private final ConcurrentMap<String, ConcurrentMap<QueryPhase, PhaseStatistics>> statistics =
+			new ConcurrentHashMap<String, ConcurrentMap<QueryPhase, PhaseStatistics>>();
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.criteriacore.QueryListener#queryPhaseCompleted(org.vaadin.addons.criteriacore.QueryEvent)
+	 */
+	@Override
+	public void queryPhaseCompleted(QueryEvent event) {
+		ConcurrentMap<QueryPhase, PhaseStatistics> phases = statistics.get(event.getSource());
+		if (phases == null) {
+			statistics.putIfAbsent(event.getSource(), new ConcurrentHashMap<QueryPhase, PhaseStatistics>());
+			phases = statistics.get(event.getSource());
+		}
+		PhaseStatistics phaseStatistics = phases.get(event.getPhase());
+		if (phaseStatistics == null) {
+			phases.putIfAbsent(event.getPhase(), new PhaseStatistics());
+			phaseStatistics = phases.get(event.getPhase());
+		}
+		phaseStatistics.add(event.getDurationNanos(), event.getRowCount());
+	}
+
+	/**
+	 * @return the sources for which events were received
+	 */
+	public Set<String> getSources() {
+		return Collections.unmodifiableSet(new TreeSet<String>(statistics.keySet()));
+	}
+
+	/**
+	 * @param source the source of the events
+	 * @param phase the phase
+	 * @return the number of events
+	 */
+	public long getCount(String source, QueryPhase phase) {
+		final PhaseStatistics phaseStatistics = get(source, phase);
+		return phaseStatistics == null ? 0 : phaseStatistics.getCount();
+	}
+
+	/**
+	 * @param source the source of the events
+	 * @param phase the phase
+	 * @return the total time spent, in nanoseconds
+	 */
+	public long getTotalNanos(String source, QueryPhase phase) {
+		final PhaseStatistics phaseStatistics = get(source, phase);
+		return phaseStatistics == null ? 0 : phaseStatistics.getTotalNanos();
+	}
+
+	/**
+	 * @param source the source of the events
+	 * @param phase the phase
+	 * @return the total number of rows
+	 */
+	public long getTotalRows(String source, QueryPhase phase) {
+		final PhaseStatistics phaseStatistics = get(source, phase);
+		return phaseStatistics == null ? 0 : phaseStatistics.getTotalRows();
+	}
+
+	/**
+	 * @param source the source of the events
+	 * @param phase the phase
+	 * @param percentile between 0 and 100, for example 50 for the median or 99.
+	 * @return the duration in nanoseconds under which that percentage of the recent events completed, 0 if none.
+	 */
+	public long getPercentileNanos(String source, QueryPhase phase, double percentile) {
+		final PhaseStatistics phaseStatistics = get(source, phase);
+		return phaseStatistics == null ? 0 : phaseStatistics.getPercentile(percentile);
+	}
+
+	/**
+	 * Forget all the events received so far.
+	 */
+	public void reset() {
+		statistics.clear();
+	}
+
+	/**
+	 * @return one line per source and phase, with the count, total, median, 90th and 99th percentiles in milliseconds.
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (String source : getSources()) {
+			for (QueryPhase phase : QueryPhase.values()) {
+				final long count = getCount(source, phase);
+				if (count == 0) {
+					continue;
+				}
+				sb.append(source).append(' ').append(phase)
+					.append(" count=").append(count)
+					.append(" total=").append(millis(getTotalNanos(source, phase)))
+					.append(" p50=").append(millis(getPercentileNanos(source, phase, 50)))
+					.append(" p90=").append(millis(getPercentileNanos(source, phase, 90)))
+					.append(" p99=").append(millis(getPercentileNanos(source, phase, 99)))
+					.append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.1fms", nanos / 1000000.0);
+	}
+
+	private PhaseStatistics get(String source, QueryPhase phase) {
+		final ConcurrentMap<QueryPhase, PhaseStatistics> phases = statistics.get(source);
+		return phases == null ? null : phases.get(phase);
+	}
+
+
+	/**
+	 * Counters and recent durations for one source and phase.
+	 */
+	private static class PhaseStatistics {
+		private final long[] samples = new long[SAMPLES];
+		private long count;
+		private long totalNanos;
+		private long totalRows;
+
+		synchronized void add(long durationNanos, int rows) {
+			samples[(int) (count % SAMPLES)] = durationNanos;
+			count++;
+			totalNanos += durationNanos;
+			totalRows += rows;
+		}
+
+		synchronized long getCount() {
+			return count;
+		}
+
+		synchronized long getTotalNanos() {
+			return totalNanos;
+		}
+
+		synchronized long getTotalRows() {
+			return totalRows;
+		}
+
+		long getPercentile(double percentile) {
+			final long[] sorted;
+			synchronized (this) {
+				if (count == 0) {
+					return 0;
+				}
+				sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLES));
+			}
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+			index = Math.max(0, Math.min(sorted.length - 1, index));
+			return sorted[index];
+		}
+	}
+
+}
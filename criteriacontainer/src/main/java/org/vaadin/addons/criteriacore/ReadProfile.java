@@ -0,0 +1,187 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.persistence.FlushModeType;
+import javax.persistence.TypedQuery;
+
+/**
+ * Hints applied to the queries of a container whose items are displayed rather than edited.
+ * 
+ * <p>JPA 2.0 only standardizes the flush mode and the query timeout; the other settings are passed as
+ * the hints of Hibernate and EclipseLink.  Per the specification, hints that the provider does not
+ * recognize are ignored, so a profile can be used with any provider.</p>
+ * 
+ * @see AbstractCriteriaQueryDefinition#setReadProfile(ReadProfile)
+ * @author jflamy
+ */
+@SuppressWarnings("serial")
+public class ReadProfile implements Serializable {
+
+	private boolean readOnly = true;
+	private boolean flushModeCommit = true;
+	private int fetchSize = 0;
+	private boolean cacheable = false;
+	private int timeoutMillis = 0;
+	private Map<String, Object> hints = new HashMap<String, Object>();
+
+	/**
+	 * @return a profile for display-only containers: read-only entities, no flush before the queries,
+	 *         fetch size equal to the batch size.
+	 */
+	public static ReadProfile displayOnly() {
+		return new ReadProfile();
+	}
+
+	/**
+	 * Apply the profile to a query.
+	 * 
+	 * @param query the query
+	 * @param batchSize the number of rows read at once, used when no fetch size is set
+	 * @param select true for the query that returns the items, false for the count
+	 */
+	public void apply(TypedQuery<?> query, int batchSize, boolean select) {
+		apply(query, batchSize, select, false);
+	}
+
+	/**
+	 * Apply the profile to a query.
+	 * 
+	 * @param query the query
+	 * @param batchSize the number of rows read at once, used when no fetch size is set
+	 * @param select true for the query that returns the items, false for the count
+	 * @param privateCopies true if the entities will be detached and may be edited and merged: the EclipseLink
+	 *        read-only hint is then not applied, since it returns the instances of the shared cache.
+	 */
+	public void apply(TypedQuery<?> query, int batchSize, boolean select, boolean privateCopies) {
+		if (flushModeCommit) {
+			// the container does not need to see pending changes; no dirty checking before each page.
+			query.setFlushMode(FlushModeType.COMMIT);
+		}
+		if (timeoutMillis > 0) {
+			query.setHint("javax.persistence.query.timeout", timeoutMillis);
+		}
+		if (cacheable) {
+			query.setHint("org.hibernate.cacheable", Boolean.TRUE);
+			query.setHint("eclipselink.query-results-cache", "true");
+		}
+		if (select) {
+			if (readOnly) {
+				// no snapshot is kept for dirty checking.
+				query.setHint("org.hibernate.readOnly", Boolean.TRUE);
+				if (!privateCopies) {
+					query.setHint("eclipselink.read-only", "true");
+				}
+			}
+			final int size = fetchSize > 0 ? fetchSize : batchSize;
+			if (size > 0) {
+				query.setHint("org.hibernate.fetchSize", size);
+				query.setHint("eclipselink.jdbc.fetch-size", size);
+			}
+		}
+		for (Entry<String, Object> hint : hints.entrySet()) {
+			query.setHint(hint.getKey(), hint.getValue());
+		}
+	}
+
+	/**
+	 * @return true if the entities are loaded read-only
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Entities loaded read-only are not dirty-checked: changes made to them are not saved unless
+	 * they are detached and merged.  Under EclipseLink, read-only queries return the instances of the
+	 * shared cache; the hint is therefore only applied when the entities are not detached, in which case
+	 * the container refuses to save changes.
+	 * @param readOnly true to load the entities read-only
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * @return true if pending changes are not flushed before the queries
+	 */
+	public boolean isFlushModeCommit() {
+		return flushModeCommit;
+	}
+
+	/**
+	 * @param flushModeCommit true to avoid flushing pending changes before the queries
+	 */
+	public void setFlushModeCommit(boolean flushModeCommit) {
+		this.flushModeCommit = flushModeCommit;
+	}
+
+	/**
+	 * @return the JDBC fetch size, 0 to use the batch size
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * @param fetchSize the JDBC fetch size, 0 to use the batch size
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * @return true if the results may come from the provider's query cache
+	 */
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
+	/**
+	 * @param cacheable true if the results may come from the provider's query cache
+	 */
+	public void setCacheable(boolean cacheable) {
+		this.cacheable = cacheable;
+	}
+
+	/**
+	 * @return the query timeout in milliseconds, 0 for none
+	 */
+	public int getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * @param timeoutMillis the query timeout in milliseconds, 0 for none
+	 */
+	public void setTimeoutMillis(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @param name a provider-specific hint
+	 * @param value its value
+	 */
+	public void setHint(String name, Object value) {
+		hints.put(name, value);
+	}
+
+}
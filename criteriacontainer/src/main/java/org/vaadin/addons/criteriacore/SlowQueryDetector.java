@@ -0,0 +1,234 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log the queries that take longer than a threshold, with their text and parameters.
+ * 
+ * <p>Every query is timed, which costs very little; the text of the query is only retrieved when the
+ * threshold is exceeded.  To limit the volume of the log when the database is slow for everybody,
+ * only one slow query out of {@link #getSampling()} is logged.</p>
+ * 
+ * <p>JPA 2.0 offers no standard way to obtain the SQL of a query.  The query string is obtained
+ * from Hibernate (HQL), EclipseLink (SQL) or OpenJPA (JPQL) when the provider is recognized, and
+ * from toString() otherwise.</p>
+ * 
+ * @author jflamy
+ */
+@SuppressWarnings("serial")
+public class SlowQueryDetector implements Serializable {
+
+	final private static Logger logger = LoggerFactory.getLogger(SlowQueryDetector.class);
+
+	/** longest value shown for a parameter. */
+	private static final int MAX_VALUE_LENGTH = 100;
+
+	private long thresholdMillis;
+	private int sampling = 1;
+	private final AtomicLong slowQueries = new AtomicLong();
+
+	/**
+	 * @param thresholdMillis queries that take longer are logged.
+	 */
+	public SlowQueryDetector(long thresholdMillis) {
+		this.thresholdMillis = thresholdMillis;
+	}
+
+	/**
+	 * Log the query if it was slow.
+	 * 
+	 * @param kind what the query does, for example "select" or "count"
+	 * @param query the query that was run
+	 * @param elapsedNanos how long it took
+	 * @param rowCount the number of rows returned (the count for a count query)
+	 */
+	public void check(String kind, Query query, long elapsedNanos, int rowCount) {
+		if (!isLogged(elapsedNanos)) {
+			return;
+		}
+		final boolean paged = query.getMaxResults() != Integer.MAX_VALUE;
+		logger.warn("slow {} query: {} ms, {} rows{}\n{}\nparameters: {}", new Object[] {
+				kind,
+				elapsedNanos / 1000000L,
+				rowCount,
+				paged ? ", first=" + query.getFirstResult() + " max=" + query.getMaxResults() : "",
+				getQueryString(query),
+				getParameters(query) });
+	}
+
+	/**
+	 * Log a query run outside of JPA if it was slow.
+	 * 
+	 * @param kind what the query does, for example "select" or "count"
+	 * @param sql the SQL statement
+	 * @param parameters the values bound to the statement, in order
+	 * @param elapsedNanos how long it took
+	 * @param rowCount the number of rows returned
+	 */
+	public void check(String kind, String sql, Object[] parameters, long elapsedNanos, int rowCount) {
+		if (!isLogged(elapsedNanos)) {
+			return;
+		}
+		final StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < parameters.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(i + 1).append('=').append(abbreviate(parameters[i]));
+		}
+		logger.warn("slow {} query: {} ms, {} rows\n{}\nparameters: {}", new Object[] {
+				kind,
+				elapsedNanos / 1000000L,
+				rowCount,
+				sql,
+				sb.append('}') });
+	}
+
+	/**
+	 * @param elapsedNanos how long a query took
+	 * @return true if the query is over the threshold and selected by the sampling.
+	 */
+	private boolean isLogged(long elapsedNanos) {
+		if (elapsedNanos < thresholdMillis * 1000000L) {
+			return false;
+		}
+		if (slowQueries.incrementAndGet() % sampling != 0) {
+			return false;
+		}
+		return logger.isWarnEnabled();
+	}
+
+	/**
+	 * @return the number of queries that exceeded the threshold, logged or not.
+	 */
+	public long getSlowQueryCount() {
+		return slowQueries.get();
+	}
+
+	/**
+	 * @return the duration above which a query is logged
+	 */
+	public long getThresholdMillis() {
+		return thresholdMillis;
+	}
+
+	/**
+	 * @param thresholdMillis the duration above which a query is logged
+	 */
+	public void setThresholdMillis(long thresholdMillis) {
+		this.thresholdMillis = thresholdMillis;
+	}
+
+	/**
+	 * @return one slow query out of this number is logged.
+	 */
+	public int getSampling() {
+		return sampling;
+	}
+
+	/**
+	 * @param sampling one slow query out of this number is logged; 1 to log them all.
+	 */
+	public void setSampling(int sampling) {
+		this.sampling = Math.max(1, sampling);
+	}
+
+	/**
+	 * @param query a query
+	 * @return the query string as known to the provider, or a description of the query.
+	 */
+	static String getQueryString(Query query) {
+		// EclipseLink: the SQL, once the query has been prepared.
+		Object result = invoke(query, "org.eclipse.persistence.jpa.JpaQuery", "getDatabaseQuery");
+		if (result != null) {
+			final Object sql = invoke(result, null, "getSQLString");
+			if (sql != null) {
+				return sql.toString();
+			}
+		}
+		// Hibernate
+		result = invoke(query, "org.hibernate.Query", "getQueryString");
+		if (result != null) {
+			return result.toString();
+		}
+		// OpenJPA
+		result = invoke(query, "org.apache.openjpa.persistence.OpenJPAQuery", "getQueryString");
+		if (result != null) {
+			return result.toString();
+		}
+		return query.toString();
+	}
+
+	/**
+	 * Call a method without arguments, on the object or on the provider class it unwraps to.
+	 * @return the result, null if the provider class is absent or the call fails.
+	 */
+	private static Object invoke(Object target, String unwrapClassName, String methodName) {
+		try {
+			Object object = target;
+			if (unwrapClassName != null) {
+				final Class<?> unwrapClass = Class.forName(unwrapClassName, false, target.getClass().getClassLoader());
+				object = ((Query) target).unwrap(unwrapClass);
+			}
+			final Method method = object.getClass().getMethod(methodName);
+			return method.invoke(object);
+		} catch (Exception e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param query a query
+	 * @return the bound parameters, as name=value
+	 */
+	static String getParameters(Query query) {
+		final StringBuilder sb = new StringBuilder("{");
+		boolean first = true;
+		for (Parameter<?> parameter : query.getParameters()) {
+			if (!first) sb.append(", ");
+			first = false;
+			sb.append(parameter.getName() != null ? parameter.getName() : parameter.getPosition()).append('=');
+			if (query.isBound(parameter)) {
+				sb.append(abbreviate(query.getParameterValue(parameter)));
+			} else {
+				sb.append('?');
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	private static String abbreviate(Object value) {
+		String string;
+		if (value instanceof Collection) {
+			string = ((Collection<?>) value).size() + " values " + value;
+		} else {
+			string = String.valueOf(value);
+		}
+		return string.length() > MAX_VALUE_LENGTH ? string.substring(0, MAX_VALUE_LENGTH) + "..." : string;
+	}
+
+}
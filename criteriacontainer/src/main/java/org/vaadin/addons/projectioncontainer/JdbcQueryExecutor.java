@@ -0,0 +1,300 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
+import org.vaadin.addons.criteriacore.SlowQueryDetector;
+
+/**
+ * Read the pages of a {@link ProjectionContainer} with plain JDBC, bypassing the JPA provider.
+ * 
+ * <p>JPA 2.0 offers no portable way to obtain the SQL of a criteria query, so the application gives the SQL
+ * statement; it must return one column per property, labelled with the property id (the comparison ignores
+ * case), with the same rows as the criteria query of the definition.  The count is still done by JPA.</p>
+ * 
+ * <p>The container sort (or, if the container is not sorted, the native sort of the definition) is applied by
+ * wrapping the statement, and the page is selected by appending {@link #getPageClause()}.  Container filters and
+ * the named parameters of the definition cannot be translated: while there are some, pages are read through JPA.  The JDBC reads report the same query events as the JPA reads, with the same statistics source,
+ * so that both paths can be measured against each other.</p>
+ * 
+ * <p>The connection is obtained from the EntityManager ({@code unwrap(Connection.class)}), which not all
+ * providers support; give a DataSource otherwise.  Changes pending in the EntityManager are not visible.</p>
+ * 
+ * @author jflamy
+ */
+@SuppressWarnings("serial")
+public class JdbcQueryExecutor implements Serializable {
+
+	final private static Logger logger = LoggerFactory.getLogger(JdbcQueryExecutor.class);
+
+	/** SQL:2008 paging, for PostgreSQL, Oracle 12, SQL Server 2012, DB2, Derby, H2 */
+	public static final String FETCH_FIRST = " OFFSET {first} ROWS FETCH NEXT {count} ROWS ONLY";
+	/** paging for MySQL, PostgreSQL, H2, HSQLDB, SQLite */
+	public static final String LIMIT_OFFSET = " LIMIT {count} OFFSET {first}";
+
+	private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+	private final String sql;
+	private final Object[] parameters;
+	private String pageClause = FETCH_FIRST;
+	private transient DataSource dataSource;
+
+	/**
+	 * @param sql the statement that returns the rows, with ? for the parameters
+	 * @param parameters the values of the parameters, in order
+	 */
+	public JdbcQueryExecutor(String sql, Object... parameters) {
+		this.sql = sql;
+		this.parameters = parameters.clone();
+	}
+
+	/**
+	 * @return the clause appended to the statement to select a page
+	 */
+	public String getPageClause() {
+		return pageClause;
+	}
+
+	/**
+	 * @param pageClause the clause appended to the statement to select a page; {first} and {count}
+	 *        are replaced by parameters.  See {@link #FETCH_FIRST} and {@link #LIMIT_OFFSET}.
+	 */
+	public void setPageClause(String pageClause) {
+		this.pageClause = pageClause;
+	}
+
+	/**
+	 * @param dataSource where to get a connection, instead of the EntityManager.  Not serialized.
+	 */
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * @param queryDefinition the definition whose pages are read
+	 * @return true if the current filters and sort of the definition can be applied to the statement.
+	 */
+	boolean accepts(BeanTupleQueryDefinition queryDefinition) {
+		if (!queryDefinition.getContainerFilters().isEmpty()) {
+			return false;
+		}
+		if (queryDefinition.getFilters() != null && !queryDefinition.getFilters().isEmpty()) {
+			return false;
+		}
+		if (queryDefinition.getNamedParameterValues() != null && !queryDefinition.getNamedParameterValues().isEmpty()) {
+			// the statement has its own, fixed, parameters.
+			return false;
+		}
+		final Object[] sortPropertyIds = sortPropertyIds(queryDefinition);
+		if (sortPropertyIds != null) {
+			for (Object sortPropertyId : sortPropertyIds) {
+				if (!(sortPropertyId instanceof String) || !IDENTIFIER.matcher((String) sortPropertyId).matches()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read a page.
+	 * 
+	 * @param queryDefinition the definition whose pages are read
+	 * @param entityManager the EntityManager that provides the connection, if there is no DataSource
+	 * @param firstResult index of the first row
+	 * @param maxResults number of rows
+	 * @return the rows, as tuples whose aliases are the property ids.
+	 */
+	List<Tuple> read(BeanTupleQueryDefinition queryDefinition, EntityManager entityManager, int firstResult, int maxResults) {
+		final List<Object> pageParameters = new ArrayList<Object>();
+		final String pageSql = pageSql(queryDefinition, firstResult, maxResults, pageParameters);
+		final long start = System.nanoTime();
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		try {
+			connection = dataSource != null ? dataSource.getConnection() : entityManager.unwrap(Connection.class);
+			statement = connection.prepareStatement(pageSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(maxResults);
+			for (int i = 0; i < pageParameters.size(); i++) {
+				statement.setObject(i + 1, pageParameters.get(i));
+			}
+			resultSet = statement.executeQuery();
+			final List<TupleElement<?>> columns = columns(queryDefinition, resultSet.getMetaData());
+			final Class<?>[] types = new Class<?>[columns.size()];
+			for (int i = 0; i < types.length; i++) {
+				types[i] = queryDefinition.getPropertyType(columns.get(i).getAlias());
+			}
+			final List<Tuple> rows = new ArrayList<Tuple>(maxResults);
+			while (resultSet.next()) {
+				final Object[] values = new Object[types.length];
+				for (int i = 0; i < types.length; i++) {
+					values[i] = convert(resultSet.getObject(i + 1), types[i]);
+				}
+				rows.add(new JdbcTuple(columns, values));
+			}
+			final SlowQueryDetector slowQueryDetector = queryDefinition.getSlowQueryDetector();
+			if (slowQueryDetector != null) {
+				slowQueryDetector.check("select", pageSql, pageParameters.toArray(), System.nanoTime() - start, rows.size());
+			}
+			return rows;
+		} catch (SQLException e) {
+			throw new PersistenceException(pageSql, e);
+		} finally {
+			close(resultSet, statement, dataSource != null ? connection : null);
+		}
+	}
+
+	/**
+	 * Wrap the statement to apply the sort, and add the page clause.
+	 * 
+	 * @param pageParameters receives the values of all the parameters, in order
+	 * @return the SQL statement
+	 */
+	private String pageSql(BeanTupleQueryDefinition queryDefinition, int firstResult, int maxResults, List<Object> pageParameters) {
+		Collections.addAll(pageParameters, parameters);
+		final StringBuilder sb = new StringBuilder();
+		final Object[] sortPropertyIds = sortPropertyIds(queryDefinition);
+		if (sortPropertyIds != null && sortPropertyIds.length > 0) {
+			final boolean[] ascending = sortPropertyIds == queryDefinition.getSortPropertyIds()
+					? queryDefinition.getSortPropertyAscendingStates()
+					: queryDefinition.getNativeSortPropertyAscendingStates();
+			sb.append("SELECT * FROM (").append(sql).append(") q ORDER BY ");
+			for (int i = 0; i < sortPropertyIds.length; i++) {
+				if (i > 0) sb.append(", ");
+				sb.append(sortPropertyIds[i]).append(ascending[i] ? " ASC" : " DESC");
+			}
+		} else {
+			sb.append(sql);
+		}
+		// replace the markers in order of appearance
+		String clause = pageClause;
+		int first = clause.indexOf("{first}");
+		int count = clause.indexOf("{count}");
+		if (first >= 0 && (count < 0 || first < count)) {
+			pageParameters.add(firstResult);
+			if (count >= 0) pageParameters.add(maxResults);
+		} else if (count >= 0) {
+			pageParameters.add(maxResults);
+			if (first >= 0) pageParameters.add(firstResult);
+		}
+		clause = clause.replace("{first}", "?").replace("{count}", "?");
+		return sb.append(clause).toString();
+	}
+
+	/**
+	 * Pages are only stable if the rows are in a definite order (and SQL Server refuses to page without one).
+	 * 
+	 * @return the container sort, or the native sort of the definition if the container is not sorted.
+	 */
+	private static Object[] sortPropertyIds(BeanTupleQueryDefinition queryDefinition) {
+		final Object[] sortPropertyIds = queryDefinition.getSortPropertyIds();
+		if (sortPropertyIds != null && sortPropertyIds.length > 0) {
+			return sortPropertyIds;
+		}
+		return queryDefinition.getNativeSortPropertyIds();
+	}
+
+	/**
+	 * Match the columns to the property ids of the definition.
+	 * 
+	 * @return one tuple element per column, whose alias is the property id (or the label, if none matches).
+	 */
+	private static List<TupleElement<?>> columns(BeanTupleQueryDefinition queryDefinition, ResultSetMetaData metaData) throws SQLException {
+		final Map<String, String> propertyIds = new HashMap<String, String>();
+		for (Object propertyId : queryDefinition.getPropertyIds()) {
+			propertyIds.put(propertyId.toString().toUpperCase(Locale.ROOT), propertyId.toString());
+		}
+		final List<TupleElement<?>> columns = new ArrayList<TupleElement<?>>(metaData.getColumnCount());
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			final String label = metaData.getColumnLabel(i);
+			final String propertyId = propertyIds.get(label.toUpperCase(Locale.ROOT));
+			if (propertyId == null) {
+				logger.debug("column {} does not match a property", label);
+			}
+			columns.add(new JdbcTuple.Column(propertyId != null ? propertyId : label));
+		}
+		return Collections.unmodifiableList(columns);
+	}
+
+	/**
+	 * Drivers return numbers in the type of the column, which may differ from the type of the attribute.
+	 * 
+	 * @param value the value read
+	 * @param type the type of the property, null if unknown
+	 * @return the value, converted to the type of the property if both are numbers.
+	 */
+	private static Object convert(Object value, Class<?> type) {
+		if (!(value instanceof Number) || type == null || type.isInstance(value)) {
+			return value;
+		}
+		final Number number = (Number) value;
+		if (type == Long.class) return number.longValue();
+		if (type == Integer.class) return number.intValue();
+		if (type == Double.class) return number.doubleValue();
+		if (type == Float.class) return number.floatValue();
+		if (type == Short.class) return number.shortValue();
+		if (type == Byte.class) return number.byteValue();
+		if (type == BigDecimal.class) return new BigDecimal(number.toString());
+		if (type == BigInteger.class) return new BigDecimal(number.toString()).toBigInteger();
+		return value;
+	}
+
+	/**
+	 * Close what was opened; the connection is only closed if it came from the DataSource.
+	 */
+	private static void close(ResultSet resultSet, PreparedStatement statement, Connection connection) {
+		try {
+			if (resultSet != null) resultSet.close();
+			if (statement != null) statement.close();
+		} catch (SQLException e) {
+			logger.warn("could not close statement: {}", e.getMessage());
+		} finally {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					logger.warn("could not close connection: {}", e.getMessage());
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import java.util.List;
+
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+
+/**
+ * A row read by {@link JdbcQueryExecutor}, presented as a JPA tuple so that it goes through the same
+ * item creation and key mapping as the rows read by JPA.
+ * 
+ * @author jflamy
+ * 
+ */
+final class JdbcTuple implements Tuple {
+
+	private final List<TupleElement<?>> elements;
+	private final Object[] values;
+
+	/**
+	 * @param elements the columns, shared by all the rows of a page
+	 * @param values the values, in column order
+	 */
+	JdbcTuple(List<TupleElement<?>> elements, Object[] values) {
+		this.elements = elements;
+		this.values = values;
+	}
+
+	@Override
+	public <X> X get(TupleElement<X> tupleElement) {
+		final int index = elements.indexOf(tupleElement);
+		if (index < 0) {
+			throw new IllegalArgumentException(tupleElement + " is not an element of the tuple");
+		}
+		return tupleElement.getJavaType().cast(values[index]);
+	}
+
+	@Override
+	public <X> X get(String alias, Class<X> type) {
+		return type.cast(get(alias));
+	}
+
+	@Override
+	public Object get(String alias) {
+		for (int i = 0; i < elements.size(); i++) {
+			if (alias.equals(elements.get(i).getAlias())) {
+				return values[i];
+			}
+		}
+		throw new IllegalArgumentException(alias + " is not an alias of the tuple");
+	}
+
+	@Override
+	public <X> X get(int i, Class<X> type) {
+		return type.cast(get(i));
+	}
+
+	@Override
+	public Object get(int i) {
+		if (i < 0 || i >= values.length) {
+			throw new IllegalArgumentException(i + " is not a position of the tuple");
+		}
+		return values[i];
+	}
+
+	@Override
+	public Object[] toArray() {
+		return values.clone();
+	}
+
+	@Override
+	public List<TupleElement<?>> getElements() {
+		return elements;
+	}
+
+	/**
+	 * A column of the result set, designated by the property id it fills.
+	 */
+	static final class Column implements TupleElement<Object> {
+		private final String alias;
+
+		/**
+		 * @param alias the property id
+		 */
+		Column(String alias) {
+			this.alias = alias;
+		}
+
+		@Override
+		public Class<? extends Object> getJavaType() {
+			return Object.class;
+		}
+
+		@Override
+		public String getAlias() {
+			return alias;
+		}
+
+		@Override
+		public String toString() {
+			return alias;
+		}
+	}
+
+}
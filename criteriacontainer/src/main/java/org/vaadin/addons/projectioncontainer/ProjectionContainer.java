@@ -0,0 +1,77 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import org.vaadin.addons.beantuplecontainer.BeanTupleContainer;
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryView;
+
+import com.vaadin.data.Item;
+
+/**
+ * ProjectionContainer displays the values selected by a JPA 2.0 Criteria query, without creating entities.
+ * 
+ * <p>The query definition selects attributes or computed values, each with an alias that becomes the property
+ * id.  Each row is an immutable {@link ProjectionItem}; the persistence context does not grow as the user
+ * scrolls, and nothing needs to be detached.  Filtering, sorting, lazy loading and keys work as for
+ * {@link BeanTupleContainer}.  The container is read-only.</p>
+ * 
+ * @param <R> the row class of the query definition, Object if none.
+ * @author jflamy
+ */
+@SuppressWarnings("serial")
+public class ProjectionContainer<R> extends BeanTupleContainer {
+
+	/**
+	 * Standard constructor for type-safe queries.
+	 * @param cd the definition of the query
+	 */
+	public ProjectionContainer(ProjectionQueryDefinition<R> cd) {
+		super(new BeanTupleQueryView(cd, new ProjectionQueryFactory()));
+	}
+
+	/**
+	 * Standard constructor for type-safe queries.
+	 * @param cd the definition of the query (independent of its execution context)
+	 * @param cf the factory that will generate a context in which the query will run.
+	 */
+	public ProjectionContainer(ProjectionQueryDefinition<R> cd, ProjectionQueryFactory cf) {
+		super(new BeanTupleQueryView(cd, cf));
+	}
+
+	/**
+	 * Gets the row at given item id, as an instance of the row class of the query definition.
+	 * @param itemId the item id (the key, if a key property is used)
+	 * @return the row, null if there is no such item.
+	 * @see ProjectionQueryDefinition#getRowClass()
+	 */
+	@SuppressWarnings("unchecked")
+	public R getRow(Object itemId) {
+		final Item item = getItem(itemId);
+		return item != null ? (R) ((ProjectionItem) item).getRow() : null;
+	}
+
+	/**
+	 * Gets the row at given index, as an instance of the row class of the query definition.
+	 * @param index the index of the row
+	 * @return the row, null if there is no such item.
+	 */
+	@SuppressWarnings("unchecked")
+	public R getRow(int index) {
+		final Item item = getItem(index);
+		return item != null ? (R) ((ProjectionItem) item).getRow() : null;
+	}
+
+}
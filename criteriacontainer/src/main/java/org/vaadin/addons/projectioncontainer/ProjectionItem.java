@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import java.util.Collection;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+/**
+ * An immutable row of a projection.
+ * 
+ * <p>The values are kept in an array; the property ids and types are shared by all the rows of the
+ * query.  Properties are created when asked for, and are read-only.</p>
+ * 
+ * @author jflamy
+ * 
+ */
+@SuppressWarnings("serial")
+public final class ProjectionItem implements Item {
+
+	private final ProjectionRowType rowType;
+	private final Object[] values;
+	private transient Object row;
+
+	/**
+	 * @param rowType the layout shared by the rows of the query
+	 * @param values the values, in property order
+	 */
+	ProjectionItem(ProjectionRowType rowType, Object[] values) {
+		this.rowType = rowType;
+		this.values = values;
+	}
+
+	@Override
+	public Property getItemProperty(Object id) {
+		final int index = rowType.indexOf(id);
+		return index < 0 ? null : new ValueProperty(index);
+	}
+
+	@Override
+	public Collection<?> getItemPropertyIds() {
+		return rowType.getPropertyIds();
+	}
+
+	@Override
+	public boolean addItemProperty(Object id, Property property) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("projection rows are immutable");
+	}
+
+	@Override
+	public boolean removeItemProperty(Object id) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException("projection rows are immutable");
+	}
+
+	/**
+	 * @param propertyId a property id
+	 * @return the value of the property, null if unknown
+	 */
+	public Object getValue(Object propertyId) {
+		final int index = rowType.indexOf(propertyId);
+		return index < 0 ? null : values[index];
+	}
+
+	/**
+	 * @return an instance of the row class of the query definition, created on first call.
+	 * @see ProjectionQueryDefinition#getRowClass()
+	 */
+	public Object getRow() {
+		if (row == null) {
+			row = rowType.newRow(values);
+		}
+		return row;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (Object propertyId : rowType.getPropertyIds()) {
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(getValue(propertyId));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Read-only view of one value.
+	 */
+	private final class ValueProperty implements Property {
+		private final int index;
+
+		private ValueProperty(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object getValue() {
+			return values[index];
+		}
+
+		@Override
+		public void setValue(Object newValue) throws ReadOnlyException, ConversionException {
+			throw new ReadOnlyException("projection rows are immutable");
+		}
+
+		@Override
+		public Class<?> getType() {
+			return rowType.getType(index);
+		}
+
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		public void setReadOnly(boolean newStatus) {
+			// always read-only
+		}
+
+		@Override
+		public String toString() {
+			final Object value = values[index];
+			return value != null ? value.toString() : null;
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import java.util.List;
+
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.beantuplecontainer.BeanTupleItemHelper;
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
+import org.vaadin.addons.beantuplecontainer.KeyManager;
+
+import com.vaadin.data.Item;
+
+/**
+ * Load batches of scalar tuples and create immutable {@link ProjectionItem}s.
+ * 
+ * <p>The tuples contain no entities: nothing is added to the persistence context, and there is
+ * nothing to detach.</p>
+ * 
+ * @author jflamy
+ * 
+ */
+public final class ProjectionItemHelper extends BeanTupleItemHelper {
+
+	@SuppressWarnings("unused")
+	final private static Logger logger = LoggerFactory.getLogger(ProjectionItemHelper.class);
+
+	private final Class<?> rowClass;
+	private final JdbcQueryExecutor jdbcQueryExecutor;
+	private ProjectionRowType rowType;
+
+	/**
+	 * @param queryDefinition the definition for the query
+	 * @param beanTupleQueryView Holds cache id to key mappings.
+	 */
+	public ProjectionItemHelper(BeanTupleQueryDefinition queryDefinition, KeyManager beanTupleQueryView) {
+		super(queryDefinition, beanTupleQueryView);
+		if (queryDefinition instanceof ProjectionQueryDefinition) {
+			rowClass = ((ProjectionQueryDefinition<?>) queryDefinition).getRowClass();
+			jdbcQueryExecutor = ((ProjectionQueryDefinition<?>) queryDefinition).getJdbcQueryExecutor();
+		} else {
+			rowClass = null;
+			jdbcQueryExecutor = null;
+		}
+	}
+
+
+	/**
+	 * Read the page with JDBC if an executor is defined and can apply the current filters and sort.
+	 * The rows then go through the same item creation and key mapping as JPA tuples.
+	 * @see org.vaadin.addons.beantuplecontainer.BeanTupleItemHelper#executeSelect(javax.persistence.TypedQuery)
+	 */
+	@Override
+	protected List<?> executeSelect(TypedQuery<Tuple> selectQuery) {
+		if (jdbcQueryExecutor == null || !jdbcQueryExecutor.accepts(queryDefinition)) {
+			return super.executeSelect(selectQuery);
+		}
+		final int firstResult = selectQuery.getFirstResult();
+		final int maxResults = selectQuery.getMaxResults();
+		final long start = System.nanoTime();
+		final List<Tuple> rows = jdbcQueryExecutor.read(queryDefinition, entityManager, firstResult, maxResults);
+		((ProjectionQueryDefinition<?>) queryDefinition).selectExecuted(System.nanoTime() - start, rows.size(), firstResult, maxResults);
+		return rows;
+	}
+
+
+	/**
+	 * All the rows of the query share the layout computed from the first one.
+	 * @see org.vaadin.addons.beantuplecontainer.BeanTupleItemHelper#toItem(javax.persistence.Tuple)
+	 */
+	@Override
+	protected Item toItem(final Tuple tuple) {
+		if (rowType == null) {
+			rowType = new ProjectionRowType(queryDefinition, tuple, rowClass);
+		}
+		return new ProjectionItem(rowType, rowType.values(tuple));
+	}
+
+
+	/**
+	 * Nothing to detach.
+	 * @see org.vaadin.addons.beantuplecontainer.BeanTupleItemHelper#detach(com.vaadin.data.Item, javax.persistence.Tuple)
+	 */
+	@Override
+	protected void detach(Item item, Tuple tuple) {
+	}
+
+
+	/**
+	 * Projection rows cannot be added.
+	 * @see org.vaadin.addons.beantuplecontainer.BeanTupleItemHelper#constructItem()
+	 */
+	@Override
+	public Item constructItem() {
+		throw new UnsupportedOperationException("projection rows are read-only");
+	}
+
+
+	/**
+	 * Projection rows cannot be saved.
+	 * @see org.vaadin.addons.beantuplecontainer.BeanTupleItemHelper#saveItems(java.util.List, java.util.List, java.util.List)
+	 */
+	@Override
+	public void saveItems(List<Item> addedItems, List<Item> modifiedItems, List<Item> removedItems) {
+		if (!addedItems.isEmpty() || !modifiedItems.isEmpty() || !removedItems.isEmpty()) {
+			throw new UnsupportedOperationException("projection rows are read-only");
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
+import org.vaadin.addons.criteriacore.QueryPhase;
+import org.vaadin.addons.criteriacore.ReadProfile;
+
+/**
+ * Definition of a query that selects values, not entities.
+ * 
+ * <p>{@link #defineQuery(CriteriaBuilder, CriteriaQuery)} must select scalar expressions (attributes,
+ * aggregates, computed values) with {@link CriteriaQuery#multiselect(javax.persistence.criteria.Selection...)},
+ * each with an alias that becomes the property id.  Selecting a whole entity is refused: no entity is ever
+ * created in the persistence context, and each row is kept as a {@link ProjectionItem}, an immutable array
+ * of values.</p>
+ * 
+ * <p>Filtering, sorting, counting and the key map work as for {@link BeanTupleQueryDefinition}.
+ * The {@link ReadProfile#displayOnly()} profile is used by default.</p>
+ * 
+ * <p>If a row class is given, {@link ProjectionContainer#getRow(Object)} creates an instance by calling its
+ * public constructor with the selected values, in selection order, as {@code cb.construct()} would.</p>
+ * 
+ * <p>For the heaviest grids, the pages can be read with plain JDBC; see {@link #setJdbcQueryExecutor(JdbcQueryExecutor)}.</p>
+ * 
+ * @author jflamy
+ * 
+ * @param <R> the row class, Object if none.
+ */
+public abstract class ProjectionQueryDefinition<R> extends BeanTupleQueryDefinition {
+
+	@SuppressWarnings("unused")
+	final private static Logger logger = LoggerFactory.getLogger(ProjectionQueryDefinition.class);
+
+	private Class<R> rowClass;
+	private JdbcQueryExecutor jdbcQueryExecutor;
+
+	/**
+	 * @param entityManager the EntityManager to reach the database
+	 * @param applicationManagedTransactions true unless using J2EE container-managed transactions
+	 * @param batchSize how many rows are retrieved at once
+	 */
+	public ProjectionQueryDefinition(EntityManager entityManager,
+			boolean applicationManagedTransactions, int batchSize) {
+		this(entityManager, applicationManagedTransactions, batchSize, null);
+	}
+
+	/**
+	 * @param entityManager the EntityManager to reach the database
+	 * @param applicationManagedTransactions true unless using J2EE container-managed transactions
+	 * @param batchSize how many rows are retrieved at once
+	 * @param rowClass the class created by {@link ProjectionContainer#getRow(Object)}, may be null
+	 */
+	public ProjectionQueryDefinition(EntityManager entityManager,
+			boolean applicationManagedTransactions, int batchSize, Class<R> rowClass) {
+		super(entityManager, applicationManagedTransactions, batchSize);
+		this.rowClass = rowClass;
+		setReadProfile(ReadProfile.displayOnly());
+		// there are no entities whose associations could be fetched.
+		setAutomaticFetchJoins(false);
+	}
+
+	/**
+	 * @return the class created from the values of a row, null if none.
+	 */
+	public Class<R> getRowClass() {
+		return rowClass;
+	}
+
+	/**
+	 * @return the executor that reads the pages with JDBC, null if they are read through JPA.
+	 */
+	public JdbcQueryExecutor getJdbcQueryExecutor() {
+		return jdbcQueryExecutor;
+	}
+
+	/**
+	 * @param jdbcQueryExecutor reads the pages with JDBC when there are no container filters; null to read
+	 *        them through JPA.
+	 */
+	public void setJdbcQueryExecutor(JdbcQueryExecutor jdbcQueryExecutor) {
+		this.jdbcQueryExecutor = jdbcQueryExecutor;
+	}
+
+	/**
+	 * Report a page read by the {@link JdbcQueryExecutor} to the query listeners.
+	 */
+	void selectExecuted(long durationNanos, int rowCount, int firstResult, int maxResults) {
+		fireQueryEvent(QueryPhase.SELECT, durationNanos, rowCount, firstResult, maxResults);
+	}
+
+	/**
+	 * Refuse entity selections, which would be created in the persistence context.
+	 * 
+	 * @see org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition#addEntityProperties(java.util.Map, javax.persistence.criteria.Path, boolean)
+	 */
+	@Override
+	protected void addEntityProperties(Map<Object, Expression<?>> expressionMap,
+			Path<?> entityPath, boolean defineProperties) {
+		throw new IllegalArgumentException(getClass().getSimpleName() + " selects entity "
+				+ entityPath.getJavaType().getSimpleName() + "; a projection must select attributes or expressions.");
+	}
+
+	/**
+	 * There are no entities to attach the associations to.
+	 * 
+	 * @see org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition#addBatchLoadedAssociation(java.lang.String, java.lang.Object)
+	 */
+	@Override
+	public void addBatchLoadedAssociation(String path, Object itemPropertyId) {
+		throw new UnsupportedOperationException("a projection does not load entities; join and select the values instead.");
+	}
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryFactory;
+import org.vaadin.addons.lazyquerycontainer.Query;
+
+/**
+ * Create a query that returns {@link ProjectionItem}s.
+ * 
+ * @author jflamy
+ */
+public class ProjectionQueryFactory extends BeanTupleQueryFactory {
+
+	@Override
+	protected Query constructItemHelper() {
+		return new ProjectionItemHelper(queryDefinition, beanTupleQueryView);
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.projectioncontainer;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+
+import org.vaadin.addons.beantuplecontainer.BeanTupleQueryDefinition;
+
+/**
+ * The layout shared by all the rows of a projection: property ids, their position in the value array,
+ * their types, and the position of each selection.
+ * 
+ * @author jflamy
+ * 
+ */
+@SuppressWarnings("serial")
+final class ProjectionRowType implements Serializable {
+
+	private final List<Object> propertyIds;
+	private final Map<Object, Integer> indexes = new HashMap<Object, Integer>();
+	private final Class<?>[] types;
+	private final Object[] defaultValues;
+	/** for each element of the tuple, in selection order, its position in the values */
+	private final int[] selectionIndexes;
+	private final Class<?> rowClass;
+	private transient Constructor<?> rowConstructor;
+
+	/**
+	 * Compute the layout from the first tuple returned by a query.
+	 * 
+	 * @param queryDefinition the definition of the properties
+	 * @param tuple a tuple returned by the query
+	 * @param rowClass the class created from the values, null if none
+	 */
+	ProjectionRowType(BeanTupleQueryDefinition queryDefinition, Tuple tuple, Class<?> rowClass) {
+		this.rowClass = rowClass;
+		final List<Object> ids = new ArrayList<Object>(queryDefinition.getPropertyIds());
+		final List<TupleElement<?>> elements = tuple.getElements();
+		selectionIndexes = new int[elements.size()];
+		for (int i = 0; i < elements.size(); i++) {
+			final String alias = elements.get(i).getAlias();
+			if (alias == null) {
+				throw new RuntimeException("Selection element "+elements.get(i).toString()+" does not have an alias");
+			}
+			int index = ids.indexOf(alias);
+			if (index < 0) {
+				index = ids.size();
+				ids.add(alias);
+			}
+			selectionIndexes[i] = index;
+		}
+		propertyIds = Collections.unmodifiableList(ids);
+		types = new Class<?>[ids.size()];
+		defaultValues = new Object[ids.size()];
+		for (int i = 0; i < ids.size(); i++) {
+			final Object propertyId = ids.get(i);
+			indexes.put(propertyId, i);
+			final Class<?> type = queryDefinition.getPropertyType(propertyId);
+			types[i] = type != null ? type : Object.class;
+			defaultValues[i] = queryDefinition.getPropertyDefaultValue(propertyId);
+		}
+	}
+
+	/**
+	 * @param tuple a row returned by the query
+	 * @return the values of the properties, in property order
+	 */
+	Object[] values(Tuple tuple) {
+		final Object[] values = defaultValues.clone();
+		for (int i = 0; i < selectionIndexes.length; i++) {
+			values[selectionIndexes[i]] = tuple.get(i);
+		}
+		return values;
+	}
+
+	/**
+	 * @param propertyId a property id
+	 * @return its position in the values, -1 if unknown.
+	 */
+	int indexOf(Object propertyId) {
+		final Integer index = indexes.get(propertyId);
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * @return the property ids, in property order
+	 */
+	List<Object> getPropertyIds() {
+		return propertyIds;
+	}
+
+	/**
+	 * @param index position in the values
+	 * @return the type of the property
+	 */
+	Class<?> getType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * Create an instance of the row class from the selected values, in selection order.
+	 * 
+	 * @param values the values of a row
+	 * @return the new instance
+	 */
+	Object newRow(Object[] values) {
+		if (rowClass == null) {
+			throw new IllegalStateException("no row class was given to the query definition");
+		}
+		final Object[] arguments = new Object[selectionIndexes.length];
+		for (int i = 0; i < selectionIndexes.length; i++) {
+			arguments[i] = values[selectionIndexes[i]];
+		}
+		try {
+			if (rowConstructor == null) {
+				rowConstructor = findConstructor(arguments);
+			}
+			return rowConstructor.newInstance(arguments);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("cannot create "+rowClass.getName(), e);
+		}
+	}
+
+	/**
+	 * @param arguments the values of a row
+	 * @return the first public constructor that accepts the values
+	 */
+	private Constructor<?> findConstructor(Object[] arguments) {
+		for (Constructor<?> constructor : rowClass.getConstructors()) {
+			final Class<?>[] parameterTypes = constructor.getParameterTypes();
+			if (parameterTypes.length != arguments.length) {
+				continue;
+			}
+			boolean accepted = true;
+			for (int i = 0; i < arguments.length && accepted; i++) {
+				accepted = arguments[i] == null
+						? !parameterTypes[i].isPrimitive()
+						: wrapper(parameterTypes[i]).isInstance(arguments[i]);
+			}
+			if (accepted) {
+				return constructor;
+			}
+		}
+		throw new IllegalArgumentException(rowClass.getName()+" has no public constructor for the "
+				+arguments.length+" selected values "+propertyIds);
+	}
+
+	/**
+	 * @param type a parameter type
+	 * @return the wrapper class for a primitive type, the type otherwise.
+	 */
+	private static Class<?> wrapper(Class<?> type) {
+		if (!type.isPrimitive()) return type;
+		if (type == int.class) return Integer.class;
+		if (type == long.class) return Long.class;
+		if (type == double.class) return Double.class;
+		if (type == boolean.class) return Boolean.class;
+		if (type == float.class) return Float.class;
+		if (type == short.class) return Short.class;
+		if (type == byte.class) return Byte.class;
+		if (type == char.class) return Character.class;
+		return Void.class;
+	}
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+
+import org.junit.Test;
+
+/**
+ * Delivery of background counts by {@link AsynchronousCounter}, and release of the EntityManager reserved for them.
+ * 
+ * @author jflamy
+ */
+public class AsynchronousCounterTest {
+
+	@Test
+	public void countIsDeliveredAndEntityManagerClosed() {
+		final Recorder recorder = new Recorder();
+		AsynchronousCounter.submit(countQuery(Long.valueOf(42L), null), recorder.entityManager(), new DirectExecutor(false), recorder);
+		assertEquals(42, recorder.count);
+		assertNull(recorder.failure);
+		assertEquals(0, recorder.closed.getCount());
+	}
+
+	@Test
+	public void failedCountIsReportedAndEntityManagerClosed() {
+		final Recorder recorder = new Recorder();
+		final PersistenceException failure = new PersistenceException("query timeout");
+		AsynchronousCounter.submit(countQuery(null, failure), recorder.entityManager(), new DirectExecutor(false), recorder);
+		assertSame(failure, recorder.failure);
+		assertEquals(-1, recorder.count);
+		assertEquals(0, recorder.closed.getCount());
+	}
+
+	@Test
+	public void rejectedCountIsReportedAndEntityManagerClosed() {
+		final Recorder recorder = new Recorder();
+		AsynchronousCounter.submit(countQuery(Long.valueOf(42L), null), recorder.entityManager(), new DirectExecutor(true), recorder);
+		assertTrue(recorder.failure instanceof RejectedExecutionException);
+		assertEquals(-1, recorder.count);
+		assertEquals(0, recorder.closed.getCount());
+	}
+
+	@Test
+	public void sharedExecutorIsCreatedAgainAfterShutdown() throws InterruptedException {
+		AsynchronousCounter.shutdown();
+		final Recorder recorder = new Recorder();
+		AsynchronousCounter.submit(countQuery(Integer.valueOf(7), null), recorder.entityManager(), null, recorder);
+		assertTrue(recorder.closed.await(10, TimeUnit.SECONDS));
+		assertEquals(7, recorder.count);
+		AsynchronousCounter.shutdown();
+	}
+
+	/**
+	 * @param result the value of the count
+	 * @param failure thrown instead of returning the count, if not null
+	 * @return the count query
+	 */
+	@SuppressWarnings("unchecked")
+	private static TypedQuery<Object> countQuery(final Object result, final RuntimeException failure) {
+		return Stubs.stub(TypedQuery.class, new Stubs.Answer() {
+			@Override
+			public Object answer(String method, Object[] args) {
+				if ("getSingleResult".equals(method)) {
+					if (failure != null) {
+						throw failure;
+					}
+					return result;
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Records the outcome of a count, and the closing of its EntityManager (the last step).
+	 */
+	private static class Recorder implements AsynchronousCounter.Callback {
+		volatile int count = -1;
+		volatile RuntimeException failure;
+		final CountDownLatch closed = new CountDownLatch(1);
+
+		EntityManager entityManager() {
+			return Stubs.stub(EntityManager.class, new Stubs.Answer() {
+				@Override
+				public Object answer(String method, Object[] args) {
+					if ("close".equals(method)) {
+						closed.countDown();
+					}
+					return null;
+				}
+			});
+		}
+
+		@Override
+		public void countComputed(int computed, long startNanos) {
+			count = computed;
+		}
+
+		@Override
+		public void countFailed(RuntimeException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Runs the tasks in the calling thread, or rejects them all.
+	 */
+	private static class DirectExecutor extends AbstractExecutorService {
+		private final boolean rejecting;
+
+		DirectExecutor(boolean rejecting) {
+			this.rejecting = rejecting;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			if (rejecting) {
+				throw new RejectedExecutionException("queue full");
+			}
+			command.run();
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+}
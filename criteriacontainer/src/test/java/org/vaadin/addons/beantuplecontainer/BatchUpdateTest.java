@@ -0,0 +1,142 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Refreshes postponed by {@link BeanTupleContainer#batchUpdate(Runnable)}.
+ * 
+ * @author jflamy
+ */
+public class BatchUpdateTest {
+
+	@Test
+	public void refreshOutsideBatchIsImmediate() {
+		final CountingQueryView view = new CountingQueryView();
+		new BeanTupleContainer(view).refresh();
+		assertEquals(1, view.refreshes);
+	}
+
+	@Test
+	public void refreshesInBatchAreMerged() {
+		final CountingQueryView view = new CountingQueryView();
+		final BeanTupleContainer container = new BeanTupleContainer(view);
+		container.batchUpdate(new Runnable() {
+			@Override
+			public void run() {
+				container.refresh();
+				container.refresh();
+				container.refresh();
+				assertEquals(0, view.refreshes);
+			}
+		});
+		assertEquals(1, view.refreshes);
+	}
+
+	@Test
+	public void nestedBatchRefreshesAtOutermostEnd() {
+		final CountingQueryView view = new CountingQueryView();
+		final BeanTupleContainer container = new BeanTupleContainer(view);
+		container.batchUpdate(new Runnable() {
+			@Override
+			public void run() {
+				container.batchUpdate(new Runnable() {
+					@Override
+					public void run() {
+						container.refresh();
+					}
+				});
+				assertEquals(0, view.refreshes);
+				container.refresh();
+			}
+		});
+		assertEquals(1, view.refreshes);
+	}
+
+	@Test
+	public void readInBatchPerformsPendingRefresh() {
+		final CountingQueryView view = new CountingQueryView();
+		final BeanTupleContainer container = new BeanTupleContainer(view);
+		container.batchUpdate(new Runnable() {
+			@Override
+			public void run() {
+				container.refresh();
+				container.size();
+				assertEquals(1, view.refreshes);
+			}
+		});
+		// nothing changed after the read.
+		assertEquals(1, view.refreshes);
+	}
+
+	@Test
+	public void batchWithoutRefreshDoesNotRefresh() {
+		final CountingQueryView view = new CountingQueryView();
+		new BeanTupleContainer(view).batchUpdate(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		assertEquals(0, view.refreshes);
+	}
+
+	@Test
+	public void failedBatchStillRefreshes() {
+		final CountingQueryView view = new CountingQueryView();
+		final BeanTupleContainer container = new BeanTupleContainer(view);
+		try {
+			container.batchUpdate(new Runnable() {
+				@Override
+				public void run() {
+					container.refresh();
+					throw new IllegalStateException("change failed");
+				}
+			});
+			fail("exception expected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, view.refreshes);
+		// the batch is over: refreshes are immediate again.
+		container.refresh();
+		assertEquals(2, view.refreshes);
+	}
+
+	/**
+	 * Counts the refreshes that reach the view, without querying.
+	 */
+	private static class CountingQueryView extends BeanTupleQueryView {
+		int refreshes = 0;
+
+		CountingQueryView() {
+			super(new StubQueryDefinition(), new BeanTupleQueryFactory());
+		}
+
+		@Override
+		public void refresh() {
+			refreshes++;
+		}
+
+		@Override
+		public int size() {
+			return 0;
+		}
+	}
+}
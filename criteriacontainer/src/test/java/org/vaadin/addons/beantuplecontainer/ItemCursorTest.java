@@ -0,0 +1,249 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+
+import org.junit.Test;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+
+/**
+ * Reading of all the items by chunks with {@link ItemCursor}, with keyset or positional paging.
+ * 
+ * @author jflamy
+ */
+public class ItemCursorTest {
+
+	/** the reads made by the cursor, in order */
+	private final List<String> reads = new ArrayList<String>();
+	private int clears = 0;
+	private boolean closed = false;
+
+	private final EntityManager cursorEntityManager = Stubs.stub(EntityManager.class, new Stubs.Answer() {
+		@Override
+		public Object answer(String method, Object[] args) {
+			if ("clear".equals(method)) {
+				clears++;
+			} else if ("close".equals(method)) {
+				closed = true;
+			}
+			return null;
+		}
+	});
+
+	private final EntityManager entityManager = Stubs.stub(EntityManager.class, new Stubs.Answer() {
+		@Override
+		public Object answer(String method, Object[] args) {
+			if ("getEntityManagerFactory".equals(method)) {
+				return Stubs.stub(EntityManagerFactory.class, new Stubs.Answer() {
+					@Override
+					public Object answer(String factoryMethod, Object[] factoryArgs) {
+						return "createEntityManager".equals(factoryMethod) ? cursorEntityManager : null;
+					}
+				});
+			}
+			return null;
+		}
+	});
+
+	@Test
+	public void keysetChunksStartAfterLastKey() {
+		final TableDefinition queryDefinition = new TableDefinition(25);
+		assertEquals(range(1, 25), readAll(new ItemCursor(queryDefinition, new KeyItemHelper(queryDefinition), "id", 10)));
+		assertEquals(Arrays.asList("first", "after 10", "after 20"), reads);
+		assertEquals(3, clears);
+		assertTrue(closed);
+	}
+
+	@Test
+	public void descendingSortOnKeyUsesKeyset() {
+		final TableDefinition queryDefinition = new TableDefinition(25);
+		queryDefinition.setSortState(new Object[] { "id" }, new boolean[] { false });
+		assertEquals(range(25, 1), readAll(new ItemCursor(queryDefinition, new KeyItemHelper(queryDefinition), "id", 10)));
+		assertEquals(Arrays.asList("first", "after 16", "after 6"), reads);
+	}
+
+	@Test
+	public void exactMultipleEndsWithEmptyChunk() {
+		final TableDefinition queryDefinition = new TableDefinition(20);
+		final ItemCursor cursor = new ItemCursor(queryDefinition, new KeyItemHelper(queryDefinition), "id", 10);
+		assertEquals(range(1, 20), readAll(cursor));
+		assertEquals(Arrays.asList("first", "after 10", "after 20"), reads);
+		assertEquals(20, cursor.getPosition());
+	}
+
+	@Test
+	public void sortOnOtherPropertyReadsByPosition() {
+		final TableDefinition queryDefinition = new TableDefinition(25);
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		assertEquals(range(1, 25), readAll(new ItemCursor(queryDefinition, new KeyItemHelper(queryDefinition), "id", 10)));
+		assertEquals(Arrays.asList("position 0", "position 10", "position 20"), reads);
+	}
+
+	@Test
+	public void noKeyReadsByPosition() {
+		final TableDefinition queryDefinition = new TableDefinition(15);
+		assertEquals(range(1, 15), readAll(new ItemCursor(queryDefinition, new KeyItemHelper(queryDefinition), null, 10)));
+		assertEquals(Arrays.asList("position 0", "position 10"), reads);
+	}
+
+	@Test
+	public void closeReleasesEntityManager() {
+		final TableDefinition queryDefinition = new TableDefinition(25);
+		final ItemCursor cursor = new ItemCursor(queryDefinition, new KeyItemHelper(queryDefinition), "id", 10);
+		cursor.next();
+		cursor.close();
+		assertTrue(closed);
+		assertFalse(cursor.hasNext());
+		assertEquals(1, reads.size());
+	}
+
+	private static List<Object> readAll(ItemCursor cursor) {
+		final List<Object> keys = new ArrayList<Object>();
+		while (cursor.hasNext()) {
+			keys.add(cursor.next().getItemProperty("id").getValue());
+		}
+		return keys;
+	}
+
+	private static List<Object> range(int from, int to) {
+		final List<Object> keys = new ArrayList<Object>();
+		for (int key = from; from <= to ? key <= to : key >= to; key += from <= to ? 1 : -1) {
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	/**
+	 * A table whose rows hold the keys 1 to rows, read through stub queries that record their use.
+	 */
+	private class TableDefinition extends StubQueryDefinition {
+		private final int rows;
+
+		TableDefinition(int rows) {
+			super(entityManager);
+			this.rows = rows;
+		}
+
+		@Override
+		public TypedQuery<Tuple> getKeysetQuery(EntityManager queryEntityManager, Object keyPropertyId, boolean ascending, boolean after) {
+			assertSame(cursorEntityManager, queryEntityManager);
+			return query(new TableQuery(rows, true, ascending, after));
+		}
+
+		@Override
+		public TypedQuery<Tuple> getSelectQuery(EntityManager queryEntityManager) {
+			assertSame(cursorEntityManager, queryEntityManager);
+			return query(new TableQuery(rows, false, true, false));
+		}
+
+		@SuppressWarnings("unchecked")
+		private TypedQuery<Tuple> query(TableQuery answer) {
+			return Stubs.stub(TypedQuery.class, answer);
+		}
+	}
+
+	/**
+	 * Returns the keys after the last key (keyset paging) or from the first result (positional paging).
+	 */
+	private class TableQuery implements Stubs.Answer {
+		private final int rows;
+		private final boolean keyset;
+		private final boolean ascending;
+		private final boolean after;
+		private int firstResult = 0;
+		private int maxResults = Integer.MAX_VALUE;
+		private Integer lastKey;
+
+		TableQuery(int rows, boolean keyset, boolean ascending, boolean after) {
+			this.rows = rows;
+			this.keyset = keyset;
+			this.ascending = ascending;
+			this.after = after;
+		}
+
+		@Override
+		public Object answer(String method, Object[] args) {
+			if ("setParameter".equals(method)) {
+				assertEquals(BeanTupleQueryDefinition.KEYSET_PARAMETER, args[0]);
+				lastKey = (Integer) args[1];
+			} else if ("setFirstResult".equals(method)) {
+				firstResult = (Integer) args[0];
+			} else if ("setMaxResults".equals(method)) {
+				maxResults = (Integer) args[0];
+			} else if ("getResultList".equals(method)) {
+				reads.add(keyset ? (after ? "after " + lastKey : "first") : "position " + firstResult);
+				final List<Tuple> result = new ArrayList<Tuple>();
+				int skipped = 0;
+				for (Object key : ascending ? range(1, rows) : range(rows, 1)) {
+					final int value = (Integer) key;
+					if (after && (ascending ? value <= lastKey : value >= lastKey)) {
+						continue;
+					}
+					if (skipped++ < firstResult) {
+						continue;
+					}
+					if (result.size() == maxResults) {
+						break;
+					}
+					result.add(tuple(key));
+				}
+				return result;
+			}
+			return null;
+		}
+	}
+
+	private static Tuple tuple(final Object key) {
+		return Stubs.stub(Tuple.class, new Stubs.Answer() {
+			@Override
+			public Object answer(String method, Object[] args) {
+				return "toArray".equals(method) ? new Object[] { key } : null;
+			}
+		});
+	}
+
+	/**
+	 * Makes items that hold the key of the row.
+	 */
+	private static class KeyItemHelper extends BeanTupleItemHelper {
+		KeyItemHelper(BeanTupleQueryDefinition queryDefinition) {
+			super(queryDefinition, null);
+		}
+
+		@Override
+		protected Item toItem(Tuple tuple) {
+			final PropertysetItem item = new PropertysetItem();
+			item.addItemProperty("id", new ObjectProperty<Object>(tuple.toArray()[0], Object.class));
+			return item;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+
+import org.junit.Test;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.BeanItem;
+
+/**
+ * Detaching of the entities of old pages by {@link ManagedEntityTracker}.
+ * 
+ * @author jflamy
+ */
+public class ManagedEntityTrackerTest {
+
+	/** mapped in the stub metamodel */
+	public static class Person {
+	}
+
+	/** a subclass generated by the provider for lazy loading */
+	public static class PersonProxy extends Person {
+	}
+
+	private final Metamodel metamodel = Stubs.stub(Metamodel.class, new Stubs.Answer() {
+		@Override
+		public Object answer(String method, Object[] args) {
+			if ("entity".equals(method)) {
+				if (args[0] != Person.class) {
+					throw new IllegalArgumentException(args[0] + " is not an entity");
+				}
+				return Stubs.stub(EntityType.class, Stubs.NOTHING);
+			}
+			return null;
+		}
+	});
+	private final List<Object> detached = new ArrayList<Object>();
+	private int clears = 0;
+	private final EntityManager entityManager = Stubs.stub(EntityManager.class, new Stubs.Answer() {
+		@Override
+		public Object answer(String method, Object[] args) {
+			if ("getMetamodel".equals(method)) {
+				return metamodel;
+			} else if ("contains".equals(method)) {
+				return !detached.contains(args[0]);
+			} else if ("detach".equals(method)) {
+				detached.add(args[0]);
+			} else if ("clear".equals(method)) {
+				clears++;
+			}
+			return null;
+		}
+	});
+	private final List<Item> noChanges = Collections.emptyList();
+
+	@Test
+	public void pagesWithinBudgetStayManaged() {
+		final ManagedEntityTracker tracker = new ManagedEntityTracker();
+		tracker.afterLoad(entityManager, page(10), 20, noChanges);
+		tracker.afterLoad(entityManager, page(10), 20, noChanges);
+		assertEquals(20, tracker.getManagedRows());
+		assertTrue(detached.isEmpty());
+	}
+
+	@Test
+	public void oldestPageIsDetachedOverBudget() {
+		final ManagedEntityTracker tracker = new ManagedEntityTracker();
+		final List<Tuple> first = page(10);
+		tracker.afterLoad(entityManager, first, 20, noChanges);
+		tracker.afterLoad(entityManager, page(10), 20, noChanges);
+		tracker.afterLoad(entityManager, page(10), 20, noChanges);
+		assertEquals(20, tracker.getManagedRows());
+		assertEquals(entities(first), detached);
+	}
+
+	@Test
+	public void latestPageStaysManagedEvenOverBudget() {
+		final ManagedEntityTracker tracker = new ManagedEntityTracker();
+		final List<Tuple> first = page(30);
+		tracker.afterLoad(entityManager, first, 10, noChanges);
+		assertEquals(30, tracker.getManagedRows());
+		assertTrue(detached.isEmpty());
+		tracker.afterLoad(entityManager, page(5), 10, noChanges);
+		assertEquals(5, tracker.getManagedRows());
+		assertEquals(entities(first), detached);
+	}
+
+	@Test
+	public void entityInRecentPageStaysManaged() {
+		final ManagedEntityTracker tracker = new ManagedEntityTracker();
+		final List<Tuple> first = page(10);
+		final Object shared = first.get(0).toArray()[0];
+		tracker.afterLoad(entityManager, first, 10, noChanges);
+		tracker.afterLoad(entityManager, Collections.singletonList(tuple(shared, "again")), 10, noChanges);
+		assertEquals(9, detached.size());
+		assertFalse(detached.contains(shared));
+	}
+
+	@Test
+	public void entityWithPendingChangesStaysManaged() {
+		final ManagedEntityTracker tracker = new ManagedEntityTracker();
+		final List<Tuple> first = page(10);
+		final Object modified = first.get(3).toArray()[0];
+		tracker.afterLoad(entityManager, first, 10, noChanges);
+		final List<Item> modifiedItems = Collections.<Item> singletonList(new BeanItem<Object>(modified));
+		tracker.afterLoad(entityManager, page(10), 10, modifiedItems);
+		assertEquals(9, detached.size());
+		assertFalse(detached.contains(modified));
+	}
+
+	@Test
+	public void proxiesAreDetachedAndOtherValuesIgnored() {
+		final ManagedEntityTracker tracker = new ManagedEntityTracker();
+		final PersonProxy proxy = new PersonProxy();
+		tracker.afterLoad(entityManager, Collections.singletonList(tuple(proxy, "label")), 1, noChanges);
+		tracker.afterLoad(entityManager, page(1), 1, noChanges);
+		assertEquals(Collections.<Object> singletonList(proxy), detached);
+	}
+
+	@Test
+	public void contextIsClearedWhenNextPageExceedsBudget() {
+		final ManagedEntityTracker tracker = new ManagedEntityTracker();
+		tracker.afterLoad(entityManager, page(10), 20, noChanges);
+		tracker.beforeLoad(entityManager, 10, 20);
+		assertEquals(0, clears);
+		tracker.beforeLoad(entityManager, 15, 20);
+		assertEquals(1, clears);
+		assertEquals(0, tracker.getManagedRows());
+	}
+
+	/**
+	 * @return rows holding a new entity and a label
+	 */
+	private static List<Tuple> page(int rows) {
+		final List<Tuple> page = new ArrayList<Tuple>();
+		for (int i = 0; i < rows; i++) {
+			page.add(tuple(new Person(), "row " + i));
+		}
+		return page;
+	}
+
+	private static Tuple tuple(final Object... values) {
+		return Stubs.stub(Tuple.class, new Stubs.Answer() {
+			@Override
+			public Object answer(String method, Object[] args) {
+				return "toArray".equals(method) ? values.clone() : null;
+			}
+		});
+	}
+
+	private static List<Object> entities(List<Tuple> page) {
+		final List<Object> entities = new ArrayList<Object>();
+		for (Tuple tuple : page) {
+			entities.add(tuple.toArray()[0]);
+		}
+		return entities;
+	}
+}
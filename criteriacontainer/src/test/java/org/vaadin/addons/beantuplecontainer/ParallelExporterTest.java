@@ -0,0 +1,249 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+
+import org.junit.Test;
+import org.vaadin.addons.lazyquerycontainer.Query;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+
+/**
+ * Splitting of an export in key ranges by {@link ParallelExporter}.
+ * 
+ * @author jflamy
+ */
+public class ParallelExporterTest {
+
+	/** the ranges read, as lower..upper; the ranges are read by several threads */
+	private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+
+	private final EntityManager entityManager = Stubs.stub(EntityManager.class, new Stubs.Answer() {
+		@Override
+		public Object answer(String method, Object[] args) {
+			if ("getEntityManagerFactory".equals(method)) {
+				return Stubs.stub(EntityManagerFactory.class, new Stubs.Answer() {
+					@Override
+					public Object answer(String factoryMethod, Object[] factoryArgs) {
+						return "createEntityManager".equals(factoryMethod) ? Stubs.stub(EntityManager.class, Stubs.NOTHING) : null;
+					}
+				});
+			}
+			return null;
+		}
+	});
+
+	@Test
+	public void rangesEndAtRegularPositions() {
+		assertArrayEquals(new int[] { 7, 15 }, ParallelExporter.probePositions(25, 3, 5));
+		assertArrayEquals(new int[] { 249, 499, 749 }, ParallelExporter.probePositions(1000, 4, 100));
+	}
+
+	@Test
+	public void resultWithinOneChunkIsNotSplit() {
+		assertArrayEquals(new int[0], ParallelExporter.probePositions(100, 4, 100));
+		assertArrayEquals(new int[0], ParallelExporter.probePositions(0, 4, 100));
+	}
+
+	@Test
+	public void fewerRowsThanRangesGiveNoEmptyRange() {
+		assertArrayEquals(new int[] { 0, 1 }, ParallelExporter.probePositions(3, 8, 1));
+	}
+
+	@Test
+	public void partitionsAreCapped() {
+		assertEquals(ParallelExporter.MAX_PARTITIONS, new ParallelExporter(null, null, "id", 1000, 100).getPartitions());
+		assertEquals(1, new ParallelExporter(null, null, "id", 0, 100).getPartitions());
+	}
+
+	@Test
+	public void rangesAreWrittenInKeyOrder() throws IOException {
+		final TableDefinition queryDefinition = new TableDefinition(25);
+		final ParallelExporter exporter = new ParallelExporter(queryDefinition, new KeyQueryFactory(queryDefinition), "id", 3, 5);
+		final StringWriter out = new StringWriter();
+		assertEquals(25, exporter.export(new ParallelExporter.ItemWriter() {
+			@Override
+			public void write(Item item, Writer writer) throws IOException {
+				writer.write(item.getItemProperty("id").getValue() + " ");
+			}
+		}, out));
+		final StringBuilder expected = new StringBuilder();
+		for (int key = 1; key <= 25; key++) {
+			expected.append(key).append(' ');
+		}
+		assertEquals(expected.toString(), out.toString());
+		assertEquals(new HashSet<String>(Arrays.asList("..8", "8..16", "16..")), new HashSet<String>(ranges));
+		assertEquals(3, ranges.size());
+	}
+
+	@Test
+	public void sortOnOtherPropertyIsNotSplit() throws IOException {
+		final TableDefinition queryDefinition = new TableDefinition(25);
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		final ParallelExporter exporter = new ParallelExporter(queryDefinition, new KeyQueryFactory(queryDefinition), "id", 3, 5);
+		assertEquals(25, exporter.export(new ParallelExporter.ItemWriter() {
+			@Override
+			public void write(Item item, Writer writer) {
+			}
+		}, new StringWriter()));
+		assertEquals(Arrays.asList("position"), ranges);
+	}
+
+	/**
+	 * A table whose rows hold the keys 1 to rows.
+	 */
+	private class TableDefinition extends StubQueryDefinition {
+		private final int rows;
+		/** the cursors create their first query, then the query for the next chunks */
+		private int rangeQueries = 0;
+
+		TableDefinition(int rows) {
+			super(entityManager);
+			this.rows = rows;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public TypedQuery<Object> getCountQuery(EntityManager queryEntityManager) {
+			return Stubs.stub(TypedQuery.class, new Stubs.Answer() {
+				@Override
+				public Object answer(String method, Object[] args) {
+					return "getSingleResult".equals(method) ? Long.valueOf(rows) : null;
+				}
+			});
+		}
+
+		@Override
+		public TypedQuery<Tuple> getKeysetQuery(EntityManager queryEntityManager, Object keyPropertyId, boolean ascending, boolean after) {
+			return query(new RangeQuery(rows, after, false, false));
+		}
+
+		@Override
+		public TypedQuery<Tuple> getKeyRangeQuery(EntityManager queryEntityManager, Object keyPropertyId, boolean after, boolean until) {
+			return query(new RangeQuery(rows, after, until, rangeQueries++ % 2 == 0));
+		}
+
+		@Override
+		public TypedQuery<Tuple> getSelectQuery(EntityManager queryEntityManager) {
+			ranges.add("position");
+			return query(new RangeQuery(rows, false, false, false));
+		}
+
+		@SuppressWarnings("unchecked")
+		private TypedQuery<Tuple> query(RangeQuery answer) {
+			return Stubs.stub(TypedQuery.class, answer);
+		}
+	}
+
+	/**
+	 * Returns the keys in ascending order, between the bounds given as parameters.
+	 */
+	private class RangeQuery implements Stubs.Answer {
+		private final int rows;
+		private final boolean after;
+		private final boolean until;
+		private final boolean first;
+		private int firstResult = 0;
+		private int maxResults = Integer.MAX_VALUE;
+		private Integer lowerKey;
+		private Integer upperKey;
+
+		RangeQuery(int rows, boolean after, boolean until, boolean first) {
+			this.rows = rows;
+			this.after = after;
+			this.until = until;
+			this.first = first;
+		}
+
+		@Override
+		public Object answer(String method, Object[] args) {
+			if ("setParameter".equals(method)) {
+				if (BeanTupleQueryDefinition.KEYSET_UPPER_PARAMETER.equals(args[0])) {
+					upperKey = (Integer) args[1];
+				} else {
+					lowerKey = (Integer) args[1];
+				}
+			} else if ("setFirstResult".equals(method)) {
+				firstResult = (Integer) args[0];
+			} else if ("setMaxResults".equals(method)) {
+				maxResults = (Integer) args[0];
+			} else if ("getResultList".equals(method)) {
+				if (first) {
+					ranges.add((lowerKey != null ? lowerKey.toString() : "") + ".." + (until ? upperKey.toString() : ""));
+				}
+				final List<Tuple> result = new ArrayList<Tuple>();
+				for (int key = firstResult + 1; key <= rows && result.size() < maxResults; key++) {
+					if ((after && key <= lowerKey) || (until && key > upperKey)) {
+						continue;
+					}
+					result.add(tuple(key));
+				}
+				return result;
+			}
+			return null;
+		}
+	}
+
+	private static Tuple tuple(final Object key) {
+		return Stubs.stub(Tuple.class, new Stubs.Answer() {
+			@Override
+			public Object answer(String method, Object[] args) {
+				return "toArray".equals(method) ? new Object[] { key } : null;
+			}
+		});
+	}
+
+	/**
+	 * Creates item helpers that make items holding the key of the row.
+	 */
+	private static class KeyQueryFactory extends BeanTupleQueryFactory {
+		private final BeanTupleQueryDefinition queryDefinition;
+
+		KeyQueryFactory(BeanTupleQueryDefinition queryDefinition) {
+			this.queryDefinition = queryDefinition;
+		}
+
+		@Override
+		protected Query constructItemHelper() {
+			return new BeanTupleItemHelper(queryDefinition, null) {
+				@Override
+				protected Item toItem(Tuple tuple) {
+					final PropertysetItem item = new PropertysetItem();
+					item.addItemProperty("id", new ObjectProperty<Object>(tuple.toArray()[0], Object.class));
+					return item;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.vaadin.data.Item;
+
+/**
+ * Pages served by {@link ResidentItemHelper} from the items computed in memory.
+ * 
+ * @author jflamy
+ */
+public class ResidentItemHelperTest {
+
+	private final List<Item> items = Arrays.asList(
+			ResidentResultTest.item(7, "alice", 20), ResidentResultTest.item(3, "bob", 30), ResidentResultTest.item(5, "carol", 40));
+
+	@Test
+	public void pageIsClampedToTheEnd() {
+		final Map<Object, Integer> keyToId = new HashMap<Object, Integer>();
+		final ResidentItemHelper helper = new ResidentItemHelper(null, items, keyManager("id", keyToId));
+		assertEquals(3, helper.size());
+		assertEquals("[3, 5]", ResidentResultTest.ids(helper.loadItems(1, 10)));
+		assertTrue(helper.loadItems(3, 10).isEmpty());
+	}
+
+	@Test
+	public void keysAreMappedToTheirIndex() {
+		final Map<Object, Integer> keyToId = new HashMap<Object, Integer>();
+		new ResidentItemHelper(null, items, keyManager("id", keyToId)).loadItems(0, 3);
+		assertEquals(Integer.valueOf(0), keyToId.get(7));
+		assertEquals(Integer.valueOf(1), keyToId.get(3));
+		assertEquals(Integer.valueOf(2), keyToId.get(5));
+	}
+
+	@Test
+	public void indexesAreTheKeysWithoutKeyProperty() {
+		final Map<Object, Integer> keyToId = new HashMap<Object, Integer>();
+		new ResidentItemHelper(null, items, keyManager(null, keyToId)).loadItems(1, 2);
+		assertEquals(2, keyToId.size());
+		assertEquals(Integer.valueOf(2), keyToId.get(2));
+	}
+
+	private static KeyManager keyManager(final Object keyPropertyId, final Map<Object, Integer> keyToId) {
+		return Stubs.stub(KeyManager.class, new Stubs.Answer() {
+			@Override
+			public Object answer(String method, Object[] args) {
+				if ("getKeyPropertyId".equals(method)) {
+					return keyPropertyId;
+				} else if ("getKeyToId".equals(method)) {
+					return keyToId;
+				}
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import com.vaadin.data.util.filter.Compare;
+
+/**
+ * Results computed from memory by {@link ResidentResult} when only the sort or the filters change.
+ * 
+ * @author jflamy
+ */
+public class ResidentResultTest {
+
+	@Test
+	public void sortChangeIsComputedInMemory() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition,
+				item(1, "carol", 40), item(2, "alice", 20), item(3, "bob", 30));
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		assertEquals("[2, 3, 1]", ids(resident.computeFromMemory(queryDefinition, "id")));
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { false });
+		assertEquals("[1, 3, 2]", ids(resident.computeFromMemory(queryDefinition, "id")));
+	}
+
+	@Test
+	public void nullValuesSortFirstWhenAscending() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition,
+				item(1, "carol", 40), item(2, null, 20), item(3, "bob", 30));
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		assertEquals("[2, 3, 1]", ids(resident.computeFromMemory(queryDefinition, "id")));
+	}
+
+	@Test
+	public void sortIsStable() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition,
+				item(1, "x", 30), item(2, "y", 20), item(3, "z", 30), item(4, "w", 20));
+		queryDefinition.setSortState(new Object[] { "age" }, new boolean[] { true });
+		assertEquals("[2, 4, 1, 3]", ids(resident.computeFromMemory(queryDefinition, "id")));
+	}
+
+	@Test
+	public void narrowerFiltersAreAppliedInMemory() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition,
+				item(1, "carol", 40), item(2, "alice", 20), item(3, "bob", 30));
+		queryDefinition.addFilter(new Compare.Greater("age", 25));
+		assertEquals("[1, 3]", ids(resident.computeFromMemory(queryDefinition, "id")));
+	}
+
+	@Test
+	public void computedResultIsRecordedInPlace() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition,
+				item(1, "carol", 40), item(2, "alice", 20), item(3, "bob", 30));
+		queryDefinition.addFilter(new Compare.Greater("age", 25));
+		resident.computeFromMemory(queryDefinition, "id");
+		assertTrue(resident.isComplete());
+		assertEquals(2, resident.size());
+		// a sort change now starts from the filtered items.
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		assertEquals("[3, 1]", ids(resident.computeFromMemory(queryDefinition, "id")));
+	}
+
+	@Test
+	public void unchangedQueryGoesToDatabase() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition, item(1, "carol", 40), item(2, "alice", 20));
+		assertNull(resident.computeFromMemory(queryDefinition, "id"));
+	}
+
+	@Test
+	public void widerFiltersGoToDatabase() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		queryDefinition.addFilter(new Compare.Greater("age", 25));
+		final ResidentResult resident = record(queryDefinition, item(1, "carol", 40), item(3, "bob", 30));
+		queryDefinition.clearFilters();
+		assertNull(resident.computeFromMemory(queryDefinition, "id"));
+	}
+
+	@Test
+	public void incompleteResultGoesToDatabase() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = new ResidentResult();
+		resident.start(queryDefinition, "id", 3);
+		resident.record(0, item(1, "carol", 40));
+		resident.record(1, item(2, "alice", 20));
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		assertNull(resident.computeFromMemory(queryDefinition, "id"));
+	}
+
+	@Test
+	public void changedKeyGoesToDatabase() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition, item(1, "carol", 40), item(2, "alice", 20));
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		assertNull(resident.computeFromMemory(queryDefinition, "name"));
+	}
+
+	@Test
+	public void valuesThatCannotBeComparedGoToDatabase() {
+		final StubQueryDefinition queryDefinition = new StubQueryDefinition();
+		final ResidentResult resident = record(queryDefinition, item(1, new Object(), 40), item(2, new Object(), 20));
+		queryDefinition.setSortState(new Object[] { "name" }, new boolean[] { true });
+		assertNull(resident.computeFromMemory(queryDefinition, "id"));
+	}
+
+	/**
+	 * @return a complete result holding the items, in order, for the current state of the definition
+	 */
+	private static ResidentResult record(StubQueryDefinition queryDefinition, Item... items) {
+		final ResidentResult resident = new ResidentResult();
+		resident.start(queryDefinition, "id", items.length);
+		for (int i = 0; i < items.length; i++) {
+			resident.record(i, items[i]);
+		}
+		assertTrue(resident.isComplete());
+		return resident;
+	}
+
+	static Item item(Object id, Object name, Object age) {
+		final PropertysetItem item = new PropertysetItem();
+		item.addItemProperty("id", new ObjectProperty<Object>(id, Object.class));
+		item.addItemProperty("name", new ObjectProperty<Object>(name, Object.class));
+		item.addItemProperty("age", new ObjectProperty<Object>(age, Object.class));
+		return item;
+	}
+
+	static String ids(List<Item> items) {
+		if (items == null) {
+			return null;
+		}
+		final List<Object> ids = new ArrayList<Object>();
+		for (Item item : items) {
+			ids.add(item.getItemProperty("id").getValue());
+		}
+		return ids.toString();
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+
+/**
+ * A query definition on a stub EntityManager, for the tests that only exercise the state kept
+ * by the definition.  Building a query is not supported.
+ * 
+ * @author jflamy
+ */
+class StubQueryDefinition extends BeanTupleQueryDefinition {
+
+	StubQueryDefinition() {
+		this(Stubs.stub(EntityManager.class, Stubs.NOTHING));
+	}
+
+	/**
+	 * @param entityManager the stub that the test inspects
+	 */
+	StubQueryDefinition(EntityManager entityManager) {
+		super(entityManager, true, 50);
+	}
+
+	@Override
+	protected Path<?> defineQuery(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> tupleQuery) {
+		throw new UnsupportedOperationException("no query in unit tests");
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.beantuplecontainer;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Stand-ins for the JPA interfaces, built as dynamic proxies.  The calls a test does not answer
+ * return null, false or zero.
+ * 
+ * @author jflamy
+ */
+final class Stubs {
+
+	/**
+	 * Answers the calls made on a stub.
+	 */
+	interface Answer {
+		/**
+		 * @param method the name of the method called
+		 * @param args the arguments, null if there are none
+		 * @return the result; null gives the default value of a primitive return type
+		 */
+		Object answer(String method, Object[] args);
+	}
+
+	/** answers null, false or zero to every call */
+	static final Answer NOTHING = new Answer() {
+		@Override
+		public Object answer(String method, Object[] args) {
+			return null;
+		}
+	};
+
+	private Stubs() {
+	}
+
+	/**
+	 * @param type the interface to implement
+	 * @param answer computes the result of each call
+	 * @return the stub
+	 */
+	static <T> T stub(final Class<T> type, final Answer answer) {
+		return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getDeclaringClass() == Object.class) {
+					if ("equals".equals(method.getName())) {
+						return proxy == args[0];
+					} else if ("hashCode".equals(method.getName())) {
+						return System.identityHashCode(proxy);
+					}
+					return type.getSimpleName() + " stub";
+				}
+				final Object result = answer.answer(method.getName(), args);
+				final Class<?> returnType = method.getReturnType();
+				if (result == null && returnType.isPrimitive() && returnType != void.class) {
+					return Array.get(Array.newInstance(returnType, 1), 0);
+				}
+				return result;
+			}
+		}));
+	}
+}
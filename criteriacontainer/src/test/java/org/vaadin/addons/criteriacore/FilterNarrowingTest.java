@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+/**
+ * Detection of filter changes that can be applied to the previous result, by {@link FilterNarrowing}.
+ * 
+ * @author jflamy
+ */
+public class FilterNarrowingTest {
+
+	@Test
+	public void longerContainsStringIsNarrower() {
+		assertTrue(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "xab", false, false),
+				new SimpleStringFilter("name", "ab", false, false)));
+		assertFalse(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "ab", false, false),
+				new SimpleStringFilter("name", "xab", false, false)));
+	}
+
+	@Test
+	public void longerPrefixIsNarrower() {
+		assertTrue(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "abc", false, true),
+				new SimpleStringFilter("name", "ab", false, true)));
+		assertFalse(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "xab", false, true),
+				new SimpleStringFilter("name", "ab", false, true)));
+	}
+
+	@Test
+	public void containsIsNotNarrowerThanPrefix() {
+		assertFalse(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "abc", false, false),
+				new SimpleStringFilter("name", "ab", false, true)));
+	}
+
+	@Test
+	public void prefixIsNarrowerThanContains() {
+		assertTrue(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "abc", false, true),
+				new SimpleStringFilter("name", "b", false, false)));
+	}
+
+	@Test
+	public void differentPropertyOrCaseModeIsNotNarrower() {
+		assertFalse(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("other", "abc", false, false),
+				new SimpleStringFilter("name", "ab", false, false)));
+		assertFalse(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "abc", true, false),
+				new SimpleStringFilter("name", "ab", false, false)));
+	}
+
+	@Test
+	public void ignoreCaseComparesLowerCase() {
+		assertTrue(FilterNarrowing.isNarrower(
+				new SimpleStringFilter("name", "TITLE", true, false),
+				new SimpleStringFilter("name", "Ti", true, false)));
+	}
+
+	@Test
+	public void addedFilterIsNarrowing() {
+		Filter name = new SimpleStringFilter("name", "ab", false, false);
+		List<Filter> previous = Collections.singletonList(name);
+		List<Filter> current = Arrays.asList(name, new Compare.Greater("age", 3));
+		assertTrue(FilterNarrowing.isNarrowing(previous, current));
+	}
+
+	@Test
+	public void refinedFilterIsNarrowing() {
+		List<Filter> previous = Collections.<Filter>singletonList(new SimpleStringFilter("name", "ab", false, false));
+		List<Filter> current = Collections.<Filter>singletonList(new SimpleStringFilter("name", "abc", false, false));
+		assertTrue(FilterNarrowing.isNarrowing(previous, current));
+	}
+
+	@Test
+	public void removedOrUnchangedFilterIsNotNarrowing() {
+		Filter name = new SimpleStringFilter("name", "ab", false, false);
+		Filter age = new Compare.Greater("age", 3);
+		assertFalse(FilterNarrowing.isNarrowing(Arrays.asList(name, age), Collections.singletonList(name)));
+		assertFalse(FilterNarrowing.isNarrowing(Arrays.asList(name, age), Arrays.asList(age, name)));
+	}
+
+	@Test
+	public void otherFilterTypesAreOnlyNarrowerWhenEqual() {
+		assertTrue(FilterNarrowing.isNarrower(new Compare.Greater("age", 3), new Compare.Greater("age", 3)));
+		assertFalse(FilterNarrowing.isNarrower(new Compare.Greater("age", 5), new Compare.Greater("age", 3)));
+	}
+
+}
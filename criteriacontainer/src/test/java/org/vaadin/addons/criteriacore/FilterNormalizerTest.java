@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+
+/**
+ * Folding of the container filters by {@link FilterNormalizer}.
+ * 
+ * @author jflamy
+ */
+public class FilterNormalizerTest {
+
+	private enum Level {
+		LOW, MEDIUM, HIGH
+	}
+
+	@Test
+	public void disjointNumberRangesFoldToNone() {
+		assertSame(FilterNormalizer.NONE,
+				FilterNormalizer.normalize(new And(new Compare.Greater("age", 10), new Compare.Less("age", 5))));
+	}
+
+	@Test
+	public void strictBoundOnEqualValueFoldsToNone() {
+		assertSame(FilterNormalizer.NONE,
+				FilterNormalizer.normalize(new And(new Compare.Equal("age", 5), new Compare.Less("age", 5))));
+	}
+
+	@Test
+	public void overlappingNumberRangesAreKept() {
+		Filter normalized = FilterNormalizer.normalize(
+				new And(new Compare.GreaterOrEqual("age", 5), new Compare.LessOrEqual("age", 5)));
+		assertTrue(normalized instanceof And);
+		assertEquals(2, ((And) normalized).getFilters().size());
+	}
+
+	@Test
+	public void disjointDateRangesFoldToNone() {
+		Date earlier = new Date(1000000L);
+		Date later = new Date(2000000L);
+		assertSame(FilterNormalizer.NONE,
+				FilterNormalizer.normalize(new And(new Compare.Greater("when", later), new Compare.Less("when", earlier))));
+	}
+
+	@Test
+	public void numbersOfDifferentTypesAreNotFolded() {
+		Filter normalized = FilterNormalizer.normalize(
+				new And(new Compare.Greater("age", 10L), new Compare.Less("age", 5)));
+		assertNotSame(FilterNormalizer.NONE, normalized);
+	}
+
+	@Test
+	public void enumRangesAreNotFolded() {
+		// the database may order an enum by name or by ordinal: the Java order cannot be trusted.
+		Filter normalized = FilterNormalizer.normalize(
+				new And(new Compare.Greater("level", Level.HIGH), new Compare.Less("level", Level.LOW)));
+		assertNotSame(FilterNormalizer.NONE, normalized);
+	}
+
+	@Test
+	public void enumEqualToAnEnumBoundIsNotFolded() {
+		Filter normalized = FilterNormalizer.normalize(
+				new And(new Compare.Equal("level", Level.MEDIUM), new Compare.Less("level", Level.LOW)));
+		assertNotSame(FilterNormalizer.NONE, normalized);
+	}
+
+	@Test
+	public void differentEqualEnumsFoldToNone() {
+		assertSame(FilterNormalizer.NONE, FilterNormalizer.normalize(
+				new And(new Compare.Equal("level", Level.LOW), new Compare.Equal("level", Level.HIGH))));
+	}
+
+	@Test
+	public void stringAndCharacterRangesAreNotFolded() {
+		// collations differ from String.compareTo.
+		assertNotSame(FilterNormalizer.NONE, FilterNormalizer.normalize(
+				new And(new Compare.Greater("name", "b"), new Compare.Less("name", "a"))));
+		assertNotSame(FilterNormalizer.NONE, FilterNormalizer.normalize(
+				new And(new Compare.Greater("initial", 'b'), new Compare.Less("initial", 'a'))));
+	}
+
+	@Test
+	public void nullAndComparisonFoldToNone() {
+		assertSame(FilterNormalizer.NONE,
+				FilterNormalizer.normalize(new And(new IsNull("age"), new Compare.Equal("age", 5))));
+	}
+
+	@Test
+	public void filterAndItsNegationFoldToNone() {
+		Filter filter = new Compare.Equal("name", "x");
+		assertSame(FilterNormalizer.NONE, FilterNormalizer.normalize(new And(filter, new Not(filter))));
+	}
+
+	@Test
+	public void doubleNegationIsRemoved() {
+		Filter filter = new Compare.Equal("name", "x");
+		assertSame(filter, FilterNormalizer.normalize(new Not(new Not(filter))));
+	}
+
+	@Test
+	public void disjunctionWithAlwaysTrueTermFoldsToAll() {
+		Filter filter = new Compare.Equal("name", "x");
+		assertSame(FilterNormalizer.ALL, FilterNormalizer.normalize(new Or(filter, new Not(FilterNormalizer.NONE))));
+	}
+
+	@Test
+	public void nestedConjunctionsAreFlattened() {
+		Filter a = new Compare.Equal("name", "x");
+		Filter b = new Compare.Greater("age", 3);
+		Filter c = new Compare.Less("age", 30);
+		List<Filter> filters = new ArrayList<Filter>(Arrays.asList(a, new And(b, c)));
+		assertEquals(Arrays.asList(a, b, c), FilterNormalizer.normalizeConjunction(filters));
+	}
+
+	@Test
+	public void emptyConjunctionPassesEverything() {
+		assertTrue(FilterNormalizer.normalizeConjunction(new ArrayList<Filter>()).isEmpty());
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+/**
+ * Conversion of filter values to the type of the filtered expression, before they are bound.
+ * 
+ * @author jflamy
+ */
+public class FilterTranslatorTest {
+
+	@Test
+	public void integerIsConvertedToLong() {
+		assertEquals(Long.valueOf(42L), FilterTranslator.convert(Integer.valueOf(42), Long.class));
+	}
+
+	@Test
+	public void integralDoubleIsConvertedToInteger() {
+		assertEquals(Integer.valueOf(3), FilterTranslator.convert(Double.valueOf(3.0), Integer.class));
+	}
+
+	@Test
+	public void fractionIsNotTruncated() {
+		assertNull(FilterTranslator.convert(Double.valueOf(3.5), Long.class));
+	}
+
+	@Test
+	public void overflowIsNotConverted() {
+		assertNull(FilterTranslator.convert(Long.valueOf(Integer.MAX_VALUE + 1L), Integer.class));
+		assertNull(FilterTranslator.convert(Integer.valueOf(300), Byte.class));
+	}
+
+	@Test
+	public void decimalsAreConverted() {
+		assertEquals(0, new BigDecimal("12.25").compareTo((BigDecimal) FilterTranslator.convert(Double.valueOf(12.25), BigDecimal.class)));
+		assertEquals(BigInteger.valueOf(7), FilterTranslator.convert(Long.valueOf(7), BigInteger.class));
+	}
+
+	@Test
+	public void notANumberIsNotConverted() {
+		assertNull(FilterTranslator.convert(Double.valueOf(Double.NaN), Float.class));
+	}
+
+	@Test
+	public void nonNumericTypeIsNotConverted() {
+		assertNull(FilterTranslator.convert(Integer.valueOf(1), String.class));
+	}
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2012 Jean-François Lamy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.criteriacore;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Sizes of the in-lists built by {@link InPredicates}: values are split in chunks of
+ * {@link InPredicates#CHUNK_SIZE}, and the last chunk is padded to a canonical length.
+ * 
+ * @author jflamy
+ */
+public class InPredicatesTest {
+
+	@Test
+	public void canonicalSizeIsNextPowerOfTwo() {
+		assertEquals(1, InPredicates.canonicalSize(1));
+		assertEquals(2, InPredicates.canonicalSize(2));
+		assertEquals(4, InPredicates.canonicalSize(3));
+		assertEquals(64, InPredicates.canonicalSize(33));
+		assertEquals(256, InPredicates.canonicalSize(256));
+	}
+
+	@Test
+	public void canonicalSizeStopsAtChunkSize() {
+		assertEquals(InPredicates.CHUNK_SIZE, InPredicates.canonicalSize(InPredicates.CHUNK_SIZE - 1));
+		assertEquals(InPredicates.CHUNK_SIZE, InPredicates.canonicalSize(InPredicates.CHUNK_SIZE));
+		assertEquals(InPredicates.CHUNK_SIZE + 1, InPredicates.canonicalSize(InPredicates.CHUNK_SIZE + 1));
+	}
+
+	@Test
+	public void singleChunkIsPadded() {
+		assertEquals(0, InPredicates.paddedSize(0));
+		assertEquals(1, InPredicates.paddedSize(1));
+		assertEquals(8, InPredicates.paddedSize(5));
+		assertEquals(InPredicates.CHUNK_SIZE, InPredicates.paddedSize(300));
+	}
+
+	@Test
+	public void fullChunksAreNotPadded() {
+		assertEquals(InPredicates.CHUNK_SIZE, InPredicates.paddedSize(InPredicates.CHUNK_SIZE));
+		assertEquals(3 * InPredicates.CHUNK_SIZE, InPredicates.paddedSize(3 * InPredicates.CHUNK_SIZE));
+	}
+
+	@Test
+	public void onlyLastChunkIsPadded() {
+		assertEquals(InPredicates.CHUNK_SIZE + 1, InPredicates.paddedSize(InPredicates.CHUNK_SIZE + 1));
+		assertEquals(2 * InPredicates.CHUNK_SIZE + 16, InPredicates.paddedSize(2 * InPredicates.CHUNK_SIZE + 10));
+		assertEquals(InPredicates.CHUNK_SIZE + 128, InPredicates.paddedSize(InPredicates.CHUNK_SIZE + 100));
+	}
+
+}